@@ -1,15 +1,26 @@
 package org.example;
 
+import org.example.manager.FileCoordinatorLog;
 import org.example.manager.TccTransactionManager;
+import org.example.manager.TxStateIndex;
 import org.example.scheduler.AbnormalOrderProcessor;
 import org.example.scheduler.MessageProcessor;
+import org.example.service.ChargingPointRegistry;
+import org.example.service.MeterIngestor;
+import org.example.service.PointsAccumulator;
 import org.example.service.impl.ExtendedChargingService;
 import org.example.service.impl.PaymentService;
 import org.example.service.impl.PointsService;
+import org.example.storage.MemoryStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
 import org.example.util.DBUtil;
+import org.example.util.IdGenerator;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,22 +28,93 @@ import java.util.concurrent.TimeUnit;
  */
 public class Main {
     public static void main(String[] args) {
-        // 初始化数据库表
-        DBUtil.initTables();
+        // -Dcharge.node.id 为每个进程指定互不相同的节点号，未配置时在这里启动失败
+        System.out.println("节点号: " + IdGenerator.getDefault().getNodeId());
+
+        // 所有服务和定时任务共用同一个存储引擎（-Dcharge.storage=memory 可切换为内存存储）
+        StorageEngine storage = StorageEngines.getDefault();
+        if (storage instanceof MemoryStorageEngine) {
+            ((MemoryStorageEngine) storage).createAccount("user1", 1000.0);
+        } else {
+            // 初始化数据库表
+            DBUtil.initTables();
+        }
 
         // 初始化服务
-        PaymentService paymentService = new PaymentService();
-        ExtendedChargingService chargingService = new ExtendedChargingService();
-        PointsService pointsService = new PointsService();
-        TccTransactionManager transactionManager = new TccTransactionManager();
+        PaymentService paymentService = new PaymentService(storage);
+        ExtendedChargingService chargingService = new ExtendedChargingService(storage);
+        PointsService pointsService = new PointsService(storage);
+        TccTransactionManager transactionManager = new TccTransactionManager(storage);
+
+        // -Dcharge.txindex.entries 指定容量时，事务状态查询先走堆外索引
+        String indexEntries = System.getProperty("charge.txindex.entries");
+        if (indexEntries != null) {
+            transactionManager.setStateIndex(new TxStateIndex(Integer.parseInt(indexEntries)));
+        }
+
+        // -Dcharge.coordinator.log.dir 指定目录时，事务状态记录在本地日志文件中
+        String coordinatorLogDir = System.getProperty("charge.coordinator.log.dir");
+        if (coordinatorLogDir != null) {
+            try {
+                transactionManager.setCoordinatorLog(new FileCoordinatorLog(Paths.get(coordinatorLogDir)));
+            } catch (IOException e) {
+                System.err.println("打开协调者日志失败，使用数据库记录事务状态: " + e.getMessage());
+            }
+        }
+
+        // -Dcharge.lease.accounts 指定的账户（逗号分隔）由本节点持有余额租约，预扣不再访问账户表
+        String leasedAccounts = System.getProperty("charge.lease.accounts");
+        if (leasedAccounts != null) {
+            for (String account : leasedAccounts.split(",")) {
+                paymentService.getLeaseManager().addLeasedAccount(account.trim());
+            }
+        }
+
+        // -Dcharge.meter=true 时接入充电中会话的电表读数，预扣金额用完自动停止
+        MeterIngestor meterIngestor = null;
+        if (Boolean.getBoolean("charge.meter")) {
+            meterIngestor = new MeterIngestor(storage);
+            chargingService.setMeterIngestor(meterIngestor);
+            // 预扣金额用完时提交TCC事务完成订单；提交失败的由异常订单处理任务在超时后确认
+            meterIngestor.setStopListener(checkpoint -> {
+                try (Connection conn = storage.openConnection()) {
+                    if (transactionManager.commit(conn, checkpoint.getTxId(), paymentService, chargingService)) {
+                        System.out.println("预扣金额已用完，已停止充电并完成订单: " + checkpoint.getOrderId());
+                    } else {
+                        System.err.println("预扣金额已用完，提交事务失败: " + checkpoint.getTxId());
+                    }
+                } catch (SQLException e) {
+                    System.err.println("预扣金额已用完，提交事务异常: " + checkpoint.getTxId() + ", " + e.getMessage());
+                }
+            });
+            meterIngestor.start();
+        }
+
+        // -Dcharge.points.writebehind=true 时积分先写台账，user_points由累加器在后台合并写入
+        PointsAccumulator pointsAccumulator = null;
+        if (Boolean.getBoolean("charge.points.writebehind")) {
+            pointsAccumulator = new PointsAccumulator(storage);
+            try (Connection conn = storage.openConnection()) {
+                pointsAccumulator.recover(conn);
+            } catch (SQLException e) {
+                System.err.println("补记积分失败: " + e.getMessage());
+            }
+            pointsAccumulator.start();
+            pointsService.setAccumulator(pointsAccumulator);
+        }
 
         // 启动异常订单处理定时任务
-        AbnormalOrderProcessor orderProcessor = new AbnormalOrderProcessor(paymentService, chargingService, transactionManager);
+        AbnormalOrderProcessor orderProcessor =
+            new AbnormalOrderProcessor(paymentService, chargingService, transactionManager, storage);
         orderProcessor.start();
 
         // 启动消息处理器
-        MessageProcessor messageProcessor = new MessageProcessor(pointsService);
+        MessageProcessor messageProcessor = new MessageProcessor(pointsService, storage);
         messageProcessor.setCheckIntervalSeconds(30); // 每30秒检查一次
+        // -Dcharge.message.workers 指定认领处理消息的工作线程数，多个节点可同时运行
+        messageProcessor.setWorkerCount(Integer.getInteger("charge.message.workers", 1));
+        // 本节点结算产生的积分消息提交后立即唤醒消息处理器，定期扫描只作兜底
+        chargingService.setMessageWakeup(messageProcessor.getWakeup());
         messageProcessor.start();
 
         // 测试数据
@@ -41,7 +123,13 @@ public class Main {
         double chargeAmount = 100.0;
         String orderId = null;
 
-        try (Connection conn = DBUtil.getConnection()) {
+        try (Connection conn = storage.openConnection()) {
+            // 0. 从未结束的订单重建充电桩占用登记，恢复上次退出时未完成的事务
+            ChargingPointRegistry pointRegistry = new ChargingPointRegistry(storage);
+            System.out.println("占用中的充电桩: " + pointRegistry.rebuild(conn));
+            chargingService.setPointRegistry(pointRegistry);
+            transactionManager.recover(conn, paymentService, chargingService);
+
             // 1. 开始事务并完成充电
             String txId = transactionManager.beginTransaction(conn);
 
@@ -59,9 +147,8 @@ public class Main {
                         System.out.println("充电交易成功完成");
 
                         // 获取订单ID
-                        Map<String, Object> order = chargingService.getOrder(conn, txId, null);
-                        if (order != null) {
-                            orderId = (String) order.get("order_id");
+                        orderId = chargingService.getOrderId(conn, txId);
+                        if (orderId != null) {
                             System.out.println("充电订单ID: " + orderId);
                         }
                     } else {
@@ -107,7 +194,7 @@ public class Main {
             TimeUnit.MINUTES.sleep(2); // 等待2分钟
 
             // 再次查询积分
-            try (Connection conn = DBUtil.getConnection()) {
+            try (Connection conn = storage.openConnection()) {
                 System.out.println("\n最终状态:");
                 System.out.println("用户最终积分: " + pointsService.getUserPoints(conn, userId));
             }
@@ -116,6 +203,16 @@ public class Main {
         } finally {
             // 停止定时任务
             messageProcessor.stop();
+            if (meterIngestor != null) {
+                meterIngestor.stop();
+            }
+            if (pointsAccumulator != null) {
+                pointsAccumulator.stop();
+            }
+            paymentService.getLeaseManager().releaseAll();
+            transactionManager.getCoordinatorLog().close();
+            storage.close();
+            DBUtil.closeDataSource();
         }
     }
 }
@@ -0,0 +1,99 @@
+package org.example.benchmark;
+
+import org.example.manager.AsyncTccTransactionManager;
+import org.example.service.AsyncTccAction;
+import org.example.service.BlockingTccActionAdapter;
+import org.example.service.impl.ChargingService;
+import org.example.service.impl.PaymentService;
+import org.example.storage.JdbcStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.DBUtil;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用异步事务管理器同时发起大量充电会话，统计吞吐量和进程峰值线程数
+ *
+ * 用法: AsyncTccBenchmark [会话数] [最大并发会话数]，-Dcharge.storage=memory 可在内存存储上运行。
+ */
+public class AsyncTccBenchmark {
+    private static final String USER_ID = "bench_user";
+    private static final String CHARGING_POINT_ID = "CP_BENCH";
+    private static final double AMOUNT = 1.0;
+
+    public static void main(String[] args) throws SQLException, InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        StorageEngine storage = StorageEngines.getDefault();
+        if (storage instanceof JdbcStorageEngine) {
+            DBUtil.initTables();
+        }
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            storage.saveAccount(conn, USER_ID, AMOUNT * sessions * 2);
+            storage.commit(conn);
+        }
+
+        AsyncTccTransactionManager transactionManager = new AsyncTccTransactionManager(storage);
+        ChargingService chargingService = new ChargingService(storage);
+        chargingService.setFailureRate(0);
+        AsyncTccAction payment =
+            new BlockingTccActionAdapter(new PaymentService(storage), storage, transactionManager.getExecutor());
+        AsyncTccAction charging =
+            new BlockingTccActionAdapter(chargingService, storage, transactionManager.getExecutor());
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < sessions; i++) {
+                inFlight.acquire();
+                transactionManager.beginTransactionAsync()
+                    .thenCompose(txId -> transactionManager.executeTryAsync(txId, payment, USER_ID, AMOUNT)
+                        .thenCombine(transactionManager.executeTryAsync(txId, charging, CHARGING_POINT_ID,
+                                                                        USER_ID, AMOUNT), (a, b) -> a && b)
+                        .thenCompose(ok -> ok
+                            ? transactionManager.commitAsync(txId, payment, charging)
+                            : transactionManager.rollbackAsync(txId, payment, charging)
+                                .thenApply(v -> false)))
+                    .whenComplete((ok, e) -> {
+                        if (e == null && ok) {
+                            succeeded.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                        inFlight.release();
+                    });
+            }
+            inFlight.acquire(concurrency);
+        } finally {
+            System.setOut(console);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("会话 %d (成功 %d, 失败 %d)，最大并发 %d，耗时 %.1f ms，吞吐 %.0f 会话/秒，峰值线程数 %d%n",
+                          sessions, succeeded.get(), failed.get(), concurrency, elapsed / 1e6,
+                          sessions / (elapsed / 1e9), ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        storage.close();
+        if (storage instanceof JdbcStorageEngine) {
+            DBUtil.closeDataSource();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.example.benchmark;
+
+import org.example.service.DeductionStrategy;
+import org.example.service.impl.ConditionalDeductionStrategy;
+import org.example.service.impl.LockingDeductionStrategy;
+import org.example.service.impl.ReadThenWriteDeductionStrategy;
+import org.example.service.impl.VersionedDeductionStrategy;
+import org.example.storage.JdbcStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.DBUtil;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 同一账户上并发扣减，随并发度增加对比各扣减策略的吞吐和透支率
+ *
+ * 用法: DeductionContentionBenchmark [最大并发] [每线程扣减次数]，-Dcharge.storage=memory 可在内存存储上运行。
+ * 账户余额只够一半的扣减，成功扣减超过余额允许的部分计为透支；
+ * 乐观版本策略重试耗尽时抛出的异常计为冲突失败。
+ */
+public class DeductionContentionBenchmark {
+    private static final String USER_ID = "contention_user";
+    private static final double AMOUNT = 1.0;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        StorageEngine storage = StorageEngines.getDefault();
+        if (storage instanceof JdbcStorageEngine) {
+            DBUtil.initTables();
+        }
+
+        List<DeductionStrategy> strategies = Arrays.asList(
+            new ReadThenWriteDeductionStrategy(storage),
+            new ConditionalDeductionStrategy(storage),
+            new LockingDeductionStrategy(storage),
+            new VersionedDeductionStrategy(storage));
+
+        try {
+            System.out.printf("%-8s %6s %12s %10s %10s%n", "策略", "并发", "吞吐(次/秒)", "透支率", "冲突失败");
+            for (DeductionStrategy strategy : strategies) {
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    run(storage, strategy, threads, perThread);
+                }
+            }
+        } finally {
+            storage.close();
+            if (storage instanceof JdbcStorageEngine) {
+                DBUtil.closeDataSource();
+            }
+        }
+    }
+
+    private static void run(StorageEngine storage, DeductionStrategy strategy, int threads, int perThread)
+        throws Exception {
+        int attempts = threads * perThread;
+        int affordable = attempts / 2;
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            storage.saveAccount(conn, USER_ID, affordable * AMOUNT);
+            storage.commit(conn);
+        }
+
+        AtomicInteger deducted = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try (Connection conn = storage.openConnection()) {
+                    ready.countDown();
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        storage.begin(conn);
+                        try {
+                            if (strategy.deduct(conn, USER_ID, AMOUNT)) {
+                                deducted.incrementAndGet();
+                            }
+                            storage.commit(conn);
+                        } catch (SQLException e) {
+                            storage.rollback(conn);
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (SQLException | InterruptedException e) {
+                    System.err.println("压测线程异常: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            }, "deduct-" + t).start();
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        int overdrawn = Math.max(0, deducted.get() - affordable);
+        System.out.printf("%-8s %6d %12.0f %9.2f%% %10d%n", strategy.getName(), threads,
+                          attempts / (elapsed / 1e9), 100.0 * overdrawn / attempts, failures.get());
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.benchmark;
+
+import org.example.service.impl.PaymentService;
+import org.example.storage.JdbcStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.DBUtil;
+import org.example.util.IdGenerator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个会话并发对同一个账户预扣，对比逐笔预扣和热点账户合并预扣的吞吐和提交次数
+ *
+ * 用法: HotAccountBenchmark [并发线程数] [每线程预扣次数]，-Dcharge.storage=memory 可在内存存储上运行。
+ * 账户余额只够一半的预扣，结束时校验余额加上被接受的预扣金额等于初始余额。
+ */
+public class HotAccountBenchmark {
+    private static final String USER_ID = "fleet_user";
+    private static final double AMOUNT = 1.0;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        StorageEngine storage = StorageEngines.getDefault();
+        if (storage instanceof JdbcStorageEngine) {
+            DBUtil.initTables();
+        }
+
+        try {
+            run(storage, "逐笔预扣", false, threads, perThread);
+            run(storage, "合并预扣", true, threads, perThread);
+        } finally {
+            storage.close();
+            if (storage instanceof JdbcStorageEngine) {
+                DBUtil.closeDataSource();
+            }
+        }
+    }
+
+    private static void run(StorageEngine storage, String name, boolean coalesce, int threads, int perThread)
+        throws Exception {
+        PaymentService paymentService = new PaymentService(storage);
+        if (coalesce) {
+            paymentService.getHoldCoalescer().addHotAccount(USER_ID);
+        }
+
+        int holds = threads * perThread;
+        double initial = AMOUNT * holds / 2;
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            storage.saveAccount(conn, USER_ID, initial);
+            storage.commit(conn);
+        }
+
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        long commitsBefore = storage.getCommitCount();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long start = System.nanoTime();
+        try {
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    try (Connection conn = storage.openConnection()) {
+                        for (int i = 0; i < perThread; i++) {
+                            String txId = IdGenerator.getDefault().nextIdString();
+                            if (paymentService.tryAction(conn, txId, USER_ID, AMOUNT)) {
+                                accepted.incrementAndGet();
+                            }
+                        }
+                    } catch (SQLException e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }, "hot-account-" + t).start();
+            }
+            done.await();
+        } finally {
+            System.setOut(console);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double balance;
+        try (Connection conn = storage.openConnection()) {
+            balance = paymentService.getUserBalance(conn, USER_ID);
+        }
+        long commits = storage.getCommitCount() - commitsBefore;
+        System.out.printf("%s: 预扣 %d 次 (接受 %d, 异常线程 %d)，提交 %d 次，耗时 %.1f ms，吞吐 %.0f 次/秒%n",
+                          name, holds, accepted.get(), errors.get(), commits, elapsed / 1e6,
+                          holds / (elapsed / 1e9));
+        if (Math.abs(balance + accepted.get() * AMOUNT - initial) > 1e-6) {
+            System.err.printf("  余额不一致: 余额 %.2f + 接受 %.2f != 初始 %.2f%n",
+                              balance, accepted.get() * AMOUNT, initial);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.benchmark;
+
+import org.example.util.DBUtil;
+import org.example.util.IdGenerator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * 对比随机UUID和时间递增ID作为主键时的生成速度与InnoDB插入吞吐量
+ *
+ * 用法: IdInsertBenchmark [插入行数] [每批行数]。插入测试使用DBUtil的数据库，
+ * 在临时表上进行，结束后删除临时表。
+ */
+public class IdInsertBenchmark {
+    private static final int GENERATE_COUNT = 1_000_000;
+
+    public static void main(String[] args) throws SQLException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        IdGenerator generator = IdGenerator.getDefault();
+        Supplier<String> uuid = () -> UUID.randomUUID().toString();
+        Supplier<String> snowflake = generator::nextIdString;
+
+        generate("随机UUID", uuid);
+        generate("时间递增ID", snowflake);
+
+        try {
+            insert("随机UUID", "id_bench_uuid", uuid, rows, batchSize);
+            insert("时间递增ID", "id_bench_snowflake", snowflake, rows, batchSize);
+        } finally {
+            DBUtil.closeDataSource();
+        }
+    }
+
+    private static void generate(String name, Supplier<String> ids) {
+        // 预热
+        for (int i = 0; i < GENERATE_COUNT / 10; i++) {
+            ids.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < GENERATE_COUNT; i++) {
+            ids.get();
+        }
+        System.out.printf("%s 生成: %.1f ns/个%n", name, (System.nanoTime() - start) / (double) GENERATE_COUNT);
+    }
+
+    private static void insert(String name, String table, Supplier<String> ids, int rows, int batchSize)
+        throws SQLException {
+        try (Connection conn = DBUtil.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE IF EXISTS " + table);
+                // 与transaction_record相同的主键类型
+                stmt.execute("CREATE TABLE " + table + " (" +
+                             "id VARCHAR(50) PRIMARY KEY," +
+                             "status VARCHAR(20) NOT NULL," +
+                             "create_time TIMESTAMP NOT NULL" +
+                             ")");
+            }
+
+            conn.setAutoCommit(false);
+            long start = System.nanoTime();
+            long lastReport = start;
+            int reportEvery = Math.max(1, rows / 4);
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                     "INSERT INTO " + table + " (id, status, create_time) VALUES (?, ?, ?)")) {
+                for (int i = 1; i <= rows; i++) {
+                    pstmt.setString(1, ids.get());
+                    pstmt.setString(2, "INIT");
+                    pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                    pstmt.addBatch();
+                    if (i % batchSize == 0 || i == rows) {
+                        pstmt.executeBatch();
+                        conn.commit();
+                    }
+                    // 按区间报告吞吐量，观察表变大后的衰减
+                    if (i % reportEvery == 0) {
+                        long now = System.nanoTime();
+                        System.out.printf("%s 插入: 已插入 %d 行，本区间 %.0f 行/秒%n",
+                                          name, i, reportEvery / ((now - lastReport) / 1e9));
+                        lastReport = now;
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%s 插入: 共 %d 行，%.0f 行/秒%n", name, rows, rows / (elapsed / 1e9));
+
+            conn.setAutoCommit(true);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE " + table);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.example.benchmark;
+
+import org.example.message.MessageCodec;
+import org.example.message.SettlementPayload;
+import org.example.model.LocalMessage;
+import org.example.scheduler.MessageProcessor;
+import org.example.service.impl.PointsService;
+import org.example.storage.JdbcStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.DBUtil;
+import org.example.util.IdGenerator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个节点、多个工作线程并发认领处理结算消息积压，观察吞吐随工作线程数的变化并检查重复认领
+ *
+ * 用法: MessageClaimBenchmark [消息数] [节点数] [每节点最大工作线程]，-Dcharge.storage=memory 可在内存存储上运行。
+ * 每个节点是一个独立的消息处理器，共用同一个存储；积分总和达到预期时计为处理完成，
+ * 同一条消息被认领超过一次计为重复认领。
+ */
+public class MessageClaimBenchmark {
+    private static final int USERS = 100;
+    private static final int POINTS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int maxWorkers = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        StorageEngine target = StorageEngines.getDefault();
+        if (target instanceof JdbcStorageEngine) {
+            DBUtil.initTables();
+        }
+        Set<String> claimed = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        StorageEngine storage = countingClaims(target, claimed, duplicates);
+
+        try {
+            System.out.printf("%6s %10s %12s %10s%n", "节点", "工作线程", "吞吐(条/秒)", "重复认领");
+            for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+                duplicates.set(0);
+                run(storage, nodes, workers, count, duplicates);
+            }
+        } finally {
+            target.close();
+            if (target instanceof JdbcStorageEngine) {
+                DBUtil.closeDataSource();
+            }
+        }
+    }
+
+    private static void run(StorageEngine storage, int nodes, int workers, int count, AtomicInteger duplicates)
+        throws Exception {
+        String prefix = "claim_" + workers + "_user_";
+        createUsers(storage, prefix);
+        insertMessages(storage, prefix, count);
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long elapsed;
+        List<MessageProcessor> processors = new ArrayList<>();
+        try {
+            long start = System.nanoTime();
+            for (int n = 0; n < nodes; n++) {
+                MessageProcessor processor = new MessageProcessor(new PointsService(storage), storage);
+                processor.setWorkerCount(workers);
+                processor.setCheckIntervalSeconds(1);
+                processor.setBatchSize(200);
+                processors.add(processor);
+                processor.start();
+            }
+            while (awardedPoints(storage, prefix) < (long) count * POINTS) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            elapsed = System.nanoTime() - start;
+        } finally {
+            for (MessageProcessor processor : processors) {
+                processor.stop();
+            }
+            System.setOut(console);
+        }
+
+        System.out.printf("%6d %10d %12.0f %10d%n", nodes, workers, count / (elapsed / 1e9), duplicates.get());
+    }
+
+    // 记录每次认领到的消息ID，同一ID再次被认领时计为重复
+    private static StorageEngine countingClaims(StorageEngine target, Set<String> claimed, AtomicInteger duplicates) {
+        return (StorageEngine) Proxy.newProxyInstance(
+            StorageEngine.class.getClassLoader(), new Class<?>[] {StorageEngine.class}, (proxy, method, args) -> {
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if ("claimMessages".equals(method.getName())) {
+                    for (Object message : (List<?>) result) {
+                        if (!claimed.add(((LocalMessage) message).getMessageId())) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                }
+                return result;
+            });
+    }
+
+    // points_transaction引用user_account
+    private static void createUsers(StorageEngine storage, String prefix) throws Exception {
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            for (int u = 0; u < USERS; u++) {
+                storage.saveAccount(conn, prefix + u, 0);
+            }
+            storage.commit(conn);
+        }
+    }
+
+    private static void insertMessages(StorageEngine storage, String prefix, int count) throws Exception {
+        MessageCodec codec = MessageCodec.getDefault();
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            List<LocalMessage> messages = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String orderId = IdGenerator.getDefault().nextIdString();
+                SettlementPayload payload =
+                    new SettlementPayload(prefix + (i % USERS), orderId, POINTS, System.currentTimeMillis());
+                messages.add(new LocalMessage(IdGenerator.getDefault().nextIdString("MSG_"),
+                                              SettlementPayload.BUSINESS_TYPE, orderId, codec.encode(payload)));
+                if (messages.size() == 500) {
+                    storage.insertMessages(conn, messages);
+                    messages.clear();
+                }
+            }
+            storage.insertMessages(conn, messages);
+            storage.commit(conn);
+        }
+    }
+
+    // 所有消息都处理完成时积分总和等于消息数乘以每条积分
+    private static long awardedPoints(StorageEngine storage, String prefix) throws Exception {
+        long total = 0;
+        try (Connection conn = storage.openConnection()) {
+            for (int u = 0; u < USERS; u++) {
+                total += storage.getUserPoints(conn, prefix + u);
+            }
+        }
+        return total;
+    }
+}
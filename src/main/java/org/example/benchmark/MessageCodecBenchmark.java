@@ -0,0 +1,107 @@
+package org.example.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.example.message.MessageCodec;
+import org.example.message.SettlementPayload;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 对比结算消息原有的HashMap+Gson编码、JSON编解码器和二进制编解码器的耗时、消息长度和分配量
+ *
+ * 用法: MessageCodecBenchmark [每轮消息数]。每种方式先预热一轮再计时一轮，
+ * 分配量来自HotSpot的线程分配计数，其他JVM上显示为-1。
+ */
+public class MessageCodecBenchmark {
+    private interface Codec {
+        String encode(SettlementPayload payload);
+
+        int decode(String content);
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        Codec legacy = new Codec() {
+            @Override
+            public String encode(SettlementPayload payload) {
+                Map<String, Object> content = new HashMap<>();
+                content.put("userId", payload.getUserId());
+                content.put("orderId", payload.getOrderId());
+                content.put("points", payload.getPoints());
+                content.put("createTime", new Timestamp(payload.getCreateTime()));
+                return new Gson().toJson(content);
+            }
+
+            @Override
+            public int decode(String content) {
+                Map<String, Object> map = new Gson().fromJson(content, new TypeToken<Map<String, Object>>() {
+                }.getType());
+                return (int) (double) map.get("points");
+            }
+        };
+        Codec json = codec(new MessageCodec(false));
+        Codec binary = codec(new MessageCodec(true));
+
+        System.out.printf("%-8s %12s %12s %10s %14s%n", "方式", "编码(ns/条)", "解码(ns/条)", "长度", "分配(B/条)");
+        run("原始JSON", legacy, count);
+        run("JSON", json, count);
+        run("二进制", binary, count);
+    }
+
+    private static Codec codec(MessageCodec codec) {
+        return new Codec() {
+            @Override
+            public String encode(SettlementPayload payload) {
+                return codec.encode(payload);
+            }
+
+            @Override
+            public int decode(String content) {
+                return codec.decode(content, SettlementPayload.FORMAT).getPoints();
+            }
+        };
+    }
+
+    private static void run(String name, Codec codec, int count) {
+        SettlementPayload payload =
+            new SettlementPayload("user_000123", "0369733486789750784", 100, System.currentTimeMillis());
+        String content = codec.encode(payload);
+        long checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += codec.decode(codec.encode(payload));
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            content = codec.encode(payload);
+        }
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            checksum += codec.decode(content);
+        }
+        long decodeNanos = System.nanoTime() - start;
+        long allocated = allocatedBytes();
+        allocated = allocated < 0 ? -1 : (allocated - allocatedBefore) / count;
+
+        System.out.printf("%-8s %12.0f %12.0f %10d %14d%n", name, (double) encodeNanos / count,
+                          (double) decodeNanos / count, content.length(), allocated);
+        if (checksum != 200L * count) {
+            System.err.println("  解码结果错误: " + name);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.benchmark;
+
+import org.example.model.MeterCheckpoint;
+import org.example.model.MeterReading;
+import org.example.service.MeterIngestor;
+import org.example.storage.JdbcStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.DBUtil;
+import org.example.util.IdGenerator;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 多个上报线程并发提交电表读数，测量接入吞吐，并校验自动停止的会话计量费用不超过预扣金额
+ *
+ * 用法: MeterIngestBenchmark [会话数] [每会话读数] [上报线程数]，-Dcharge.storage=memory 可在内存存储上运行。
+ * 每个会话预扣10元，以3.5kW功率每5秒上报一次，一半会话的读数足以用完预扣金额。
+ */
+public class MeterIngestBenchmark {
+    private static final String USER_ID = "meter_user";
+    private static final double HOLD_AMOUNT = 10.0;
+    private static final int POWER_W = 3500;
+    private static final long INTERVAL_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int readings = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int producers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        StorageEngine storage = StorageEngines.getDefault();
+        if (storage instanceof JdbcStorageEngine) {
+            DBUtil.initTables();
+        }
+
+        List<String> txIds = new ArrayList<>(sessions);
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            storage.saveAccount(conn, USER_ID, HOLD_AMOUNT * sessions);
+            for (int i = 0; i < sessions; i++) {
+                String txId = IdGenerator.getDefault().nextIdString();
+                storage.insertOrder(conn, IdGenerator.getDefault().nextIdString(), txId, "CP" + i, USER_ID,
+                                    HOLD_AMOUNT, "IN_PROGRESS");
+                storage.insertHold(conn, txId, USER_ID, HOLD_AMOUNT, "HOLD");
+                txIds.add(txId);
+            }
+            storage.commit(conn);
+        }
+
+        MeterIngestor ingestor = new MeterIngestor(storage);
+        ingestor.setCheckpointMillis(500);
+        ingestor.setStopListener(checkpoint -> { });
+        ingestor.start();
+
+        // 前一半会话的读数电量是后一半的两倍，足以触发自动停止
+        long baseTime = System.currentTimeMillis();
+        CountDownLatch done = new CountDownLatch(producers);
+        long start = System.nanoTime();
+        try {
+            for (int p = 0; p < producers; p++) {
+                int first = p;
+                new Thread(() -> {
+                    try {
+                        for (int r = 1; r <= readings; r++) {
+                            for (int s = first; s < sessions; s += producers) {
+                                long step = s < sessions / 2 ? 2 : 1;
+                                long energyWh = r * step * POWER_W * INTERVAL_MILLIS / 3_600_000;
+                                MeterReading reading = new MeterReading(txIds.get(s), energyWh,
+                                                                        (int) (POWER_W * step),
+                                                                        baseTime + r * INTERVAL_MILLIS);
+                                while (!ingestor.submit(reading)) {
+                                    Thread.yield();
+                                }
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "meter-producer-" + p).start();
+            }
+            done.await();
+        } finally {
+            ingestor.stop();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long total = (long) sessions * readings;
+        System.out.printf("读数 %d 条，耗时 %.1f ms，吞吐 %.0f 条/秒%n", total, elapsed / 1e6, total / (elapsed / 1e9));
+        System.out.printf("接受 %d，忽略 %d，队列满重试 %d，自动停止 %d，写入检查点 %d%n",
+                          ingestor.getAcceptedCount(), ingestor.getIgnoredCount(), ingestor.getDroppedCount(),
+                          ingestor.getStoppedCount(), ingestor.getCheckpointCount());
+
+        int overBudget = 0;
+        try (Connection conn = storage.openConnection()) {
+            for (String txId : txIds) {
+                MeterCheckpoint checkpoint = storage.findMeterCheckpoint(conn, txId);
+                if (checkpoint.getMeteredAmount() > HOLD_AMOUNT + 1e-6) {
+                    overBudget++;
+                }
+            }
+        } finally {
+            storage.close();
+            if (storage instanceof JdbcStorageEngine) {
+                DBUtil.closeDataSource();
+            }
+        }
+        if (overBudget > 0) {
+            System.err.println("  计量费用超出预扣金额的会话: " + overBudget);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.benchmark;
+
+import org.example.message.SettlementPayload;
+import org.example.service.impl.PointsService;
+import org.example.storage.JdbcStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.DBUtil;
+import org.example.util.IdGenerator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对比逐条发放和批量发放积分处理结算消息积压的吞吐
+ *
+ * 用法: PointsAwardBenchmark [消息数] [用户数] [每批消息数]，-Dcharge.storage=memory 可在内存存储上运行。
+ * 每种方式处理各自的一组订单，消息均匀分布在用户之间，结束时校验用户积分总和。
+ */
+public class PointsAwardBenchmark {
+    private static final int POINTS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        StorageEngine storage = StorageEngines.getDefault();
+        if (storage instanceof JdbcStorageEngine) {
+            DBUtil.initTables();
+        }
+
+        try {
+            PointsService pointsService = new PointsService(storage);
+            createUsers(storage, users);
+            List<SettlementPayload> looped = payloads("loop", count, users);
+            List<SettlementPayload> batched = payloads("batch", count, users);
+
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+            long loopNanos;
+            long batchNanos;
+            try {
+                long start = System.nanoTime();
+                for (SettlementPayload payload : looped) {
+                    pointsService.addPointsForCharging(payload.getUserId(), payload.getOrderId(), payload.getPoints());
+                }
+                loopNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int from = 0; from < count; from += batchSize) {
+                    pointsService.awardPoints(batched.subList(from, Math.min(from + batchSize, count)));
+                }
+                batchNanos = System.nanoTime() - start;
+            } finally {
+                System.setOut(console);
+            }
+
+            System.out.printf("逐条发放: %d 条消息，耗时 %.1f ms，吞吐 %.0f 条/秒%n",
+                              count, loopNanos / 1e6, count / (loopNanos / 1e9));
+            System.out.printf("批量发放: %d 条消息，耗时 %.1f ms，吞吐 %.0f 条/秒%n",
+                              count, batchNanos / 1e6, count / (batchNanos / 1e9));
+            verify(storage, pointsService, "loop", count, users);
+            verify(storage, pointsService, "batch", count, users);
+        } finally {
+            storage.close();
+            if (storage instanceof JdbcStorageEngine) {
+                DBUtil.closeDataSource();
+            }
+        }
+    }
+
+    // user_points和points_transaction引用user_account
+    private static void createUsers(StorageEngine storage, int users) throws Exception {
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            for (int u = 0; u < users; u++) {
+                storage.saveAccount(conn, "loop_user_" + u, 0);
+                storage.saveAccount(conn, "batch_user_" + u, 0);
+            }
+            storage.commit(conn);
+        }
+    }
+
+    private static List<SettlementPayload> payloads(String prefix, int count, int users) {
+        List<SettlementPayload> payloads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            payloads.add(new SettlementPayload(prefix + "_user_" + (i % users), IdGenerator.getDefault().nextIdString(),
+                                               POINTS, System.currentTimeMillis()));
+        }
+        return payloads;
+    }
+
+    private static void verify(StorageEngine storage, PointsService pointsService, String prefix, int count,
+                               int users) throws Exception {
+        long total = 0;
+        try (Connection conn = storage.openConnection()) {
+            for (int u = 0; u < users; u++) {
+                total += pointsService.getUserPoints(conn, prefix + "_user_" + u);
+            }
+        }
+        if (total != (long) count * POINTS) {
+            System.err.println("  积分总和不符(" + prefix + "): " + total + " != " + (long) count * POINTS);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.benchmark;
+
+import org.example.service.impl.ExtendedChargingService;
+import org.example.storage.JdbcStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.DBUtil;
+import org.example.util.IdGenerator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 对比逐个结算和批量结算运营商推送订单的吞吐
+ *
+ * 用法: SettlementBenchmark [订单数]，-Dcharge.storage=memory 可在内存存储上运行。
+ * 每种方式结算各自的一组已完成订单，结束时校验批量结算的结果全部为SETTLED。
+ */
+public class SettlementBenchmark {
+    private static final String USER_ID = "settlement_user";
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+        StorageEngine storage = StorageEngines.getDefault();
+        if (storage instanceof JdbcStorageEngine) {
+            DBUtil.initTables();
+        }
+
+        try {
+            ExtendedChargingService chargingService = new ExtendedChargingService(storage);
+            List<String> looped = createCompletedOrders(storage, count);
+            List<String> batched = createCompletedOrders(storage, count);
+
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+            long loopNanos;
+            long batchNanos;
+            Map<String, ExtendedChargingService.SettlementResult> results;
+            try {
+                long start = System.nanoTime();
+                for (String orderId : looped) {
+                    chargingService.settleChargingOrder(orderId);
+                }
+                loopNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                results = chargingService.settleChargingOrders(batched.iterator());
+                batchNanos = System.nanoTime() - start;
+            } finally {
+                System.setOut(console);
+            }
+
+            System.out.printf("逐个结算: %d 个订单，耗时 %.1f ms，吞吐 %.0f 个/秒%n",
+                              count, loopNanos / 1e6, count / (loopNanos / 1e9));
+            System.out.printf("批量结算: %d 个订单，耗时 %.1f ms，吞吐 %.0f 个/秒%n",
+                              count, batchNanos / 1e6, count / (batchNanos / 1e9));
+            long settled = results.values().stream()
+                .filter(result -> result == ExtendedChargingService.SettlementResult.SETTLED).count();
+            if (settled != count) {
+                System.err.println("  批量结算成功数不符: " + settled + " != " + count);
+            }
+        } finally {
+            storage.close();
+            if (storage instanceof JdbcStorageEngine) {
+                DBUtil.closeDataSource();
+            }
+        }
+    }
+
+    private static List<String> createCompletedOrders(StorageEngine storage, int count) throws Exception {
+        List<String> orderIds = new ArrayList<>(count);
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            for (int i = 0; i < count; i++) {
+                String orderId = IdGenerator.getDefault().nextIdString();
+                storage.insertOrder(conn, orderId, IdGenerator.getDefault().nextIdString(), "CP" + i, USER_ID,
+                                    10.0, "COMPLETED");
+                orderIds.add(orderId);
+            }
+            storage.commit(conn);
+        }
+        return orderIds;
+    }
+}
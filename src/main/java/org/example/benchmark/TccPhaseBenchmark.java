@@ -0,0 +1,144 @@
+package org.example.benchmark;
+
+import org.example.manager.TccTransactionManager;
+import org.example.service.TccParticipant;
+import org.example.service.impl.ChargingService;
+import org.example.service.impl.PaymentService;
+import org.example.storage.JdbcStorageEngine;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.DBUtil;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * 对比普通模式、合并阶段模式和并行参与方模式下一次充电会话的提交次数和耗时
+ *
+ * 用法: TccPhaseBenchmark [会话数] [充电失败率]，-Dcharge.storage=memory 可在内存存储上运行。
+ * JDBC存储额外测量合并阶段加语句合并发送的模式。
+ */
+public class TccPhaseBenchmark {
+    private static final String USER_ID = "bench_user";
+    private static final String CHARGING_POINT_ID = "CP_BENCH";
+    private static final double AMOUNT = 1.0;
+
+    public static void main(String[] args) throws SQLException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        double failureRate = args.length > 1 ? Double.parseDouble(args[1]) : 0.0;
+
+        StorageEngine storage = StorageEngines.getDefault();
+        if (storage instanceof JdbcStorageEngine) {
+            DBUtil.initTables();
+        }
+
+        try {
+            run(storage, "普通模式", false, false, sessions, failureRate);
+            run(storage, "合并阶段", true, false, sessions, failureRate);
+            run(storage, "并行参与方", false, true, sessions, failureRate);
+            if (storage instanceof JdbcStorageEngine) {
+                ((JdbcStorageEngine) storage).setBatchStatements(true);
+                try {
+                    run(storage, "合并阶段+语句合并", true, false, sessions, failureRate);
+                } finally {
+                    ((JdbcStorageEngine) storage).setBatchStatements(false);
+                }
+            }
+        } finally {
+            storage.close();
+            if (storage instanceof JdbcStorageEngine) {
+                DBUtil.closeDataSource();
+            }
+        }
+    }
+
+    private static void run(StorageEngine storage, String name, boolean fused, boolean parallel,
+                            int sessions, double failureRate) throws SQLException {
+        PaymentService paymentService = new PaymentService(storage);
+        ChargingService chargingService = new ChargingService(storage);
+        chargingService.setFailureRate(failureRate);
+        TccTransactionManager transactionManager = new TccTransactionManager(storage);
+        transactionManager.setFusedPhases(fused);
+
+        long[] latencies = new long[sessions];
+        int succeeded = 0;
+        long flushesBefore = flushCount(storage);
+        PrintStream console = System.out;
+
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            storage.saveAccount(conn, USER_ID, AMOUNT * sessions * 2);
+            storage.commit(conn);
+            long commitsBefore = storage.getCommitCount();
+
+            // 服务逐笔打印日志，测量期间屏蔽标准输出
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+            try {
+                for (int i = 0; i < sessions; i++) {
+                    long start = System.nanoTime();
+                    boolean success = parallel
+                        ? runParallelSession(conn, transactionManager, paymentService, chargingService)
+                        : runSession(conn, transactionManager, paymentService, chargingService);
+                    if (success) {
+                        succeeded++;
+                    }
+                    latencies[i] = System.nanoTime() - start;
+                }
+            } finally {
+                System.setOut(console);
+            }
+
+            long commits = storage.getCommitCount() - commitsBefore;
+            Arrays.sort(latencies);
+            long total = 0;
+            for (long latency : latencies) {
+                total += latency;
+            }
+            System.out.printf("%s: 会话 %d (成功 %d)，每会话提交 %.2f 次，平均 %.3f ms，p99 %.3f ms%n",
+                              name, sessions, succeeded, (double) commits / sessions,
+                              total / 1e6 / sessions, latencies[(int) (sessions * 0.99)] / 1e6);
+            if (storage instanceof JdbcStorageEngine && flushCount(storage) > flushesBefore) {
+                System.out.printf("  合并发送 %d 次%n", flushCount(storage) - flushesBefore);
+            }
+        }
+    }
+
+    private static boolean runSession(Connection conn, TccTransactionManager transactionManager,
+                                      PaymentService paymentService, ChargingService chargingService)
+        throws SQLException {
+        String txId = transactionManager.beginTransaction(conn);
+        boolean paymentTryResult = transactionManager.executeTry(conn, txId, paymentService, USER_ID, AMOUNT);
+        boolean chargingTryResult = paymentTryResult &&
+            transactionManager.executeTry(conn, txId, chargingService, CHARGING_POINT_ID, USER_ID, AMOUNT);
+        if (chargingTryResult && transactionManager.commit(conn, txId, paymentService, chargingService)) {
+            return true;
+        }
+        transactionManager.rollback(conn, txId, paymentService, chargingService);
+        return false;
+    }
+
+    private static boolean runParallelSession(Connection conn, TccTransactionManager transactionManager,
+                                              PaymentService paymentService, ChargingService chargingService)
+        throws SQLException {
+        TccParticipant payment = TccParticipant.of(paymentService, USER_ID, AMOUNT);
+        TccParticipant charging = TccParticipant.of(chargingService, CHARGING_POINT_ID, USER_ID, AMOUNT);
+        String txId = transactionManager.beginTransaction(conn);
+        if (transactionManager.executeTryAll(conn, txId, payment, charging) &&
+            transactionManager.commitAll(conn, txId, payment, charging)) {
+            return true;
+        }
+        transactionManager.rollbackAll(conn, txId, payment, charging);
+        return false;
+    }
+
+    private static long flushCount(StorageEngine storage) {
+        return storage instanceof JdbcStorageEngine ? ((JdbcStorageEngine) storage).getDeferredFlushCount() : 0;
+    }
+}
@@ -0,0 +1,141 @@
+package org.example.manager;
+
+import org.example.service.AsyncTccAction;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.IdGenerator;
+import org.example.util.ThreadPools;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * 异步TCC事务管理器
+ *
+ * 每个阶段返回CompletableFuture，事务状态的读写在执行器上用独立的本地事务句柄完成，
+ * 调用线程不阻塞。执行器默认在支持虚拟线程的运行时上使用虚拟线程，否则使用有界线程池。
+ *
+ * 事务状态经同步事务管理器的协调者日志和状态索引读写，与同步事务记录在同一处，
+ * 启动时由TccTransactionManager.recover一并恢复。
+ */
+public class AsyncTccTransactionManager {
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_QUEUE = 1024;
+
+    private final StorageEngine storage;
+    private final TccTransactionManager coordinator;
+    private final Executor executor;
+
+    public AsyncTccTransactionManager() {
+        this(StorageEngines.getDefault());
+    }
+
+    public AsyncTccTransactionManager(StorageEngine storage) {
+        this(storage, ThreadPools.newVirtualOrBoundedPool("tcc-async", DEFAULT_THREADS, DEFAULT_QUEUE));
+    }
+
+    public AsyncTccTransactionManager(StorageEngine storage, Executor executor) {
+        this(new TccTransactionManager(storage), executor);
+    }
+
+    /**
+     * 与同步事务管理器共用协调者日志和状态索引
+     */
+    public AsyncTccTransactionManager(TccTransactionManager coordinator, Executor executor) {
+        this.storage = coordinator.getStorage();
+        this.coordinator = coordinator;
+        this.executor = executor;
+    }
+
+    /**
+     * 参与方和事务状态读写使用的执行器，阻塞参与方可通过BlockingTccActionAdapter共用
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 开始一个新事务，返回事务ID
+     */
+    public CompletableFuture<String> beginTransactionAsync() {
+        return supply(conn -> {
+            String txId = IdGenerator.getDefault().nextIdString();
+            coordinator.recordStatusAlone(conn, txId, "INIT");
+            System.out.println("开始事务: " + txId);
+            return txId;
+        });
+    }
+
+    /**
+     * 执行Try操作并记录结果
+     */
+    public CompletableFuture<Boolean> executeTryAsync(String txId, AsyncTccAction action, Object... args) {
+        return action.tryActionAsync(txId, args)
+            .thenCompose(result -> updateStatus(txId, result ? "TRY_SUCCESS" : "TRY_FAILED").thenApply(v -> result));
+    }
+
+    /**
+     * 并行执行所有参与方的Confirm操作，全部成功后记录事务提交
+     */
+    public CompletableFuture<Boolean> commitAsync(String txId, AsyncTccAction... actions) {
+        return supply(conn -> "TRY_SUCCESS".equals(coordinator.statusOf(conn, txId)))
+            .thenCompose(ready -> {
+                if (!ready) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                CompletableFuture<Boolean> confirmed = CompletableFuture.completedFuture(true);
+                for (AsyncTccAction action : actions) {
+                    confirmed = confirmed.thenCombine(action.confirmActionAsync(txId), (a, b) -> a && b);
+                }
+                return confirmed.thenCompose(result -> {
+                    if (!result) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    return updateStatus(txId, "COMMITTED").thenApply(v -> {
+                        System.out.println("提交事务成功: " + txId);
+                        return true;
+                    });
+                });
+            });
+    }
+
+    /**
+     * 并行执行所有参与方的Cancel操作，全部结束后记录事务回滚
+     */
+    public CompletableFuture<Boolean> rollbackAsync(String txId, AsyncTccAction... actions) {
+        CompletableFuture<?>[] cancels = new CompletableFuture<?>[actions.length];
+        for (int i = 0; i < actions.length; i++) {
+            cancels[i] = actions[i].cancelActionAsync(txId);
+        }
+        return CompletableFuture.allOf(cancels)
+            .thenCompose(v -> updateStatus(txId, "ROLLED_BACK"))
+            .thenApply(v -> {
+                System.out.println("回滚事务成功: " + txId);
+                return true;
+            });
+    }
+
+    private CompletableFuture<Void> updateStatus(String txId, String status) {
+        return supply(conn -> {
+            coordinator.recordStatusAlone(conn, txId, status);
+            return null;
+        });
+    }
+
+    private interface Call<T> {
+        T call(Connection conn) throws SQLException;
+    }
+
+    private <T> CompletableFuture<T> supply(Call<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection conn = storage.openConnection()) {
+                return call.call(conn);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,37 @@
+package org.example.manager;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * 协调者日志，记录TCC事务的状态变迁（INIT、TRY_SUCCESS、TRY_FAILED、COMMITTED、ROLLED_BACK）
+ */
+public interface CoordinatorLog extends Closeable {
+
+    /**
+     * 记录事务状态，INIT表示新事务
+     */
+    void record(Connection conn, String txId, String status) throws SQLException;
+
+    /**
+     * 查询事务当前状态，不存在时返回null
+     */
+    String getStatus(Connection conn, String txId) throws SQLException;
+
+    /**
+     * 是否与参与方共用本地事务：true时状态在本地事务提交前写入并随之提交，
+     * false时由事务管理器在本地事务提交后写入
+     */
+    boolean isTransactional();
+
+    /**
+     * 尚未完成的事务及其状态，用于启动时恢复
+     */
+    Map<String, String> inDoubtTransactions(Connection conn) throws SQLException;
+
+    @Override
+    default void close() {
+    }
+}
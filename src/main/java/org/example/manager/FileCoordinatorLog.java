@@ -0,0 +1,392 @@
+package org.example.manager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 基于本地内存映射文件的追加写协调者日志
+ *
+ * 状态变迁追加写入固定大小的日志段，记录格式为[长度][CRC32][时间戳][状态][事务ID]。
+ * 换段时未完成事务过多、放不下时新段相应扩大，保证新段至少留出半个段的追加空间。
+ * 写入方在追加后等待数据落盘，同一时刻只有一个线程执行force，
+ * 其他线程的记录随这次force一起落盘（组提交），fsync次数远少于写入次数。
+ *
+ * 启动时按段顺序重放，遇到长度为0或校验失败的记录即视为该段结尾（未写完的尾部）。
+ * 重放和每次换段时把未完成事务的最新状态写入新段开头并删除旧段。已完成的事务在保留时长内
+ * 连同原完成时间一起写入新段，重启和换段后仍能查到其最终状态；超过保留时长，或新段中保留记录
+ * 超过半个段的大小时，最早完成的事务从内存中移除，之后查询其状态返回null。
+ */
+public class FileCoordinatorLog implements CoordinatorLog {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_RETAIN_MILLIS = 60 * 60 * 1000;
+
+    private static final String SEGMENT_PREFIX = "coordinator-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8; // 长度 + CRC32
+
+    private final Path directory;
+    private final int segmentBytes;
+    // 事务ID -> 最新状态
+    private final ConcurrentHashMap<String, String> states = new ConcurrentHashMap<>();
+    // 已完成事务ID -> 完成时间，按完成顺序排列；由appendLock保护
+    private final LinkedHashMap<String, Long> completedAt = new LinkedHashMap<>();
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    // 自启动以来追加的总字节数，作为落盘进度的逻辑位置
+    private final AtomicLong durable = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+    private long appended;
+
+    private volatile long retainMillis = DEFAULT_RETAIN_MILLIS;
+    private long segmentSequence;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    public FileCoordinatorLog(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public FileCoordinatorLog(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+
+        List<Path> segments = listSegments();
+        for (Path segment : segments) {
+            replay(segment);
+        }
+        if (!segments.isEmpty()) {
+            segmentSequence = sequenceOf(segments.get(segments.size() - 1));
+        }
+        synchronized (appendLock) {
+            roll();
+        }
+        System.out.println("协调者日志已加载: " + directory + "，未完成事务 " + (states.size() - completedAt.size()) +
+                           " 个，保留已完成事务 " + completedAt.size() + " 个");
+    }
+
+    /**
+     * 设置已完成事务状态的保留时长（毫秒），在下一次换段时生效
+     */
+    public void setRetainMillis(long retainMillis) {
+        this.retainMillis = retainMillis;
+    }
+
+    @Override
+    public void record(Connection conn, String txId, String status) throws SQLException {
+        long end;
+        synchronized (appendLock) {
+            if (buffer == null) {
+                throw new SQLException("协调者日志已关闭");
+            }
+            long now = System.currentTimeMillis();
+            try {
+                end = append(txId, status, now);
+            } catch (IOException e) {
+                throw new SQLException("写入协调者日志失败", e);
+            }
+            put(txId, status, now);
+        }
+        sync(end);
+    }
+
+    @Override
+    public String getStatus(Connection conn, String txId) {
+        return states.get(txId);
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    @Override
+    public Map<String, String> inDoubtTransactions(Connection conn) {
+        Map<String, String> inDoubt = new HashMap<>();
+        for (Map.Entry<String, String> entry : states.entrySet()) {
+            if (!isCompleted(entry.getValue())) {
+                inDoubt.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return inDoubt;
+    }
+
+    /**
+     * 实际执行的落盘次数
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    @Override
+    public void close() {
+        synchronized (appendLock) {
+            if (buffer == null) {
+                return;
+            }
+            buffer.force();
+            buffer = null;
+            closeChannel();
+        }
+    }
+
+    // ==================== 写入 ====================
+
+    // 追加一条记录，返回追加后的逻辑位置；调用方持有appendLock
+    private long append(String txId, String status, long timestamp) throws IOException {
+        byte[] payload = encode(txId, status, timestamp);
+        int recordBytes = HEADER_BYTES + payload.length;
+        if (recordBytes > segmentBytes / 2) {
+            throw new IllegalArgumentException("协调者日志记录过大: " + recordBytes);
+        }
+        if (buffer.remaining() < recordBytes + 4) {
+            roll();
+            if (buffer.remaining() < recordBytes + 4) {
+                throw new IOException("协调者日志段空间不足: " + buffer.remaining());
+            }
+        }
+        appended += writeRecord(buffer, payload);
+        return appended;
+    }
+
+    // 写入一条记录，返回写入的字节数
+    private static int writeRecord(ByteBuffer target, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        target.putInt(payload.length);
+        target.putInt((int) crc.getValue());
+        target.put(payload);
+        return HEADER_BYTES + payload.length;
+    }
+
+    // 组提交：已被其他线程的force覆盖时直接返回
+    private void sync(long end) {
+        if (durable.get() >= end) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable.get() >= end) {
+                return;
+            }
+            long target;
+            MappedByteBuffer current;
+            synchronized (appendLock) {
+                target = appended;
+                current = buffer;
+            }
+            if (current != null) {
+                current.force();
+                syncCount.incrementAndGet();
+            }
+            durable.accumulateAndGet(target, Math::max);
+        }
+    }
+
+    // 换到新段：写入未完成事务的最新状态和保留的已完成事务后删除旧段；调用方持有appendLock。
+    // 新段写好并落盘后才关闭旧段，失败时删除新段，继续使用旧段
+    private void roll() throws IOException {
+        List<Path> oldSegments = listSegments();
+        long now = System.currentTimeMillis();
+        List<byte[]> inDoubt = new ArrayList<>();
+        long inDoubtBytes = 0;
+        for (Map.Entry<String, String> entry : states.entrySet()) {
+            if (!isCompleted(entry.getValue())) {
+                byte[] payload = encode(entry.getKey(), entry.getValue(), now);
+                inDoubt.add(payload);
+                inDoubtBytes += HEADER_BYTES + payload.length;
+            }
+        }
+        // 未完成事务之外至少留出半个段给新的追加；保留的已完成事务最多占半个段，且不占用这部分空间
+        long size = Math.max(segmentBytes, inDoubtBytes + segmentBytes / 2 + 4);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("未完成事务过多，日志段容纳不下: " + inDoubt.size());
+        }
+        long budget = Math.min(segmentBytes / 2, size - inDoubtBytes - segmentBytes / 2 - 4);
+        List<byte[]> retained = retainCompleted(now, budget);
+
+        long sequence = segmentSequence + 1;
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        FileChannel newChannel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                                  StandardOpenOption.WRITE);
+        MappedByteBuffer newBuffer;
+        long written = 0;
+        try {
+            newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            for (byte[] payload : inDoubt) {
+                written += writeRecord(newBuffer, payload);
+            }
+            for (byte[] payload : retained) {
+                written += writeRecord(newBuffer, payload);
+            }
+            newBuffer.force();
+        } catch (IOException | RuntimeException e) {
+            try {
+                newChannel.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            Files.deleteIfExists(segment);
+            throw e;
+        }
+
+        if (buffer != null) {
+            buffer.force();
+            closeChannel();
+        }
+        channel = newChannel;
+        buffer = newBuffer;
+        segmentSequence = sequence;
+        appended += written;
+        durable.accumulateAndGet(appended, Math::max);
+
+        for (Path old : oldSegments) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    // 移除超过保留时长的已完成事务，返回其余已完成事务的记录（按完成顺序），总大小不超过budget；
+    // 调用方持有appendLock
+    private List<byte[]> retainCompleted(long now, long budget) {
+        List<byte[]> retained = new ArrayList<>();
+        long bytes = 0;
+        Iterator<Map.Entry<String, Long>> it = completedAt.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            String status = states.get(entry.getKey());
+            if (now - entry.getValue() < retainMillis && status != null) {
+                byte[] payload = encode(entry.getKey(), status, entry.getValue());
+                retained.add(payload);
+                bytes += HEADER_BYTES + payload.length;
+            } else {
+                states.remove(entry.getKey());
+                it.remove();
+            }
+        }
+        // 保留记录过多时丢弃最早完成的，给新段留出写入空间
+        int drop = 0;
+        while (bytes > budget && drop < retained.size()) {
+            bytes -= HEADER_BYTES + retained.get(drop).length;
+            drop++;
+        }
+        if (drop > 0) {
+            it = completedAt.entrySet().iterator();
+            for (int i = 0; i < drop; i++) {
+                states.remove(it.next().getKey());
+                it.remove();
+            }
+            retained = retained.subList(drop, retained.size());
+        }
+        return retained;
+    }
+
+    // 更新内存中的状态；已完成事务按完成时间排到最后。调用方持有appendLock，或在构造时单线程调用
+    private void put(String txId, String status, long timestamp) {
+        states.put(txId, status);
+        completedAt.remove(txId);
+        if (isCompleted(status)) {
+            completedAt.put(txId, timestamp);
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭协调者日志文件失败: " + e.getMessage());
+        }
+    }
+
+    // ==================== 重放 ====================
+
+    private void replay(Path segment) throws IOException {
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            int records = 0;
+            while (data.remaining() >= HEADER_BYTES) {
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > data.remaining()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                data.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    System.err.println("协调者日志 " + segment.getFileName() + " 在第 " + records + " 条记录处校验失败，忽略之后的内容");
+                    break;
+                }
+                apply(payload);
+                records++;
+            }
+        }
+    }
+
+    private void apply(byte[] payload) {
+        ByteBuffer record = ByteBuffer.wrap(payload);
+        long timestamp = record.getLong(); // 已完成事务的完成时间，用于计算保留时长
+        byte[] status = new byte[record.get()];
+        record.get(status);
+        byte[] txId = new byte[record.getShort()];
+        record.get(txId);
+        put(new String(txId, StandardCharsets.UTF_8), new String(status, StandardCharsets.UTF_8), timestamp);
+    }
+
+    // ==================== 工具方法 ====================
+
+    private static byte[] encode(String txId, String status, long timestamp) {
+        byte[] statusBytes = status.getBytes(StandardCharsets.UTF_8);
+        byte[] txIdBytes = txId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(8 + 1 + statusBytes.length + 2 + txIdBytes.length);
+        record.putLong(timestamp);
+        record.put((byte) statusBytes.length);
+        record.put(statusBytes);
+        record.putShort((short) txIdBytes.length);
+        record.put(txIdBytes);
+        return record.array();
+    }
+
+    private static boolean isCompleted(String status) {
+        return "COMMITTED".equals(status) || "ROLLED_BACK".equals(status);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new UncheckedIOException(new IOException("无法识别的协调者日志文件: " + name));
+        }
+    }
+}
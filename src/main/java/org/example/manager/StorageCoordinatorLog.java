@@ -0,0 +1,46 @@
+package org.example.manager;
+
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 基于存储引擎transaction_record表的协调者日志，状态与参与方写入在同一个本地事务中提交
+ */
+public class StorageCoordinatorLog implements CoordinatorLog {
+    private final StorageEngine storage;
+
+    public StorageCoordinatorLog(StorageEngine storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void record(Connection conn, String txId, String status) throws SQLException {
+        if ("INIT".equals(status)) {
+            storage.insertTransaction(conn, txId, status);
+        } else {
+            storage.updateTransactionStatus(conn, txId, status);
+        }
+    }
+
+    @Override
+    public String getStatus(Connection conn, String txId) throws SQLException {
+        return storage.getTransactionStatus(conn, txId);
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return true;
+    }
+
+    /**
+     * 数据库模式下未完成的事务由AbnormalOrderProcessor按参与方日志扫描补偿，这里不重复返回
+     */
+    @Override
+    public Map<String, String> inDoubtTransactions(Connection conn) {
+        return Collections.emptyMap();
+    }
+}
@@ -1,32 +1,95 @@
 package org.example.manager;
 
 import org.example.service.TccAction;
+import org.example.service.TccParticipant;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.IdGenerator;
+import org.example.util.ThreadPools;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * TCC事务管理器
+ *
+ * 合并阶段模式下，每个阶段中参与方的业务写入、日志和事务状态变更共用一个本地事务，
+ * 整个阶段只提交一次。
+ *
+ * executeTryAll/commitAll/rollbackAll在有界线程池上并行调用各参与方，
+ * 每个参与方使用独立的本地事务句柄，阶段耗时约等于最慢的参与方。
  */
 public class TccTransactionManager {
+    private static final int DEFAULT_PARTICIPANT_THREADS = 8;
+    private static final int DEFAULT_PARTICIPANT_QUEUE = 256;
+
+    private final StorageEngine storage;
+    private volatile boolean fusedPhases;
+    private volatile CoordinatorLog coordinatorLog;
+    private volatile TxStateIndex stateIndex;
+    private volatile ExecutorService participantExecutor;
+    // 尚未全部结束的并行Try，回滚前需要等待，避免Cancel先于Try执行
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingTries = new ConcurrentHashMap<>();
+
+    public TccTransactionManager() {
+        this(StorageEngines.getDefault());
+    }
+
+    public TccTransactionManager(StorageEngine storage) {
+        this.storage = storage;
+        this.coordinatorLog = new StorageCoordinatorLog(storage);
+    }
+
+    /**
+     * 设置协调者日志，默认记录在存储引擎的transaction_record表中
+     */
+    public void setCoordinatorLog(CoordinatorLog coordinatorLog) {
+        this.coordinatorLog = coordinatorLog;
+    }
+
+    public CoordinatorLog getCoordinatorLog() {
+        return coordinatorLog;
+    }
+
+    /**
+     * 设置事务状态索引，状态查询先查索引，未命中时再查协调者日志
+     */
+    public void setStateIndex(TxStateIndex stateIndex) {
+        this.stateIndex = stateIndex;
+    }
+
+    /**
+     * 是否启用合并阶段模式
+     */
+    public void setFusedPhases(boolean fusedPhases) {
+        this.fusedPhases = fusedPhases;
+    }
+
+    public boolean isFusedPhases() {
+        return fusedPhases;
+    }
+
+    /**
+     * 设置并行调用参与方的线程池，未设置时使用内置的有界线程池
+     */
+    public void setParticipantExecutor(ExecutorService participantExecutor) {
+        this.participantExecutor = participantExecutor;
+    }
 
     /**
      * 开始一个新事务
      */
     public String beginTransaction(Connection conn) throws SQLException {
-        String txId = java.util.UUID.randomUUID().toString();
-
-        conn.setAutoCommit(false);
+        String txId = IdGenerator.getDefault().nextIdString();
 
         // 记录事务
-        String sql = "INSERT INTO transaction_record (tx_id, status, create_time) VALUES (?, ?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, txId);
-            pstmt.setString(2, "INIT");
-            pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
-            pstmt.executeUpdate();
-        }
-
-        conn.commit();
+        recordStatusAlone(conn, txId, "INIT");
 
         System.out.println("开始事务: " + txId);
         return txId;
@@ -36,7 +99,10 @@ public class TccTransactionManager {
      * 执行Try操作
      */
     public boolean executeTry(Connection conn, String txId, TccAction action, Object... args) throws SQLException {
-        conn.setAutoCommit(false);
+        if (fusedPhases) {
+            return executeTryFused(conn, txId, action, args);
+        }
+        storage.begin(conn);
 
         try {
             // 执行Try操作
@@ -44,18 +110,13 @@ public class TccTransactionManager {
 
             // 更新事务状态
             String status = result ? "TRY_SUCCESS" : "TRY_FAILED";
-            String updateSql = "UPDATE transaction_record SET status = ?, update_time = ? WHERE tx_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
-                pstmt.setString(1, status);
-                pstmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
-                pstmt.setString(3, txId);
-                pstmt.executeUpdate();
-            }
+            recordStatus(conn, txId, status);
 
-            conn.commit();
+            storage.commit(conn);
+            recordStatusAfterCommit(conn, txId, status);
             return result;
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
             throw e;
         }
     }
@@ -64,45 +125,35 @@ public class TccTransactionManager {
      * 提交事务
      */
     public boolean commit(Connection conn, String txId, TccAction... actions) throws SQLException {
-        conn.setAutoCommit(false);
+        if (fusedPhases) {
+            return commitFused(conn, txId, actions);
+        }
+        storage.begin(conn);
 
         try {
             // 检查事务状态
-            String checkSql = "SELECT status FROM transaction_record WHERE tx_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(checkSql)) {
-                pstmt.setString(1, txId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (!rs.next() || !"TRY_SUCCESS".equals(rs.getString("status"))) {
-                        conn.rollback();
-                        return false;
-                    }
-                }
+            if (!"TRY_SUCCESS".equals(statusOf(conn, txId))) {
+                storage.rollback(conn);
+                return false;
             }
 
             // 执行所有确认操作
             for (TccAction action : actions) {
                 if (!action.confirmAction(conn, txId)) {
-                    conn.rollback();
+                    storage.rollback(conn);
                     return false;
                 }
             }
 
             // 更新事务状态为COMMITTED
-            String updateSql =
-                "UPDATE transaction_record SET status = ?, commit_time = ?, update_time = ? WHERE tx_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
-                pstmt.setString(1, "COMMITTED");
-                pstmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
-                pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
-                pstmt.setString(4, txId);
-                pstmt.executeUpdate();
-            }
+            recordStatus(conn, txId, "COMMITTED");
 
-            conn.commit();
+            storage.commit(conn);
+            recordStatusAfterCommit(conn, txId, "COMMITTED");
             System.out.println("提交事务成功: " + txId);
             return true;
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
             throw e;
         }
     }
@@ -111,7 +162,10 @@ public class TccTransactionManager {
      * 回滚事务
      */
     public boolean rollback(Connection conn, String txId, TccAction... actions) throws SQLException {
-        conn.setAutoCommit(false);
+        if (fusedPhases) {
+            return rollbackFused(conn, txId, actions);
+        }
+        storage.begin(conn);
 
         try {
             // 执行所有取消操作
@@ -120,40 +174,361 @@ public class TccTransactionManager {
             }
 
             // 更新事务状态为ROLLED_BACK
-            String updateSql =
-                "UPDATE transaction_record SET status = ?, rollback_time = ?, update_time = ? WHERE tx_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
-                pstmt.setString(1, "ROLLED_BACK");
-                pstmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
-                pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
-                pstmt.setString(4, txId);
-                pstmt.executeUpdate();
+            recordStatus(conn, txId, "ROLLED_BACK");
+
+            storage.commit(conn);
+            recordStatusAfterCommit(conn, txId, "ROLLED_BACK");
+            System.out.println("回滚事务成功: " + txId);
+            return true;
+        } catch (SQLException e) {
+            storage.rollback(conn);
+            throw e;
+        }
+    }
+
+    // ==================== 合并阶段 ====================
+
+    private boolean executeTryFused(Connection conn, String txId, TccAction action, Object... args)
+        throws SQLException {
+        storage.enterFusedPhase(conn);
+        boolean committed = false;
+        try {
+            // 参与方失败时留下的失败记录与普通模式一样随阶段提交
+            boolean result = action.tryAction(conn, txId, args);
+            recordStatus(conn, txId, result ? "TRY_SUCCESS" : "TRY_FAILED");
+            storage.exitFusedPhase(conn, true);
+            recordStatusAfterCommit(conn, txId, result ? "TRY_SUCCESS" : "TRY_FAILED");
+            committed = true;
+            return result;
+        } finally {
+            if (!committed) {
+                storage.exitFusedPhase(conn, false);
             }
+        }
+    }
 
-            conn.commit();
+    private boolean commitFused(Connection conn, String txId, TccAction... actions) throws SQLException {
+        storage.enterFusedPhase(conn);
+        boolean committed = false;
+        try {
+            if (!"TRY_SUCCESS".equals(statusOf(conn, txId))) {
+                return false;
+            }
+            for (TccAction action : actions) {
+                if (!action.confirmAction(conn, txId)) {
+                    return false;
+                }
+            }
+            recordStatus(conn, txId, "COMMITTED");
+            storage.exitFusedPhase(conn, true);
+            recordStatusAfterCommit(conn, txId, "COMMITTED");
+            committed = true;
+            System.out.println("提交事务成功: " + txId);
+            return true;
+        } finally {
+            if (!committed) {
+                storage.exitFusedPhase(conn, false);
+            }
+        }
+    }
+
+    private boolean rollbackFused(Connection conn, String txId, TccAction... actions) throws SQLException {
+        storage.enterFusedPhase(conn);
+        boolean committed = false;
+        try {
+            for (TccAction action : actions) {
+                if (!action.cancelAction(conn, txId)) {
+                    // 合并阶段内参与方的回滚会撤销整个阶段，不能像普通模式一样继续
+                    return false;
+                }
+            }
+            recordStatus(conn, txId, "ROLLED_BACK");
+            storage.exitFusedPhase(conn, true);
+            recordStatusAfterCommit(conn, txId, "ROLLED_BACK");
+            committed = true;
             System.out.println("回滚事务成功: " + txId);
             return true;
+        } finally {
+            if (!committed) {
+                storage.exitFusedPhase(conn, false);
+            }
+        }
+    }
+
+    // ==================== 并行参与方 ====================
+
+    /**
+     * 并行执行所有参与方的Try操作，等到全部成功或出现第一个失败后记录事务状态
+     */
+    public boolean executeTryAll(Connection conn, String txId, TccParticipant... participants) throws SQLException {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (TccParticipant participant : participants) {
+            futures.add(callAsync(c -> participant.getAction().tryAction(c, txId, participant.getArgs())));
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        pendingTries.put(txId, all);
+        all.whenComplete((v, e) -> pendingTries.remove(txId, all));
+
+        // 任一参与方失败即可决定结果，不必等待其他参与方
+        CompletableFuture<Boolean> decision = new CompletableFuture<>();
+        for (CompletableFuture<Boolean> future : futures) {
+            future.whenComplete((result, e) -> {
+                if (e != null) {
+                    decision.completeExceptionally(e);
+                } else if (!result) {
+                    decision.complete(false);
+                }
+            });
+        }
+        all.whenComplete((v, e) -> {
+            if (e != null) {
+                decision.completeExceptionally(e);
+            } else {
+                decision.complete(futures.stream().allMatch(CompletableFuture::join));
+            }
+        });
+        boolean result = await(decision);
+
+        storage.begin(conn);
+        try {
+            recordStatus(conn, txId, result ? "TRY_SUCCESS" : "TRY_FAILED");
+            storage.commit(conn);
+            recordStatusAfterCommit(conn, txId, result ? "TRY_SUCCESS" : "TRY_FAILED");
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
             throw e;
         }
+        return result;
     }
 
     /**
-     * 检查事务是否已经完成
+     * 并行执行所有参与方的Confirm操作，全部成功后记录事务提交
      */
-    public boolean isTransactionCompleted(Connection conn, String txId) throws SQLException {
-        String sql = "SELECT status FROM transaction_record WHERE tx_id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, txId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    String status = rs.getString("status");
-                    return "COMMITTED".equals(status) || "ROLLED_BACK".equals(status);
+    public boolean commitAll(Connection conn, String txId, TccParticipant... participants) throws SQLException {
+        storage.begin(conn);
+
+        try {
+            if (!"TRY_SUCCESS".equals(statusOf(conn, txId))) {
+                storage.rollback(conn);
+                return false;
+            }
+
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (TccParticipant participant : participants) {
+                futures.add(callAsync(c -> participant.getAction().confirmAction(c, txId)));
+            }
+            if (!awaitAll(futures)) {
+                storage.rollback(conn);
+                return false;
+            }
+
+            recordStatus(conn, txId, "COMMITTED");
+            storage.commit(conn);
+            recordStatusAfterCommit(conn, txId, "COMMITTED");
+            System.out.println("提交事务成功: " + txId);
+            return true;
+        } catch (SQLException e) {
+            storage.rollback(conn);
+            throw e;
+        }
+    }
+
+    /**
+     * 等待未结束的Try后，并行执行所有参与方的Cancel操作并记录事务回滚
+     */
+    public boolean rollbackAll(Connection conn, String txId, TccParticipant... participants) throws SQLException {
+        CompletableFuture<Void> pending = pendingTries.get(txId);
+        if (pending != null) {
+            try {
+                pending.join();
+            } catch (CompletionException e) {
+                // Try的结果不影响回滚
+            }
+        }
+
+        storage.begin(conn);
+
+        try {
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (TccParticipant participant : participants) {
+                futures.add(callAsync(c -> participant.getAction().cancelAction(c, txId)));
+            }
+            awaitAll(futures);
+
+            recordStatus(conn, txId, "ROLLED_BACK");
+            storage.commit(conn);
+            recordStatusAfterCommit(conn, txId, "ROLLED_BACK");
+            System.out.println("回滚事务成功: " + txId);
+            return true;
+        } catch (SQLException e) {
+            storage.rollback(conn);
+            throw e;
+        }
+    }
+
+    /**
+     * 参与方调用
+     */
+    private interface ParticipantCall {
+        boolean call(Connection conn) throws SQLException;
+    }
+
+    // 在参与方线程池上用独立的本地事务句柄执行调用
+    private CompletableFuture<Boolean> callAsync(ParticipantCall call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection conn = storage.openConnection()) {
+                return call.call(conn);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, participantExecutor());
+    }
+
+    // 等待全部调用结束，全部返回true时返回true，有异常时抛出第一个异常
+    private static boolean awaitAll(List<CompletableFuture<Boolean>> futures) throws SQLException {
+        await(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null));
+        boolean result = true;
+        for (CompletableFuture<Boolean> future : futures) {
+            result &= await(future);
+        }
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    private ExecutorService participantExecutor() {
+        ExecutorService executor = participantExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = participantExecutor;
+                if (executor == null) {
+                    executor = ThreadPools.newBoundedPool("tcc-participant", DEFAULT_PARTICIPANT_THREADS,
+                                                          DEFAULT_PARTICIPANT_QUEUE);
+                    participantExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    // ==================== 协调者日志 ====================
+
+    // 与参与方共用本地事务的日志在提交前写入
+    private void recordStatus(Connection conn, String txId, String status) throws SQLException {
+        if (coordinatorLog.isTransactional()) {
+            coordinatorLog.record(conn, txId, status);
+        }
+    }
+
+    // 独立的日志在本地事务提交后写入，日志中的状态不会先于参与方的数据生效
+    private void recordStatusAfterCommit(Connection conn, String txId, String status) throws SQLException {
+        if (!coordinatorLog.isTransactional()) {
+            coordinatorLog.record(conn, txId, status);
+        }
+        cacheStatus(txId, status);
+    }
+
+    // 不与参与方共用本地事务时记录状态：数据库日志单独开一个本地事务，本地协调者日志不需要数据库事务。
+    // 异步事务管理器的参与方各自提交，状态也通过这里写入同一个协调者日志和状态索引
+    void recordStatusAlone(Connection conn, String txId, String status) throws SQLException {
+        if (coordinatorLog.isTransactional()) {
+            storage.begin(conn);
+            try {
+                recordStatus(conn, txId, status);
+                storage.commit(conn);
+            } catch (SQLException e) {
+                storage.rollback(conn);
+                throw e;
+            }
+        }
+        recordStatusAfterCommit(conn, txId, status);
+    }
+
+    StorageEngine getStorage() {
+        return storage;
+    }
+
+    // 只缓存已提交的状态
+    private void cacheStatus(String txId, String status) {
+        TxStateIndex index = stateIndex;
+        if (index != null) {
+            index.put(txId, status);
+        }
+    }
+
+    // 先查状态索引，未命中时查协调者日志并回填
+    String statusOf(Connection conn, String txId) throws SQLException {
+        TxStateIndex index = stateIndex;
+        if (index == null) {
+            return coordinatorLog.getStatus(conn, txId);
+        }
+        String status = index.get(txId);
+        if (status == null) {
+            status = coordinatorLog.getStatus(conn, txId);
+            if (status != null) {
+                index.put(txId, status);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * 启动时恢复协调者日志中未完成的事务：所有参与方Try都已成功的重新提交（Confirm幂等），
+     * 提交失败或有参与方Try未成功的回滚，返回处理的事务数
+     *
+     * 每个参与方Try成功后都会记录TRY_SUCCESS，在两个参与方的Try之间崩溃时状态同样是TRY_SUCCESS，
+     * 因此还要逐个确认参与方的Try幂等键。
+     */
+    public int recover(Connection conn, TccAction... actions) throws SQLException {
+        Map<String, String> inDoubt = coordinatorLog.inDoubtTransactions(conn);
+        for (Map.Entry<String, String> entry : inDoubt.entrySet()) {
+            String txId = entry.getKey();
+            try {
+                if ("TRY_SUCCESS".equals(entry.getValue()) && allTried(conn, txId, actions)
+                    && commit(conn, txId, actions)) {
+                    System.out.println("恢复事务并提交: " + txId);
+                } else {
+                    rollback(conn, txId, actions);
+                    System.out.println("恢复事务并回滚: " + txId);
                 }
+            } catch (SQLException e) {
+                System.err.println("恢复事务失败，将由定时任务处理: " + txId + ", " + e.getMessage());
             }
         }
-        return false;
+        return inDoubt.size();
+    }
+
+    private static boolean allTried(Connection conn, String txId, TccAction... actions) throws SQLException {
+        for (TccAction action : actions) {
+            if (!action.isTried(conn, txId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 检查事务是否已经完成
+     */
+    public boolean isTransactionCompleted(Connection conn, String txId) throws SQLException {
+        String status = statusOf(conn, txId);
+        return "COMMITTED".equals(status) || "ROLLED_BACK".equals(status);
     }
 }
-    
\ No newline at end of file
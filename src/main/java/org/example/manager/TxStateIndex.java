@@ -0,0 +1,308 @@
+package org.example.manager;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进行中和最近完成事务的状态索引，数据放在堆外内存中，不产生GC压力
+ *
+ * 事务ID解析为128位键：UUID取高低64位，19位数字的时间递增ID高位为0
+ * （UUID第4版的高64位含版本号，不会为0）。无法解析的事务ID不进入索引。
+ *
+ * 索引分为若干段，每段有独立的锁和一块堆外内存，段内为开放寻址的线性探测表，
+ * 删除时向后移位，不留墓碑。每个槽24字节：键高位、键低位、状态码和写入时间。
+ * 段内条目达到上限时，在新条目理想位置起的EVICT_SCAN_SLOTS个槽中淘汰写入时间最早的
+ * 已完成（COMMITTED/ROLLED_BACK）条目，淘汰代价固定，其余最近完成的条目仍保留；
+ * 这些槽中没有已完成的条目时不再缓存，调用方回退到数据库查询。
+ */
+public class TxStateIndex {
+    private static final int SLOT_BYTES = 24;
+    private static final double LOAD_FACTOR = 0.75;
+    private static final String[] STATUSES = {null, "INIT", "TRY_SUCCESS", "TRY_FAILED", "COMMITTED", "ROLLED_BACK"};
+    private static final int COMMITTED = 4;
+    private static final int ROLLED_BACK = 5;
+    private static final int EVICT_SCAN_SLOTS = 32;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * @param maxEntries 最多缓存的事务数
+     */
+    public TxStateIndex(int maxEntries) {
+        this(maxEntries, 64);
+    }
+
+    public TxStateIndex(int maxEntries, int segmentCount) {
+        int count = Integer.highestOneBit(Math.max(1, segmentCount - 1) << 1);
+        long slotsPerSegment = Long.highestOneBit((long) Math.ceil(maxEntries / LOAD_FACTOR / count) - 1) << 1;
+        slotsPerSegment = Math.max(16, slotsPerSegment);
+        if (slotsPerSegment * SLOT_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("单段容量过大，请增加段数: " + maxEntries);
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment((int) slotsPerSegment);
+        }
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * 查询事务状态，未缓存时返回null
+     */
+    public String get(String txId) {
+        long[] key = parseKey(txId);
+        if (key == null) {
+            return null;
+        }
+        long hash = hash(key[0], key[1]);
+        return STATUSES[segmentFor(hash).get(key[0], key[1], hash)];
+    }
+
+    /**
+     * 写入事务状态，返回是否已缓存
+     */
+    public boolean put(String txId, String status) {
+        long[] key = parseKey(txId);
+        int code = codeOf(status);
+        if (key == null || code == 0) {
+            return false;
+        }
+        long hash = hash(key[0], key[1]);
+        return segmentFor(hash).put(key[0], key[1], hash, code);
+    }
+
+    /**
+     * 删除事务状态
+     */
+    public void remove(String txId) {
+        long[] key = parseKey(txId);
+        if (key != null) {
+            long hash = hash(key[0], key[1]);
+            segmentFor(hash).remove(key[0], key[1], hash);
+        }
+    }
+
+    /**
+     * 当前缓存的事务数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * 占用的堆外内存字节数
+     */
+    public long memoryBytes() {
+        return (long) segments.length * segments[0].capacity * SLOT_BYTES;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    // ==================== 键 ====================
+
+    static long[] parseKey(String txId) {
+        if (txId == null) {
+            return null;
+        }
+        int length = txId.length();
+        if (length == 36 && txId.charAt(8) == '-') {
+            try {
+                UUID uuid = UUID.fromString(txId);
+                return new long[] {uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()};
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        if (length == 0 || length > 19) {
+            return null;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = txId.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            value = value * 10 + (c - '0');
+            if (value < 0) {
+                return null;
+            }
+        }
+        return new long[] {0, value};
+    }
+
+    private static long hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int codeOf(String status) {
+        for (int i = 1; i < STATUSES.length; i++) {
+            if (STATUSES[i].equals(status)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    // ==================== 段 ====================
+
+    private static class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        final ByteBuffer slots;
+        final int capacity;
+        final int mask;
+        final int maxSize;
+        int size;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.maxSize = (int) (capacity * LOAD_FACTOR);
+            this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+        }
+
+        int get(long hi, long lo, long hash) {
+            lock.lock();
+            try {
+                int index = find(hi, lo, hash);
+                return index < 0 ? 0 : codeAt(index);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean put(long hi, long lo, long hash, int code) {
+            lock.lock();
+            try {
+                int index = find(hi, lo, hash);
+                if (index >= 0) {
+                    writeMeta(index, code);
+                    return true;
+                }
+                if (size >= maxSize && !evictOldestCompleted((int) hash & mask)) {
+                    return false;
+                }
+                index = (int) hash & mask;
+                while (!isEmpty(index)) {
+                    index = (index + 1) & mask;
+                }
+                int offset = index * SLOT_BYTES;
+                slots.putLong(offset, hi);
+                slots.putLong(offset + 8, lo);
+                writeMeta(index, code);
+                size++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(long hi, long lo, long hash) {
+            lock.lock();
+            try {
+                int index = find(hi, lo, hash);
+                if (index >= 0) {
+                    delete(index);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 从start起的EVICT_SCAN_SLOTS个槽中淘汰写入时间最早的已完成条目，没有可淘汰的条目时返回false
+        private boolean evictOldestCompleted(int start) {
+            int oldest = -1;
+            long oldestTime = Long.MAX_VALUE;
+            for (int i = 0; i < EVICT_SCAN_SLOTS && i < capacity; i++) {
+                int index = (start + i) & mask;
+                int code = isEmpty(index) ? 0 : codeAt(index);
+                if ((code == COMMITTED || code == ROLLED_BACK) && writeTimeAt(index) < oldestTime) {
+                    oldest = index;
+                    oldestTime = writeTimeAt(index);
+                }
+            }
+            if (oldest < 0) {
+                return false;
+            }
+            delete(oldest);
+            return true;
+        }
+
+        private int find(long hi, long lo, long hash) {
+            int index = (int) hash & mask;
+            while (!isEmpty(index)) {
+                int offset = index * SLOT_BYTES;
+                if (slots.getLong(offset) == hi && slots.getLong(offset + 8) == lo) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        // 删除后把探测链上后续的条目前移，保证查找不会在空槽处提前结束
+        private void delete(int index) {
+            int hole = index;
+            int next = (hole + 1) & mask;
+            while (!isEmpty(next)) {
+                int offset = next * SLOT_BYTES;
+                int home = (int) hash(slots.getLong(offset), slots.getLong(offset + 8)) & mask;
+                // 条目的理想位置不在(hole, next]区间内时可以前移到hole
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    copySlot(next, hole);
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            slots.putLong(hole * SLOT_BYTES + 16, 0);
+            size--;
+        }
+
+        private void copySlot(int from, int to) {
+            int src = from * SLOT_BYTES;
+            int dst = to * SLOT_BYTES;
+            slots.putLong(dst, slots.getLong(src));
+            slots.putLong(dst + 8, slots.getLong(src + 8));
+            slots.putLong(dst + 16, slots.getLong(src + 16));
+        }
+
+        private boolean isEmpty(int index) {
+            return slots.getLong(index * SLOT_BYTES + 16) == 0;
+        }
+
+        private int codeAt(int index) {
+            return (int) (slots.getLong(index * SLOT_BYTES + 16) & 0xff);
+        }
+
+        private long writeTimeAt(int index) {
+            return slots.getLong(index * SLOT_BYTES + 16) >>> 8;
+        }
+
+        // 元数据：高56位为写入时间（毫秒），低8位为状态码，非0表示槽位已占用
+        private void writeMeta(int index, int code) {
+            slots.putLong(index * SLOT_BYTES + 16, (System.currentTimeMillis() << 8) | code);
+        }
+    }
+}
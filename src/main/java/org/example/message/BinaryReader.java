@@ -0,0 +1,54 @@
+package org.example.message;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按BinaryWriter的布局读取二进制消息内容，越界时抛出IllegalArgumentException
+ */
+public final class BinaryReader {
+    private final byte[] buffer;
+    private int position;
+
+    BinaryReader(byte[] buffer, int offset) {
+        this.buffer = buffer;
+        this.position = offset;
+    }
+
+    public int readByte() {
+        check(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    public int readVarInt() {
+        return (int) readVarLong();
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("变长整数过长");
+    }
+
+    public String readString() {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        check(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    private void check(int length) {
+        if (length < 0 || position + length > buffer.length) {
+            throw new IllegalArgumentException("消息内容不完整");
+        }
+    }
+}
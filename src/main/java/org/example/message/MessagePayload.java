@@ -0,0 +1,9 @@
+package org.example.message;
+
+/**
+ * 本地消息的类型化内容，每种business_type对应一个实现
+ */
+public interface MessagePayload {
+
+    String getBusinessType();
+}
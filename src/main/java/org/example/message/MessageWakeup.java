@@ -0,0 +1,72 @@
+package org.example.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 本节点新建消息的进程内唤醒通道
+ *
+ * 创建消息的本地事务提交后登记消息ID并唤醒等待中的扫描线程，扫描线程取出ID直接认领，
+ * 不必等下一次定期扫描。登记和取出都不加锁；积压达到容量时丢弃新的登记，这些消息由定期扫描处理。
+ * 只支持一个等待线程。
+ */
+public class MessageWakeup {
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    private final ConcurrentLinkedQueue<String> messageIds = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private volatile Thread waiter;
+
+    public MessageWakeup() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MessageWakeup(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 登记一条已提交的消息并唤醒等待线程，积压达到容量时返回false
+     */
+    public boolean signal(String messageId) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        messageIds.offer(messageId);
+        LockSupport.unpark(waiter);
+        return true;
+    }
+
+    /**
+     * 取出至多max个已登记的消息ID
+     */
+    public List<String> drain(int max) {
+        List<String> drained = new ArrayList<>(Math.min(max, Math.max(size.get(), 0)));
+        String messageId;
+        while (drained.size() < max && (messageId = messageIds.poll()) != null) {
+            size.decrementAndGet();
+            drained.add(messageId);
+        }
+        return drained;
+    }
+
+    public boolean isEmpty() {
+        return messageIds.isEmpty();
+    }
+
+    /**
+     * 没有已登记的消息时等待，直到有新登记、超时或线程被unpark
+     */
+    public void await(long timeoutNanos) {
+        waiter = Thread.currentThread();
+        // 先发布等待线程再检查队列，与signal先入队再唤醒配合，不会错过唤醒
+        if (messageIds.isEmpty()) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.example.message;
+
+import com.google.gson.TypeAdapter;
+
+/**
+ * 一种消息内容的编码格式：二进制布局带模式版本号，JSON用于可读和兼容旧消息
+ */
+public interface PayloadFormat<T extends MessagePayload> {
+
+    String getBusinessType();
+
+    Class<T> getPayloadClass();
+
+    /**
+     * 当前写入的二进制模式版本，读取时按消息中的版本号解析，旧版本需要继续支持
+     */
+    int getVersion();
+
+    void write(BinaryWriter writer, T payload);
+
+    T read(BinaryReader reader, int version);
+
+    /**
+     * JSON读写适配器，由编解码器注册到共享的Gson实例
+     */
+    TypeAdapter<T> jsonAdapter();
+}
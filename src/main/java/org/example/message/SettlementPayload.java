@@ -0,0 +1,124 @@
+package org.example.message;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * 充电订单结算后发放积分的消息内容，不可变
+ */
+public final class SettlementPayload implements MessagePayload {
+    public static final String BUSINESS_TYPE = "CHARGING_ORDER_SETTLEMENT";
+    public static final PayloadFormat<SettlementPayload> FORMAT = new Format();
+
+    private final String userId;
+    private final String orderId;
+    private final int points;
+    private final long createTime; // 毫秒
+
+    public SettlementPayload(String userId, String orderId, int points, long createTime) {
+        this.userId = userId;
+        this.orderId = orderId;
+        this.points = points;
+        this.createTime = createTime;
+    }
+
+    @Override
+    public String getBusinessType() {
+        return BUSINESS_TYPE;
+    }
+
+    public String getUserId() { return userId; }
+    public String getOrderId() { return orderId; }
+    public int getPoints() { return points; }
+    public long getCreateTime() { return createTime; }
+
+    // 版本1: userId, orderId, points(变长), createTime(变长)
+    private static class Format implements PayloadFormat<SettlementPayload> {
+        private final TypeAdapter<SettlementPayload> jsonAdapter = new JsonAdapter();
+
+        @Override
+        public String getBusinessType() {
+            return BUSINESS_TYPE;
+        }
+
+        @Override
+        public Class<SettlementPayload> getPayloadClass() {
+            return SettlementPayload.class;
+        }
+
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+
+        @Override
+        public void write(BinaryWriter writer, SettlementPayload payload) {
+            writer.writeString(payload.userId);
+            writer.writeString(payload.orderId);
+            writer.writeVarInt(payload.points);
+            writer.writeVarLong(payload.createTime);
+        }
+
+        @Override
+        public SettlementPayload read(BinaryReader reader, int version) {
+            if (version != 1) {
+                throw new IllegalArgumentException("不支持的结算消息版本: " + version);
+            }
+            return new SettlementPayload(reader.readString(), reader.readString(), reader.readVarInt(),
+                                         reader.readVarLong());
+        }
+
+        @Override
+        public TypeAdapter<SettlementPayload> jsonAdapter() {
+            return jsonAdapter;
+        }
+    }
+
+    // 流式读写，兼容旧消息：points可能写成小数，createTime可能是格式化的时间字符串（读为0）
+    private static class JsonAdapter extends TypeAdapter<SettlementPayload> {
+        @Override
+        public void write(JsonWriter out, SettlementPayload payload) throws IOException {
+            out.beginObject();
+            out.name("userId").value(payload.userId);
+            out.name("orderId").value(payload.orderId);
+            out.name("points").value(payload.points);
+            out.name("createTime").value(payload.createTime);
+            out.endObject();
+        }
+
+        @Override
+        public SettlementPayload read(JsonReader in) throws IOException {
+            String userId = null;
+            String orderId = null;
+            int points = 0;
+            long createTime = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "userId": userId = in.nextString(); break;
+                    case "orderId": orderId = in.nextString(); break;
+                    case "points": points = (int) in.nextDouble(); break;
+                    case "createTime":
+                        if (in.peek() == JsonToken.NUMBER) {
+                            createTime = in.nextLong();
+                        } else {
+                            in.skipValue();
+                        }
+                        break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return new SettlementPayload(userId, orderId, points, createTime);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.model;
+
+/**
+ * 充电订单，不可变
+ *
+ * 按投影查询时只填充投影包含的列，其余字符串列为null、金额为0。
+ */
+public final class ChargingOrder {
+    private final String orderId;
+    private final String txId;
+    private final String chargingPointId;
+    private final String userId;
+    private final double amount;
+    private final String status; // INIT, IN_PROGRESS, COMPLETED, CANCELED, FAILED
+    private final String settlementStatus; // UNSETTLED, SETTLED
+
+    public ChargingOrder(String orderId, String txId, String chargingPointId, String userId, double amount,
+                         String status, String settlementStatus) {
+        this.orderId = orderId;
+        this.txId = txId;
+        this.chargingPointId = chargingPointId;
+        this.userId = userId;
+        this.amount = amount;
+        this.status = status;
+        this.settlementStatus = settlementStatus;
+    }
+
+    public String getOrderId() { return orderId; }
+    public String getTxId() { return txId; }
+    public String getChargingPointId() { return chargingPointId; }
+    public String getUserId() { return userId; }
+    public double getAmount() { return amount; }
+    public String getStatus() { return status; }
+    public String getSettlementStatus() { return settlementStatus; }
+}
@@ -0,0 +1,26 @@
+package org.example.model;
+
+/**
+ * 充电桩的占用状态，不可变
+ */
+public final class ChargingPointStatus {
+    private final String chargingPointId;
+    private final String txId;
+    private final String userId;
+    private final String status; // INIT, IN_PROGRESS
+    private final long since; // 进入当前状态的时间（毫秒）
+
+    public ChargingPointStatus(String chargingPointId, String txId, String userId, String status, long since) {
+        this.chargingPointId = chargingPointId;
+        this.txId = txId;
+        this.userId = userId;
+        this.status = status;
+        this.since = since;
+    }
+
+    public String getChargingPointId() { return chargingPointId; }
+    public String getTxId() { return txId; }
+    public String getUserId() { return userId; }
+    public String getStatus() { return status; }
+    public long getSince() { return since; }
+}
@@ -15,6 +15,8 @@ public class LocalMessage {
     private Timestamp nextRetryTime; // 下次重试时间
     private Timestamp createTime;
     private Timestamp updateTime;
+    private String ownerNode; // 认领消息的处理者，未认领时为空
+    private Timestamp leaseUntil; // 认领租约到期时间，过期后可被其他处理者重新认领
 
     // 构造函数、getter和setter
     public LocalMessage() {}
@@ -50,5 +52,9 @@ public class LocalMessage {
     public void setCreateTime(Timestamp createTime) { this.createTime = createTime; }
     public Timestamp getUpdateTime() { return updateTime; }
     public void setUpdateTime(Timestamp updateTime) { this.updateTime = updateTime; }
+    public String getOwnerNode() { return ownerNode; }
+    public void setOwnerNode(String ownerNode) { this.ownerNode = ownerNode; }
+    public Timestamp getLeaseUntil() { return leaseUntil; }
+    public void setLeaseUntil(Timestamp leaseUntil) { this.leaseUntil = leaseUntil; }
 }
     
\ No newline at end of file
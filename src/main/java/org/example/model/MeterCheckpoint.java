@@ -0,0 +1,30 @@
+package org.example.model;
+
+/**
+ * 充电订单的计量检查点，不可变
+ */
+public final class MeterCheckpoint {
+    private final String txId;
+    private final String orderId;
+    private final double energyKwh; // 本次会话已充电量
+    private final double meteredAmount; // 按电量计算的费用
+    private final long meterTime; // 最后一条读数的时间（毫秒）
+    private final boolean stopped; // 预扣金额用完后已自动停止
+
+    public MeterCheckpoint(String txId, String orderId, double energyKwh, double meteredAmount, long meterTime,
+                           boolean stopped) {
+        this.txId = txId;
+        this.orderId = orderId;
+        this.energyKwh = energyKwh;
+        this.meteredAmount = meteredAmount;
+        this.meterTime = meterTime;
+        this.stopped = stopped;
+    }
+
+    public String getTxId() { return txId; }
+    public String getOrderId() { return orderId; }
+    public double getEnergyKwh() { return energyKwh; }
+    public double getMeteredAmount() { return meteredAmount; }
+    public long getMeterTime() { return meterTime; }
+    public boolean isStopped() { return stopped; }
+}
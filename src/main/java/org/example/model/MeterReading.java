@@ -0,0 +1,23 @@
+package org.example.model;
+
+/**
+ * 充电桩上报的一条电表读数，不可变
+ */
+public final class MeterReading {
+    private final String txId;
+    private final long energyWh; // 电表累计电量（瓦时），单调递增
+    private final int powerW; // 当前功率（瓦）
+    private final long timestamp; // 读数时间（毫秒）
+
+    public MeterReading(String txId, long energyWh, int powerW, long timestamp) {
+        this.txId = txId;
+        this.energyWh = energyWh;
+        this.powerW = powerW;
+        this.timestamp = timestamp;
+    }
+
+    public String getTxId() { return txId; }
+    public long getEnergyWh() { return energyWh; }
+    public int getPowerW() { return powerW; }
+    public long getTimestamp() { return timestamp; }
+}
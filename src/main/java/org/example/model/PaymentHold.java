@@ -0,0 +1,26 @@
+package org.example.model;
+
+/**
+ * 支付预扣记录，不可变
+ */
+public final class PaymentHold {
+    private final String txId;
+    private final String userId;
+    private final double amount;
+    private final String status; // HOLD, CONFIRMED, CANCELED
+    private final String leaseId; // 从余额租约划出时不为null
+
+    public PaymentHold(String txId, String userId, double amount, String status, String leaseId) {
+        this.txId = txId;
+        this.userId = userId;
+        this.amount = amount;
+        this.status = status;
+        this.leaseId = leaseId;
+    }
+
+    public String getTxId() { return txId; }
+    public String getUserId() { return userId; }
+    public double getAmount() { return amount; }
+    public String getStatus() { return status; }
+    public String getLeaseId() { return leaseId; }
+}
@@ -15,6 +15,7 @@ public class PointsTransaction {
     private Timestamp createTime;
     private Timestamp completeTime;
     private String remark;
+    private boolean applied = true; // 积分是否已计入user_points，延迟累加时先写为false
 
     // 构造函数、getter和setter
     public PointsTransaction() {}
@@ -48,5 +49,7 @@ public class PointsTransaction {
     public void setCompleteTime(Timestamp completeTime) { this.completeTime = completeTime; }
     public String getRemark() { return remark; }
     public void setRemark(String remark) { this.remark = remark; }
+    public boolean isApplied() { return applied; }
+    public void setApplied(boolean applied) { this.applied = applied; }
 }
     
\ No newline at end of file
@@ -4,7 +4,8 @@ package org.example.scheduler;
 import org.example.manager.TccTransactionManager;
 import org.example.service.impl.ChargingService;
 import org.example.service.impl.PaymentService;
-import org.example.util.DBUtil;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -17,14 +18,21 @@ public class AbnormalOrderProcessor {
     private PaymentService paymentService;
     private ChargingService chargingService;
     private TccTransactionManager transactionManager;
+    private StorageEngine storage;
     private long checkIntervalMinutes = 5; // 检查间隔(分钟)
     private long timeoutMinutes = 10; // 超时时间(分钟)
 
     public AbnormalOrderProcessor(PaymentService paymentService, ChargingService chargingService,
                                   TccTransactionManager transactionManager) {
+        this(paymentService, chargingService, transactionManager, StorageEngines.getDefault());
+    }
+
+    public AbnormalOrderProcessor(PaymentService paymentService, ChargingService chargingService,
+                                  TccTransactionManager transactionManager, StorageEngine storage) {
         this.paymentService = paymentService;
         this.chargingService = chargingService;
         this.transactionManager = transactionManager;
+        this.storage = storage;
     }
 
     /**
@@ -48,7 +56,7 @@ public class AbnormalOrderProcessor {
     private void processAbnormalOrders() {
         System.out.println("\n开始处理异常订单...");
 
-        try (Connection conn = DBUtil.getConnection()) {
+        try (Connection conn = storage.openConnection()) {
             // 获取异常的支付和充电订单ID
             List<String> abnormalPaymentTxIds = paymentService.getAbnormalPaymentTxIds(conn, timeoutMinutes);
             List<String> abnormalChargingTxIds = chargingService.getAbnormalChargingTxIds(conn, timeoutMinutes);
@@ -70,8 +78,10 @@ public class AbnormalOrderProcessor {
 
                 try {
                     // 检查充电订单状态
-                    Map<String, Object> order = chargingService.getOrder(conn, txId);
-                    String orderStatus = order != null ? (String) order.get("status") : "UNKNOWN";
+                    String orderStatus = chargingService.getOrderStatus(conn, txId);
+                    if (orderStatus == null) {
+                        orderStatus = "UNKNOWN";
+                    }
 
                     if ("FAILED".equals(orderStatus) || "CANCELED".equals(orderStatus)) {
                         // 充电失败或已取消，回滚支付
@@ -92,6 +102,12 @@ public class AbnormalOrderProcessor {
                 }
             }
 
+            // 归还到期的余额租约，回收崩溃节点遗留的租约
+            int leases = paymentService.getLeaseManager().reclaimExpired(conn);
+            if (leases > 0) {
+                System.out.println("归还或回收余额租约 " + leases + " 个");
+            }
+
             System.out.println("异常订单处理完成");
         } catch (SQLException e) {
             System.err.println("处理异常订单时发生数据库错误: " + e.getMessage());
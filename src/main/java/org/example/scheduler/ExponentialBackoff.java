@@ -0,0 +1,45 @@
+package org.example.scheduler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 指数退避：第n次重试等待 base * 2^n，不超过上限，可按业务类型设置不同上限
+ *
+ * 抖动比例为j时实际等待时间在[(1 - j) * 退避时间, 退避时间]内均匀分布，
+ * 避免同一时刻失败的大量消息在同一时刻重试。
+ */
+public class ExponentialBackoff implements RetryBackoff {
+    private final long baseMillis;
+    private final long maxMillis;
+    private final double jitter;
+    private final Map<String, Long> caps = new ConcurrentHashMap<>();
+
+    public ExponentialBackoff(long baseMillis, long maxMillis, double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("抖动比例超出范围[0, 1]: " + jitter);
+        }
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.jitter = jitter;
+    }
+
+    /**
+     * 设置某个业务类型的退避上限（毫秒），覆盖默认上限
+     */
+    public ExponentialBackoff setCap(String businessType, long capMillis) {
+        caps.put(businessType, capMillis);
+        return this;
+    }
+
+    @Override
+    public long delayMillis(String businessType, int retryCount) {
+        long cap = caps.getOrDefault(businessType, maxMillis);
+        long delay = (long) Math.min(cap, baseMillis * Math.pow(2, retryCount));
+        if (jitter > 0) {
+            delay -= (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return delay;
+    }
+}
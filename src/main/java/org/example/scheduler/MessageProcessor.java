@@ -1,103 +1,364 @@
 package org.example.scheduler;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import org.example.message.MessageCodec;
+import org.example.message.MessageWakeup;
+import org.example.message.SettlementPayload;
+import org.example.model.LocalMessage;
 import org.example.service.impl.PointsService;
-import org.example.util.DBUtil;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.IdGenerator;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * 消息处理器，定时扫描并处理本地消息表中的消息
+ * 消息处理器，扫描线程从本地消息表分页认领消息，多个工作线程并发处理
+ *
+ * 扫描线程按状态依次扫描，同一状态内按(next_retry_time, message_id)键集分页，每页在一个短事务中认领
+ * （FOR UPDATE SKIP LOCKED，并写入认领者和租约到期时间），提交后放入容量有限的预取队列；
+ * 下一页的认领与工作线程处理上一页同时进行，队列满时扫描线程等待，内存占用不超过几页消息。
+ * 同一节点的工作线程和其他节点之间拿到的消息互不重复；处理者崩溃时认领在租约到期后失效，
+ * 消息由其他处理者重新认领。积分发放本身是幂等的，租约到期后重复处理也不会重复加积分。
+ *
+ * 本节点结算产生的消息在本地事务提交后通过唤醒通道登记，扫描线程被唤醒后按ID直接认领，几毫秒内即可处理。
+ * 按ID没有认领到的消息（被其他事务锁定、租约未到期或重试时间取整后未到期）经时间轮延迟后重新登记，
+ * 最多重试几次，之后留给定期扫描。
+ * 定期扫描只作为兜底，处理重试、其他节点和唤醒通道溢出的消息：扫描到满页积压时立即再扫一轮，
+ * 认领到消息时间隔减半，空闲时间隔加倍，限制在最小扫描间隔和检查间隔之间。
+ *
+ * 处理失败的消息按退避策略安排下次重试，重试时间放入本节点的时间轮，到期时经唤醒通道按ID认领；
+ * 消息表中保留认领者，启动时据此重建时间轮。定期扫描只认领超过到期时间一个租约时长仍未重试的消息，
+ * 即认领者已经下线的消息。
  */
 public class MessageProcessor {
+    // 扫描顺序，每个状态对应索引idx_status_retry上的一段连续范围
+    private static final List<String> SCAN_STATUSES = Arrays.asList("FAILED", "PENDING");
+    private static final Timestamp SCAN_START = new Timestamp(0);
+    private static final int MAX_WAKEUP_RETRIES = 3; // 按ID未认领到的消息重新登记的次数
+    private static final long WAKEUP_RETRY_MILLIS = 1000; // 重新登记的延迟，覆盖next_retry_time的秒级取整
+
     private PointsService pointsService;
-    private long checkIntervalSeconds = 5; // 检查间隔，默认60秒
+    private StorageEngine storage;
+    private long checkIntervalSeconds = 5; // 检查间隔，空闲时定期扫描的最长间隔
+    private long minSweepMillis = 1000; // 定期扫描的最短间隔
     private int maxRetryCount = 5; // 最大重试次数
-    private Timer timer;
+    private int batchSize = 500; // 每页认领和每批发放积分的消息数
+    private int prefetchPages = 1; // 工作线程处理中的页之外，预先认领的页数
+    private int workerCount = 1; // 工作线程数
+    private long leaseSeconds = 60; // 认领租约时长，应大于消息在预取队列中等待和处理一页的耗时
+    private final String owner = "node-" + IdGenerator.getDefault().getNodeId();
+    private final List<Thread> workers = new ArrayList<>();
+    private BlockingQueue<List<LocalMessage>> pages;
+    private Thread scanner;
+    private volatile boolean running;
+    private final MessageWakeup wakeup = new MessageWakeup();
+    private final RetryTimingWheel retryWheel = new RetryTimingWheel(wakeup::signal);
+    private volatile RetryBackoff retryBackoff = new ExponentialBackoff(60_000, Long.MAX_VALUE, 0); // 2^n分钟
+    private final MessageCodec codec = MessageCodec.getDefault();
+    // 按ID未认领到的消息ID -> 已重新登记的次数，只由扫描线程访问
+    private final Map<String, Integer> wakeupMisses = new HashMap<>();
 
     public MessageProcessor(PointsService pointsService) {
+        this(pointsService, StorageEngines.getDefault());
+    }
+
+    public MessageProcessor(PointsService pointsService, StorageEngine storage) {
         this.pointsService = pointsService;
+        this.storage = storage;
     }
 
     /**
      * 启动消息处理器
      */
-    public void start() {
-        timer = new Timer("MessageProcessor", true);
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                processPendingMessages();
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        pages = new ArrayBlockingQueue<>(prefetchPages);
+        retryWheel.start(loadRetryDeadlines());
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runWorker, "MessageProcessor-" + (i + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        scanner = new Thread(this::runScanner, "MessageProcessor-scanner");
+        scanner.setDaemon(true);
+        scanner.start();
+
+        System.out.println("消息处理器已启动，工作线程: " + workerCount + "，检查间隔: " + checkIntervalSeconds + "秒");
+    }
+
+    /**
+     * 停止消息处理器：先停止认领，工作线程处理完已认领的页后退出
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(scanner);
+        join(scanner);
+        for (Thread worker : workers) {
+            join(worker);
+        }
+        workers.clear();
+        retryWheel.stop();
+        System.out.println("消息处理器已停止");
+    }
+
+    // 本节点安排过、仍可重试的消息，用于重建时间轮
+    private Map<String, Long> loadRetryDeadlines() {
+        Map<String, Long> deadlines = new HashMap<>();
+        try (Connection conn = storage.openConnection()) {
+            for (Map.Entry<String, Timestamp> entry : storage.findRetryingMessages(conn, owner, maxRetryCount)
+                                                             .entrySet()) {
+                deadlines.put(entry.getKey(), entry.getValue().getTime());
             }
-        }, 0, checkIntervalSeconds * 1000);
+            System.out.println("从消息表重建重试计划: " + deadlines.size() + " 条");
+        } catch (SQLException e) {
+            // 未重建的重试由定期扫描在超时后认领
+            System.err.println("重建重试计划失败: " + e.getMessage());
+        }
+        return deadlines;
+    }
 
-        System.out.println("消息处理器已启动，检查间隔: " + checkIntervalSeconds + "秒");
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * 停止消息处理器
+     * 本节点新建消息的唤醒通道，创建消息的服务在本地事务提交后登记
      */
-    public void stop() {
-        if (timer != null) {
-            timer.cancel();
-            System.out.println("消息处理器已停止");
+    public MessageWakeup getWakeup() {
+        return wakeup;
+    }
+
+    private void runScanner() {
+        long sweepMillis = minSweepMillis;
+        long nextSweep = System.currentTimeMillis();
+        while (running) {
+            claimSignalled();
+            long now = System.currentTimeMillis();
+            if (now >= nextSweep) {
+                int claimed = scan();
+                if (claimed >= batchSize) {
+                    sweepMillis = minSweepMillis;
+                    nextSweep = now;
+                } else {
+                    long maxSweepMillis = Math.max(minSweepMillis, TimeUnit.SECONDS.toMillis(checkIntervalSeconds));
+                    sweepMillis = claimed > 0 ? Math.max(minSweepMillis, sweepMillis / 2)
+                                              : Math.min(maxSweepMillis, sweepMillis * 2);
+                    nextSweep = System.currentTimeMillis() + sweepMillis;
+                }
+            }
+            long waitMillis = nextSweep - System.currentTimeMillis();
+            if (waitMillis > 0 && running) {
+                wakeup.await(TimeUnit.MILLISECONDS.toNanos(waitMillis));
+            }
+        }
+    }
+
+    private void runWorker() {
+        while (running || scanner.isAlive() || !pages.isEmpty()) {
+            try {
+                List<LocalMessage> page = pages.poll(100, TimeUnit.MILLISECONDS);
+                if (page != null) {
+                    processMessages(page);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
     }
 
     /**
-     * 处理待处理的消息
+     * 扫描一轮：逐页认领到期消息并放入预取队列，返回本轮认领的消息数
      */
-    private void processPendingMessages() {
-        System.out.println("\n开始处理待处理消息...");
-
-        try (Connection conn = DBUtil.getConnection()) {
-            // 查询待处理或需要重试的消息
-            String sql =
-                "SELECT * FROM local_message " + "WHERE (status = 'PENDING' OR status = 'FAILED') " + "AND next_retry_time <= ? " + "AND retry_count < ? " + "ORDER BY create_time ASC";
-
-            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-                pstmt.setInt(2, maxRetryCount);
-
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    int messageCount = 0;
-
-                    while (rs.next()) {
-                        messageCount++;
-                        String messageId = rs.getString("message_id");
-                        String businessType = rs.getString("business_type");
-                        String messageContent = rs.getString("message_content");
-                        int retryCount = rs.getInt("retry_count");
-
-                        System.out.println(
-                            "处理消息: " + messageId + ", 业务类型: " + businessType + ", 重试次数: " + retryCount);
-
-                        // 处理消息（此处是直接消费的，实际上是使用MQ去做异步的处理）
-                        // todo 使用MQ去做异步的处理,使用MQ就要考虑更多了，消费者的幂等等问题
-                        boolean processSuccess = processMessage(conn, messageId, businessType, messageContent);
-
-                        if (!processSuccess) {
-                            // 处理失败，更新重试信息（指数退避策略）
-                            retryCount++;
-                            long nextRetryDelay = (long)(Math.pow(2, retryCount) * 60 * 1000); // 2^retryCount分钟
-
-                            updateMessageRetryInfo(conn, messageId, retryCount,
-                                new Timestamp(System.currentTimeMillis() + nextRetryDelay));
-
-                            if (retryCount >= maxRetryCount) {
-                                markMessageAsFailed(conn, messageId, "达到最大重试次数");
-                                System.err.println("消息处理失败且达到最大重试次数: " + messageId);
-                            }
-                        }
+    private int scan() {
+        // 本轮只认领开始时已到期的消息，扫描期间新到期的留给下一轮；
+        // 重试的消息由认领者的时间轮按时触发，超过到期时间一个租约时长后才由扫描兜底
+        long now = System.currentTimeMillis();
+        int claimed = 0;
+        try (Connection conn = storage.openConnection()) {
+            for (String status : SCAN_STATUSES) {
+                Timestamp dueBefore = new Timestamp(
+                    "FAILED".equals(status) ? now - TimeUnit.SECONDS.toMillis(leaseSeconds) : now);
+                Timestamp afterRetryTime = SCAN_START;
+                String afterMessageId = "";
+                while (running) {
+                    List<LocalMessage> page = claimPage(conn, status, dueBefore, afterRetryTime, afterMessageId);
+                    if (page.isEmpty()) {
+                        break;
                     }
+                    claimed += page.size();
+                    if (!handOff(page)) {
+                        return claimed;
+                    }
+                    if (page.size() < batchSize) {
+                        break;
+                    }
+                    LocalMessage last = page.get(page.size() - 1);
+                    afterRetryTime = last.getNextRetryTime();
+                    afterMessageId = last.getMessageId();
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("认领消息时发生数据库错误: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return claimed;
+    }
+
+    /**
+     * 按ID认领唤醒通道中登记的消息并放入预取队列，返回认领的消息数
+     */
+    private int claimSignalled() {
+        if (wakeup.isEmpty()) {
+            return 0;
+        }
+        int claimed = 0;
+        List<String> messageIds = Collections.emptyList();
+        try (Connection conn = storage.openConnection()) {
+            while (running && !(messageIds = wakeup.drain(batchSize)).isEmpty()) {
+                long now = System.currentTimeMillis();
+                List<LocalMessage> page;
+                storage.begin(conn);
+                try {
+                    page = storage.claimMessagesById(conn, owner, messageIds, new Timestamp(now),
+                                                     new Timestamp(now + TimeUnit.SECONDS.toMillis(leaseSeconds)),
+                                                     maxRetryCount);
+                    storage.commit(conn);
+                } catch (SQLException e) {
+                    storage.rollback(conn);
+                    throw e;
+                }
+                claimed += page.size();
+                retryMissed(messageIds, page);
+                messageIds = Collections.emptyList();
+                if (!page.isEmpty() && !handOff(page)) {
+                    break;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("认领唤醒的消息时发生数据库错误: " + e.getMessage());
+            retryMissed(messageIds, Collections.emptyList());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return claimed;
+    }
+
+    // 取出后没有认领到的消息延迟重新登记，超过次数后由定期扫描处理
+    private void retryMissed(List<String> messageIds, List<LocalMessage> claimed) {
+        if (claimed.size() == messageIds.size()) {
+            for (LocalMessage message : claimed) {
+                wakeupMisses.remove(message.getMessageId());
+            }
+            return;
+        }
+        Set<String> claimedIds = new HashSet<>();
+        for (LocalMessage message : claimed) {
+            claimedIds.add(message.getMessageId());
+            wakeupMisses.remove(message.getMessageId());
+        }
+        long retryAt = System.currentTimeMillis() + WAKEUP_RETRY_MILLIS;
+        for (String messageId : messageIds) {
+            if (claimedIds.contains(messageId)) {
+                continue;
+            }
+            if (wakeupMisses.merge(messageId, 1, Integer::sum) <= MAX_WAKEUP_RETRIES) {
+                retryWheel.schedule(messageId, retryAt);
+            } else {
+                wakeupMisses.remove(messageId);
+            }
+        }
+    }
 
-                    System.out.println("消息处理完成，共处理 " + messageCount + " 条消息");
+    // 放入预取队列，队列满时等待；停止时返回false，未交出的页等租约到期后重新认领
+    private boolean handOff(List<LocalMessage> page) throws InterruptedException {
+        while (!pages.offer(page, 100, TimeUnit.MILLISECONDS)) {
+            if (!running) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<LocalMessage> claimPage(Connection conn, String status, Timestamp now, Timestamp afterRetryTime,
+                                         String afterMessageId) throws SQLException {
+        Timestamp leaseUntil =
+            new Timestamp(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseSeconds));
+        storage.begin(conn);
+        try {
+            List<LocalMessage> page = storage.claimMessages(conn, owner, status, now, leaseUntil, maxRetryCount,
+                                                            afterRetryTime, afterMessageId, batchSize);
+            storage.commit(conn);
+            return page;
+        } catch (SQLException e) {
+            storage.rollback(conn);
+            throw e;
+        }
+    }
+
+    /**
+     * 处理一页已认领的消息
+     */
+    private void processMessages(List<LocalMessage> messages) {
+        System.out.println("\n" + Thread.currentThread().getName() + " 处理认领的消息 " + messages.size() + " 条");
+        try (Connection conn = storage.openConnection()) {
+            // 下面每次更新后都提交，连接归还连接池时会恢复自动提交，这里重新开启事务
+            storage.begin(conn);
+
+            // 结算消息先解码，整批发放积分；其他消息逐条处理
+            List<LocalMessage> settlements = new ArrayList<>();
+            List<SettlementPayload> payloads = new ArrayList<>();
+            for (LocalMessage message : messages) {
+                String messageId = message.getMessageId();
+                String businessType = message.getBusinessType();
+                String messageContent = message.getMessageContent();
+
+                System.out.println(
+                    "处理消息: " + messageId + ", 业务类型: " + businessType + ", 重试次数: " + message.getRetryCount());
+
+                if (SettlementPayload.BUSINESS_TYPE.equals(businessType)) {
+                    try {
+                        payloads.add(codec.decode(messageContent, SettlementPayload.FORMAT));
+                        settlements.add(message);
+                        continue;
+                    } catch (RuntimeException e) {
+                        System.err.println("解析消息 " + messageId + " 失败: " + e.getMessage());
+                    }
+                } else if (processMessage(conn, messageId, businessType)) {
+                    continue;
                 }
+                scheduleRetry(conn, message);
+            }
+
+            if (!settlements.isEmpty()) {
+                processSettlements(conn, settlements, payloads);
             }
+
+            System.out.println("消息处理完成，共处理 " + messages.size() + " 条消息");
         } catch (SQLException e) {
             System.err.println("处理消息时发生数据库错误: " + e.getMessage());
             e.printStackTrace();
@@ -105,34 +366,12 @@ public class MessageProcessor {
     }
 
     /**
-     * 处理单个消息
+     * 处理单个非结算消息，结算消息由processSettlements批量处理
      */
-    private boolean processMessage(Connection conn, String messageId, String businessType, String messageContent) {
+    private boolean processMessage(Connection conn, String messageId, String businessType) {
         try {
-            // 根据业务类型处理不同的消息
-            if ("CHARGING_ORDER_SETTLEMENT".equals(businessType)) {
-                // 解析消息内容
-                Gson gson = new Gson();
-                Map<String, Object> content = gson.fromJson(messageContent, new TypeToken<Map<String, Object>>() {
-                }.getType());
-
-                String userId = (String)content.get("userId");
-                String orderId = (String)content.get("orderId");
-                double pointsDouble = (double)content.get("points");
-                int points = (int)pointsDouble;
-
-                // 调用积分服务增加积分
-                boolean success = pointsService.addPointsForCharging(userId, orderId, points);
-
-                if (success) {
-                    // 标记消息为已确认
-                    markMessageAsConfirmed(conn, messageId);
-                    return true;
-                }
-            } else {
-                System.err.println("未知的业务类型: " + businessType);
-                markMessageAsFailed(conn, messageId, "未知的业务类型");
-            }
+            System.err.println("未知的业务类型: " + businessType);
+            markMessageAsFailed(conn, messageId, "未知的业务类型");
         } catch (Exception e) {
             System.err.println("处理消息 " + messageId + " 失败: " + e.getMessage());
         }
@@ -141,33 +380,60 @@ public class MessageProcessor {
     }
 
     /**
-     * 标记消息为已确认
+     * 批量发放一批结算消息的积分，已发放的消息一次确认，其余消息安排重试
      */
-    private void markMessageAsConfirmed(Connection conn, String messageId) throws SQLException {
-        String sql = "UPDATE local_message SET status = 'CONFIRMED', update_time = ? " + "WHERE message_id = ?";
+    private void processSettlements(Connection conn, List<LocalMessage> messages, List<SettlementPayload> payloads)
+        throws SQLException {
+        Set<String> awarded;
+        try {
+            awarded = pointsService.awardPoints(payloads);
+        } catch (SQLException e) {
+            System.err.println("批量发放积分失败: " + e.getMessage());
+            awarded = Collections.emptySet();
+        }
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-            pstmt.setString(2, messageId);
-            pstmt.executeUpdate();
+        List<String> confirmed = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            LocalMessage message = messages.get(i);
+            if (awarded.contains(payloads.get(i).getOrderId())) {
+                confirmed.add(message.getMessageId());
+            } else {
+                scheduleRetry(conn, message);
+            }
         }
+        if (!confirmed.isEmpty()) {
+            storage.markMessagesConfirmed(conn, confirmed);
+            storage.commit(conn);
+            System.out.println("消息已确认处理成功: " + confirmed.size() + " 条");
+        }
+    }
 
-        System.out.println("消息已确认处理成功: " + messageId);
+    /**
+     * 处理失败，按退避策略更新重试信息并放入时间轮，达到最大重试次数时标记为失败
+     */
+    private void scheduleRetry(Connection conn, LocalMessage message) throws SQLException {
+        String messageId = message.getMessageId();
+        int retryCount = message.getRetryCount() + 1;
+        long nextRetryDelay = retryBackoff.delayMillis(message.getBusinessType(), retryCount);
+        // 向上取整到秒，与TIMESTAMP列保存的值一致，时间轮触发时消息一定已经到期
+        long nextRetryTime = (System.currentTimeMillis() + nextRetryDelay + 999) / 1000 * 1000;
+
+        updateMessageRetryInfo(conn, messageId, retryCount, new Timestamp(nextRetryTime));
+
+        if (retryCount >= maxRetryCount) {
+            markMessageAsFailed(conn, messageId, "达到最大重试次数");
+            System.err.println("消息处理失败且达到最大重试次数: " + messageId);
+        } else {
+            retryWheel.schedule(messageId, nextRetryTime);
+        }
     }
 
     /**
      * 标记消息为失败
      */
     private void markMessageAsFailed(Connection conn, String messageId, String reason) throws SQLException {
-        String sql =
-            "UPDATE local_message SET status = 'FAILED', update_time = ?, remark = ? " + "WHERE message_id = ?";
-
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-            pstmt.setString(2, reason);
-            pstmt.setString(3, messageId);
-            pstmt.executeUpdate();
-        }
+        storage.markMessageFailed(conn, messageId, reason);
+        storage.commit(conn);
     }
 
     /**
@@ -175,16 +441,8 @@ public class MessageProcessor {
      */
     private void updateMessageRetryInfo(Connection conn, String messageId, int retryCount, Timestamp nextRetryTime)
         throws SQLException {
-        String sql =
-            "UPDATE local_message SET status = 'FAILED', retry_count = ?, next_retry_time = ?, " + "update_time = ? WHERE message_id = ?";
-
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, retryCount);
-            pstmt.setTimestamp(2, nextRetryTime);
-            pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
-            pstmt.setString(4, messageId);
-            pstmt.executeUpdate();
-        }
+        storage.updateMessageRetry(conn, messageId, retryCount, nextRetryTime);
+        storage.commit(conn);
 
         System.out.println("消息将重试: " + messageId + ", 下次重试时间: " + nextRetryTime);
     }
@@ -197,5 +455,29 @@ public class MessageProcessor {
     public void setMaxRetryCount(int maxRetryCount) {
         this.maxRetryCount = maxRetryCount;
     }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setRetryBackoff(RetryBackoff retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    public void setMinSweepMillis(long minSweepMillis) {
+        this.minSweepMillis = minSweepMillis;
+    }
+
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = prefetchPages;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public void setLeaseSeconds(long leaseSeconds) {
+        this.leaseSeconds = leaseSeconds;
+    }
 }
     
\ No newline at end of file
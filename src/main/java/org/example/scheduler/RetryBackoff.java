@@ -0,0 +1,12 @@
+package org.example.scheduler;
+
+/**
+ * 消息重试的退避策略
+ */
+public interface RetryBackoff {
+
+    /**
+     * 第retryCount次重试前等待的毫秒数，retryCount从1开始
+     */
+    long delayMillis(String businessType, int retryCount);
+}
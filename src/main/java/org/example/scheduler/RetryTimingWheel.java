@@ -0,0 +1,188 @@
+package org.example.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 消息重试的分层时间轮
+ *
+ * 每层有相同数量的槽，第0层每槽一个刻度，上一层每槽覆盖下一层一整圈；到期刻度和当前刻度
+ * 最高的不同位在第几层，任务就放在该层到期刻度对应的槽里。当前刻度走到某层槽的起点时，
+ * 把该槽的任务重新放入下层，第0层当前槽的任务到期触发。添加和触发都是O(1)，
+ * 不需要为了找到期的重试反复扫描消息表。
+ *
+ * 添加的任务先进入无锁的收件队列，时间轮本身只由驱动线程访问。到期时回调消息ID，
+ * 回调在驱动线程上执行，应当很快返回。
+ */
+public class RetryTimingWheel {
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    private static final int SLOT_BITS = 9;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 3;
+
+    private final long tickMillis;
+    private final Consumer<String> onDue;
+    private final ConcurrentLinkedQueue<Timer> inbox = new ConcurrentLinkedQueue<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<Timer>[][] slots = new List[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+    private volatile boolean running;
+    private Thread driver;
+
+    public RetryTimingWheel(Consumer<String> onDue) {
+        this(DEFAULT_TICK_MILLIS, onDue);
+    }
+
+    public RetryTimingWheel(long tickMillis, Consumer<String> onDue) {
+        this.tickMillis = tickMillis;
+        this.onDue = onDue;
+    }
+
+    /**
+     * 启动驱动线程，并放入重建的重试时间（消息ID -> 下次重试时间）
+     */
+    public synchronized void start(Map<String, Long> deadlines) {
+        if (running) {
+            return;
+        }
+        inbox.clear();
+        for (List<Timer>[] level : slots) {
+            Arrays.fill(level, null);
+        }
+        size = 0;
+        for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+            schedule(entry.getKey(), entry.getValue());
+        }
+        currentTick = System.currentTimeMillis() / tickMillis;
+        running = true;
+        driver = new Thread(this::runDriver, "retry-timing-wheel");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    /**
+     * 停止驱动线程，未到期的任务丢弃，重启后从消息表重建
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(driver);
+        try {
+            driver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 安排消息在deadlineMillis到期，已经到期的在下一个刻度触发
+     */
+    public void schedule(String messageId, long deadlineMillis) {
+        // 向上取整到刻度，触发时一定不早于到期时间
+        inbox.offer(new Timer(messageId, (deadlineMillis + tickMillis - 1) / tickMillis));
+    }
+
+    /**
+     * 时间轮中等待的任务数，只在驱动线程上准确
+     */
+    int size() {
+        return size;
+    }
+
+    private void runDriver() {
+        while (running) {
+            long nowTick = System.currentTimeMillis() / tickMillis;
+            drainInbox();
+            while (currentTick < nowTick) {
+                currentTick++;
+                advance();
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(tickMillis));
+        }
+    }
+
+    private void drainInbox() {
+        Timer timer;
+        while ((timer = inbox.poll()) != null) {
+            place(timer);
+        }
+    }
+
+    // 走到新的刻度：从高层到低层把起点槽的任务放回下层，然后触发第0层当前槽
+    private void advance() {
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                List<Timer> cascaded = take(level, slotOf(currentTick, level));
+                if (cascaded != null) {
+                    for (Timer timer : cascaded) {
+                        place(timer);
+                    }
+                }
+            }
+        }
+        List<Timer> due = take(0, slotOf(currentTick, 0));
+        if (due != null) {
+            for (Timer timer : due) {
+                place(timer);
+            }
+        }
+    }
+
+    private void place(Timer timer) {
+        if (timer.deadlineTick <= currentTick) {
+            fire(timer);
+            return;
+        }
+        // 到期刻度与当前刻度最高的不同位决定层级，超出最高层的先放在最高层，下次轮到时再放回
+        int highestBit = 63 - Long.numberOfLeadingZeros(timer.deadlineTick ^ currentTick);
+        int level = Math.min(highestBit / SLOT_BITS, LEVELS - 1);
+        int slot = slotOf(timer.deadlineTick, level);
+        List<Timer> bucket = slots[level][slot];
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            slots[level][slot] = bucket;
+        }
+        bucket.add(timer);
+        size++;
+    }
+
+    private List<Timer> take(int level, int slot) {
+        List<Timer> bucket = slots[level][slot];
+        if (bucket != null) {
+            slots[level][slot] = null;
+            size -= bucket.size();
+        }
+        return bucket;
+    }
+
+    private void fire(Timer timer) {
+        try {
+            onDue.accept(timer.messageId);
+        } catch (RuntimeException e) {
+            System.err.println("触发消息重试失败: " + timer.messageId + ", " + e.getMessage());
+        }
+    }
+
+    private static int slotOf(long tick, int level) {
+        return (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+    }
+
+    private static class Timer {
+        final String messageId;
+        final long deadlineTick;
+
+        Timer(String messageId, long deadlineTick) {
+            this.messageId = messageId;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.example.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步TCC接口定义，各阶段自行管理本地事务句柄，结果以CompletableFuture返回
+ */
+public interface AsyncTccAction {
+    /**
+     * 尝试执行
+     */
+    CompletableFuture<Boolean> tryActionAsync(String txId, Object... args);
+
+    /**
+     * 确认执行
+     */
+    CompletableFuture<Boolean> confirmActionAsync(String txId);
+
+    /**
+     * 取消执行
+     */
+    CompletableFuture<Boolean> cancelActionAsync(String txId);
+}
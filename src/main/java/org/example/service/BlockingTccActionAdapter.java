@@ -0,0 +1,53 @@
+package org.example.service;
+
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * 把阻塞的TccAction适配为AsyncTccAction，每次调用在执行器上用独立的本地事务句柄执行
+ */
+public class BlockingTccActionAdapter implements AsyncTccAction {
+    private final TccAction action;
+    private final StorageEngine storage;
+    private final Executor executor;
+
+    public BlockingTccActionAdapter(TccAction action, StorageEngine storage, Executor executor) {
+        this.action = action;
+        this.storage = storage;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> tryActionAsync(String txId, Object... args) {
+        return supply(conn -> action.tryAction(conn, txId, args));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> confirmActionAsync(String txId) {
+        return supply(conn -> action.confirmAction(conn, txId));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> cancelActionAsync(String txId) {
+        return supply(conn -> action.cancelAction(conn, txId));
+    }
+
+    private interface Call {
+        boolean call(Connection conn) throws SQLException;
+    }
+
+    private CompletableFuture<Boolean> supply(Call call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection conn = storage.openConnection()) {
+                return call.call(conn);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,331 @@
+package org.example.service;
+
+import org.example.storage.StorageEngine;
+import org.example.util.IdGenerator;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 余额租约管理器，让本节点在内存中批准高频用户的预扣
+ *
+ * 节点用一次数据库更新从用户余额中划出一段额度（租约），写入balance_lease表；
+ * 之后该用户的预扣先在内存中从租约额度扣除，再在本地事务中插入带lease_id的预扣记录，
+ * 不再读写user_account。租约到期或额度用完时归还：以排他锁锁定租约行，
+ * 租约金额减去仍处于HOLD/CONFIRMED的租约预扣总额，剩余部分退回账户。
+ *
+ * 一致性由租约行上的锁保证：预扣事务以共享锁确认租约仍有效，
+ * 归还事务以排他锁等待进行中的预扣提交后再汇总，已归还的租约上不会再插入预扣。
+ * 取消租约预扣时，租约仍有效则金额回到租约（归还时自然不计入），否则直接退回账户。
+ * 节点崩溃后其租约由任意节点在过期一段时间后回收（状态RECLAIMED），回收逻辑与归还相同。
+ */
+public class BudgetLeaseManager {
+    public static final double DEFAULT_LEASE_AMOUNT = 100.0;
+    public static final long DEFAULT_LEASE_MILLIS = 60_000;
+    public static final long DEFAULT_SAFETY_MILLIS = 5_000;
+    public static final long DEFAULT_RECLAIM_GRACE_MILLIS = 30_000;
+
+    /**
+     * 租约预扣的处理结果
+     */
+    public enum Outcome {
+        /** 已从租约中冻结金额 */
+        ACCEPTED,
+        /** 同一事务的Try已由其他执行完成 */
+        DUPLICATE,
+        /** 未使用租约，调用方按逐笔预扣执行 */
+        FALLBACK
+    }
+
+    private final StorageEngine storage;
+    private final IdempotencyStore idempotency;
+    private final long nodeId;
+    private final Set<String> leasedAccounts = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Lease> leasesByUser = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Lease> leasesById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> userLocks = new ConcurrentHashMap<>();
+    private volatile double leaseAmount = DEFAULT_LEASE_AMOUNT;
+    private volatile long leaseMillis = DEFAULT_LEASE_MILLIS;
+    private volatile long safetyMillis = DEFAULT_SAFETY_MILLIS;
+    private volatile long reclaimGraceMillis = DEFAULT_RECLAIM_GRACE_MILLIS;
+
+    public BudgetLeaseManager(StorageEngine storage, IdempotencyStore idempotency) {
+        this.storage = storage;
+        this.idempotency = idempotency;
+        this.nodeId = IdGenerator.getDefault().getNodeId();
+    }
+
+    public void addLeasedAccount(String userId) {
+        leasedAccounts.add(userId);
+    }
+
+    public boolean isLeasedAccount(String userId) {
+        return leasedAccounts.contains(userId);
+    }
+
+    /**
+     * 设置每次从账户划出的租约额度
+     */
+    public void setLeaseAmount(double leaseAmount) {
+        this.leaseAmount = leaseAmount;
+    }
+
+    /**
+     * 设置租约有效期（毫秒）
+     */
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * 设置到期前停止使用租约的提前量（毫秒），避免预扣事务与回收竞争
+     */
+    public void setSafetyMillis(long safetyMillis) {
+        this.safetyMillis = safetyMillis;
+    }
+
+    /**
+     * 设置回收其他节点过期租约前的宽限时间（毫秒）
+     */
+    public void setReclaimGraceMillis(long reclaimGraceMillis) {
+        this.reclaimGraceMillis = reclaimGraceMillis;
+    }
+
+    /**
+     * 从租约中冻结一笔预扣，成功时预扣记录、日志和幂等键已在conn上提交
+     */
+    public Outcome hold(Connection conn, String txId, String userId, double amount) {
+        if (!leasedAccounts.contains(userId) || storage.inFusedPhase(conn)) {
+            return Outcome.FALLBACK;
+        }
+        long cents = toCents(amount);
+        Lease lease;
+        try {
+            lease = reserve(conn, userId, cents);
+        } catch (SQLException e) {
+            System.err.println("获取余额租约失败: " + userId + ", " + e.getMessage());
+            return Outcome.FALLBACK;
+        }
+        if (lease == null) {
+            return Outcome.FALLBACK;
+        }
+
+        try {
+            storage.begin(conn);
+            if (!storage.isLeaseActive(conn, lease.leaseId)) {
+                // 租约已被回收（例如本节点长时间停顿），放弃这个租约
+                storage.rollback(conn);
+                forget(lease);
+                return Outcome.FALLBACK;
+            }
+            if (!idempotency.register(conn, txId, "TRY")) {
+                storage.rollback(conn);
+                lease.restore(cents);
+                return Outcome.DUPLICATE;
+            }
+            storage.insertHold(conn, txId, userId, amount, "HOLD", lease.leaseId);
+            storage.insertPaymentLog(conn, txId, userId, amount, "TRY", "SUCCESS", "租约预扣 " + lease.leaseId);
+            storage.commit(conn);
+            return Outcome.ACCEPTED;
+        } catch (SQLException | RuntimeException e) {
+            rollbackQuietly(conn);
+            lease.restore(cents);
+            System.err.println("租约预扣失败，退回逐笔预扣: " + txId + ", " + e.getMessage());
+            return Outcome.FALLBACK;
+        }
+    }
+
+    /**
+     * 取消租约预扣时调用，在conn的本地事务中锁定租约：
+     * 租约仍有效时金额回到租约并返回true，租约已归还或回收时返回false，调用方把金额退回账户
+     */
+    public boolean returnHold(Connection conn, String leaseId, double amount) throws SQLException {
+        Map<String, Object> row = storage.lockLease(conn, leaseId);
+        if (row == null || !"ACTIVE".equals(row.get("status"))) {
+            return false;
+        }
+        Lease lease = leasesById.get(leaseId);
+        if (lease != null) {
+            long cents = toCents(amount);
+            storage.afterCommit(conn, () -> lease.restore(cents));
+        }
+        return true;
+    }
+
+    /**
+     * 归还本节点到期的租约，并回收其他节点过期超过宽限时间的租约，由定时任务调用
+     */
+    public int reclaimExpired(Connection conn) throws SQLException {
+        long now = System.currentTimeMillis();
+        int closed = 0;
+        for (Lease lease : new ArrayList<>(leasesById.values())) {
+            if (now >= lease.expireAt - safetyMillis && retire(conn, lease, "RELEASED")) {
+                closed++;
+            }
+        }
+        List<String> expired = storage.findExpiredLeaseIds(conn, new Timestamp(now - reclaimGraceMillis));
+        for (String leaseId : expired) {
+            Lease local = leasesById.get(leaseId);
+            if (local != null) {
+                forget(local);
+            }
+            if (close(conn, leaseId, "RECLAIMED")) {
+                System.out.println("已回收过期余额租约: " + leaseId);
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * 归还本节点持有的全部租约，节点停止前调用
+     */
+    public void releaseAll() {
+        if (leasesById.isEmpty()) {
+            return;
+        }
+        try (Connection conn = storage.openConnection()) {
+            for (Lease lease : new ArrayList<>(leasesById.values())) {
+                retire(conn, lease, "RELEASED");
+            }
+        } catch (SQLException e) {
+            System.err.println("归还余额租约失败，等待过期回收: " + e.getMessage());
+        }
+    }
+
+    // ==================== 租约生命周期 ====================
+
+    // 从当前租约预留额度，不够时归还旧租约并申请新租约；账户余额不足以划出租约时返回null
+    private Lease reserve(Connection conn, String userId, long cents) throws SQLException {
+        Lease lease = leasesByUser.get(userId);
+        if (lease != null && lease.tryReserve(cents, System.currentTimeMillis(), safetyMillis)) {
+            return lease;
+        }
+        synchronized (userLocks.computeIfAbsent(userId, k -> new Object())) {
+            lease = leasesByUser.get(userId);
+            if (lease != null && lease.tryReserve(cents, System.currentTimeMillis(), safetyMillis)) {
+                return lease;
+            }
+            if (lease != null) {
+                retire(conn, lease, "RELEASED");
+            }
+            Lease fresh = acquire(conn, userId, Math.max(toCents(leaseAmount), cents));
+            if (fresh == null || !fresh.tryReserve(cents, System.currentTimeMillis(), safetyMillis)) {
+                return null;
+            }
+            return fresh;
+        }
+    }
+
+    private Lease acquire(Connection conn, String userId, long cents) throws SQLException {
+        String leaseId = IdGenerator.getDefault().nextIdString("LEASE_");
+        long expireAt = System.currentTimeMillis() + leaseMillis;
+        double amount = cents / 100.0;
+        storage.begin(conn);
+        try {
+            if (!storage.deductBalanceIfSufficient(conn, userId, amount)) {
+                storage.rollback(conn);
+                return null;
+            }
+            storage.insertLease(conn, leaseId, userId, nodeId, amount, new Timestamp(expireAt));
+            storage.commit(conn);
+        } catch (SQLException | RuntimeException e) {
+            rollbackQuietly(conn);
+            throw e;
+        }
+        Lease lease = new Lease(leaseId, userId, cents, expireAt);
+        leasesById.put(leaseId, lease);
+        leasesByUser.put(userId, lease);
+        return lease;
+    }
+
+    // 停止使用本地租约并在数据库中归还
+    private boolean retire(Connection conn, Lease lease, String status) throws SQLException {
+        forget(lease);
+        return close(conn, lease.leaseId, status);
+    }
+
+    private void forget(Lease lease) {
+        lease.close();
+        leasesByUser.remove(lease.userId, lease);
+        leasesById.remove(lease.leaseId, lease);
+    }
+
+    // 锁定租约，未被租约预扣占用的金额退回账户，返回是否由本次关闭
+    private boolean close(Connection conn, String leaseId, String status) throws SQLException {
+        storage.begin(conn);
+        try {
+            Map<String, Object> row = storage.lockLease(conn, leaseId);
+            if (row == null || !"ACTIVE".equals(row.get("status"))) {
+                storage.rollback(conn);
+                return false;
+            }
+            String userId = (String) row.get("user_id");
+            long unused = toCents((double) row.get("amount")) - toCents(storage.sumLeasedHolds(conn, leaseId));
+            double returned = Math.max(0, unused) / 100.0;
+            if (returned > 0 && !storage.refundBalance(conn, userId, returned)) {
+                throw new SQLException("退还租约余额失败: " + leaseId);
+            }
+            if (!storage.closeLease(conn, leaseId, status, returned)) {
+                throw new SQLException("关闭租约失败: " + leaseId);
+            }
+            storage.commit(conn);
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            rollbackQuietly(conn);
+            throw e;
+        }
+    }
+
+    private void rollbackQuietly(Connection conn) {
+        try {
+            storage.rollback(conn);
+        } catch (SQLException e) {
+            System.err.println("回滚失败: " + e.getMessage());
+        }
+    }
+
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    // 本节点持有的一个租约，额度以分为单位
+    private static class Lease {
+        final String leaseId;
+        final String userId;
+        final long expireAt;
+        private long remaining;
+        private boolean closed;
+
+        Lease(String leaseId, String userId, long cents, long expireAt) {
+            this.leaseId = leaseId;
+            this.userId = userId;
+            this.remaining = cents;
+            this.expireAt = expireAt;
+        }
+
+        synchronized boolean tryReserve(long cents, long now, long safetyMillis) {
+            if (closed || now >= expireAt - safetyMillis || remaining < cents) {
+                return false;
+            }
+            remaining -= cents;
+            return true;
+        }
+
+        synchronized void restore(long cents) {
+            if (!closed) {
+                remaining += cents;
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+    }
+}
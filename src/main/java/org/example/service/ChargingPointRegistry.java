@@ -0,0 +1,104 @@
+package org.example.service;
+
+import org.example.model.ChargingOrder;
+import org.example.model.ChargingPointStatus;
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 充电桩占用登记，在内存中拒绝同一充电桩上的重复开始
+ *
+ * 每个充电桩最多登记一个INIT/IN_PROGRESS的会话，登记和释放都是一次并发哈希表操作，不访问数据库。
+ * 充电Try插入订单前登记，Try失败时立即释放；Confirm/Cancel在本地事务提交后释放。
+ * 启动时从charging_order中未结束的订单重建。登记只覆盖本节点处理的会话，
+ * 多节点部署时同一充电桩的会话需要路由到同一节点。
+ *
+ * 占用状态是不可变对象，快照只复制引用，可以直接提供给运营看板。
+ */
+public class ChargingPointRegistry {
+    private final StorageEngine storage;
+    private final ConcurrentHashMap<String, ChargingPointStatus> points = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> pointsByTx = new ConcurrentHashMap<>();
+
+    public ChargingPointRegistry(StorageEngine storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * 从数据库中未结束的订单重建登记，返回登记的充电桩数
+     */
+    public int rebuild(Connection conn) throws SQLException {
+        points.clear();
+        pointsByTx.clear();
+        long now = System.currentTimeMillis();
+        for (ChargingOrder order : storage.findActiveOrders(conn)) {
+            ChargingPointStatus status = new ChargingPointStatus(order.getChargingPointId(), order.getTxId(),
+                                                                 order.getUserId(), order.getStatus(), now);
+            ChargingPointStatus existing = points.putIfAbsent(order.getChargingPointId(), status);
+            if (existing == null) {
+                pointsByTx.put(order.getTxId(), order.getChargingPointId());
+            } else {
+                System.err.println("充电桩存在多个未结束的订单: " + order.getChargingPointId() + ", "
+                                   + existing.getTxId() + ", " + order.getTxId());
+            }
+        }
+        return points.size();
+    }
+
+    /**
+     * 为事务登记充电桩，已被其他事务占用时返回false；同一事务重复登记返回true
+     */
+    public boolean occupy(String chargingPointId, String txId, String userId) {
+        ChargingPointStatus status =
+            new ChargingPointStatus(chargingPointId, txId, userId, "INIT", System.currentTimeMillis());
+        ChargingPointStatus existing = points.putIfAbsent(chargingPointId, status);
+        if (existing == null) {
+            pointsByTx.put(txId, chargingPointId);
+            return true;
+        }
+        return existing.getTxId().equals(txId);
+    }
+
+    /**
+     * 事务的充电已开始
+     */
+    public void markInProgress(String txId) {
+        String chargingPointId = pointsByTx.get(txId);
+        if (chargingPointId == null) {
+            return;
+        }
+        points.computeIfPresent(chargingPointId, (id, status) -> status.getTxId().equals(txId)
+            ? new ChargingPointStatus(id, txId, status.getUserId(), "IN_PROGRESS", System.currentTimeMillis())
+            : status);
+    }
+
+    /**
+     * 释放事务占用的充电桩，事务没有登记时不做任何事
+     */
+    public void release(String txId) {
+        String chargingPointId = pointsByTx.remove(txId);
+        if (chargingPointId != null) {
+            points.computeIfPresent(chargingPointId, (id, status) -> status.getTxId().equals(txId) ? null : status);
+        }
+    }
+
+    /**
+     * 查询充电桩的占用状态，空闲时返回null
+     */
+    public ChargingPointStatus getStatus(String chargingPointId) {
+        return points.get(chargingPointId);
+    }
+
+    /**
+     * 所有被占用充电桩的状态快照
+     */
+    public Map<String, ChargingPointStatus> snapshot() {
+        return Collections.unmodifiableMap(new HashMap<>(points));
+    }
+}
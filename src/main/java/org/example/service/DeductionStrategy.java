@@ -0,0 +1,23 @@
+package org.example.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 预扣时从账户余额扣减金额的策略
+ *
+ * 扣减在调用方已开启的本地事务中执行，余额不足或用户不存在时返回false且不修改余额，
+ * 调用方据此回滚或记录失败。
+ */
+public interface DeductionStrategy {
+
+    /**
+     * 策略名称，用于日志和压测输出
+     */
+    String getName();
+
+    /**
+     * 余额足够时扣减amount并返回true
+     */
+    boolean deduct(Connection conn, String userId, double amount) throws SQLException;
+}
@@ -0,0 +1,218 @@
+package org.example.service;
+
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 热点账户的预扣合并器
+ *
+ * 车队、企业账户会同时发起大量充电会话，逐笔预扣都要更新同一行账户余额，在行锁上串行。
+ * 合并器把同一热点账户上短时间内到达的预扣请求收集成一批：第一个到达的请求作为领队，
+ * 等待合并窗口（或批次满）后在自己的连接上开启一个本地事务，读取一次余额，
+ * 按到达顺序依次接受余额够用的请求，用一条带余额条件的UPDATE扣减接受部分的总额，
+ * 批量插入预扣记录并登记幂等键，一次提交；其余请求阻塞等待领队给出各自的结果。
+ *
+ * 批次执行失败（例如余额被非合并路径并发修改导致条件更新未命中）时整批回滚，
+ * 每个请求退回逐笔预扣。合并阶段内的连接不参与合并，避免领队的阶段结果牵连其他会话。
+ */
+public class HoldCoalescer {
+    public static final long DEFAULT_WINDOW_MICROS = 2000;
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /**
+     * 单个预扣请求的处理结果
+     */
+    public enum Outcome {
+        /** 已冻结金额 */
+        ACCEPTED,
+        /** 余额不足或用户不存在 */
+        REJECTED,
+        /** 同一事务的Try已由其他执行完成 */
+        DUPLICATE,
+        /** 未合并处理，调用方按逐笔预扣执行 */
+        FALLBACK
+    }
+
+    private final StorageEngine storage;
+    private final IdempotencyStore idempotency;
+    private final Set<String> hotAccounts = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Batch> openBatches = new ConcurrentHashMap<>();
+    private volatile long windowMicros = DEFAULT_WINDOW_MICROS;
+    private volatile int maxBatch = DEFAULT_MAX_BATCH;
+
+    public HoldCoalescer(StorageEngine storage, IdempotencyStore idempotency) {
+        this.storage = storage;
+        this.idempotency = idempotency;
+    }
+
+    public void addHotAccount(String userId) {
+        hotAccounts.add(userId);
+    }
+
+    public void removeHotAccount(String userId) {
+        hotAccounts.remove(userId);
+    }
+
+    public boolean isHotAccount(String userId) {
+        return hotAccounts.contains(userId);
+    }
+
+    /**
+     * 设置合并窗口（微秒），领队最多等待这么久收集同账户的请求
+     */
+    public void setWindowMicros(long windowMicros) {
+        this.windowMicros = windowMicros;
+    }
+
+    /**
+     * 设置单批最多合并的请求数，达到后领队立即执行
+     */
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * 提交一笔预扣请求，阻塞到所在批次执行完毕
+     *
+     * @param conn 调用方的本地事务句柄，成为领队时用于执行整批
+     */
+    public Outcome hold(Connection conn, String txId, String userId, double amount) {
+        if (!hotAccounts.contains(userId) || storage.inFusedPhase(conn)) {
+            return Outcome.FALLBACK;
+        }
+
+        Request request = new Request(txId, amount);
+        while (true) {
+            Batch created = new Batch();
+            Batch batch = openBatches.putIfAbsent(userId, created);
+            if (batch == null) {
+                created.add(request);
+                lead(conn, userId, created);
+                return request.result.join();
+            }
+            if (batch.add(request)) {
+                return request.result.join();
+            }
+            // 批次已关闭，重新加入或成为下一批的领队
+        }
+    }
+
+    // 领队：等待窗口结束后关闭批次并执行
+    private void lead(Connection conn, String userId, Batch batch) {
+        List<Request> requests;
+        try {
+            requests = batch.awaitAndClose(windowMicros, maxBatch);
+        } finally {
+            openBatches.remove(userId, batch);
+        }
+
+        try {
+            if (requests.size() == 1) {
+                // 窗口内没有其他请求，逐笔预扣的路径更短
+                requests.get(0).result.complete(Outcome.FALLBACK);
+                return;
+            }
+            execute(conn, userId, requests);
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("热点账户合并预扣失败，退回逐笔预扣: " + userId + ", " + e.getMessage());
+        } finally {
+            for (Request request : requests) {
+                request.result.complete(Outcome.FALLBACK);
+            }
+        }
+    }
+
+    private void execute(Connection conn, String userId, List<Request> requests) throws SQLException {
+        storage.begin(conn);
+        Map<Request, Outcome> outcomes = new LinkedHashMap<>();
+        Map<String, Double> accepted = new LinkedHashMap<>();
+        try {
+            Double balance = storage.getBalance(conn, userId);
+            double remaining = balance == null ? 0 : balance;
+            double total = 0;
+            for (Request request : requests) {
+                if (balance == null || request.amount > remaining) {
+                    outcomes.put(request, Outcome.REJECTED);
+                    continue;
+                }
+                if (!idempotency.register(conn, request.txId, "TRY")) {
+                    outcomes.put(request, Outcome.DUPLICATE);
+                    continue;
+                }
+                remaining -= request.amount;
+                total += request.amount;
+                accepted.put(request.txId, request.amount);
+                outcomes.put(request, Outcome.ACCEPTED);
+            }
+
+            if (!accepted.isEmpty()) {
+                if (!storage.deductBalanceIfSufficient(conn, userId, total)) {
+                    throw new SQLException("余额已被并发修改");
+                }
+                storage.insertHolds(conn, userId, accepted, "HOLD");
+                for (Map.Entry<String, Double> entry : accepted.entrySet()) {
+                    storage.insertPaymentLog(conn, entry.getKey(), userId, entry.getValue(), "TRY", "SUCCESS",
+                                             "合并预扣");
+                }
+            }
+            storage.commit(conn);
+        } catch (SQLException | RuntimeException e) {
+            storage.rollback(conn);
+            throw e;
+        }
+
+        for (Map.Entry<Request, Outcome> entry : outcomes.entrySet()) {
+            entry.getKey().result.complete(entry.getValue());
+        }
+    }
+
+    private static class Request {
+        final String txId;
+        final double amount;
+        final CompletableFuture<Outcome> result = new CompletableFuture<>();
+
+        Request(String txId, double amount) {
+            this.txId = txId;
+            this.amount = amount;
+        }
+    }
+
+    private static class Batch {
+        private final List<Request> requests = new ArrayList<>();
+        private boolean closed;
+
+        synchronized boolean add(Request request) {
+            if (closed) {
+                return false;
+            }
+            requests.add(request);
+            notifyAll();
+            return true;
+        }
+
+        synchronized List<Request> awaitAndClose(long windowMicros, int maxBatch) {
+            long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(windowMicros);
+            long remaining;
+            while (requests.size() < maxBatch && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+            return requests;
+        }
+    }
+}
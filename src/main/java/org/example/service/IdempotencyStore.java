@@ -0,0 +1,114 @@
+package org.example.service;
+
+import org.example.storage.StorageEngine;
+import org.example.util.BloomFilter;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 参与方操作的幂等键存储
+ *
+ * 幂等键(tx_id, participant, action)在操作成功的本地事务中写入idempotency_key表，
+ * 主键保证同一操作在多个节点、多次重启之间只会成功一次。
+ *
+ * 本节点提交过的幂等键同时写入布隆过滤器和LRU缓存：
+ * 过滤器判定不存在时跳过数据库检查，首次执行的操作不需要查询；
+ * 缓存命中时直接判定已处理；其余情况查询数据库。
+ * 过滤器只覆盖本节点本次运行写入的键，其他节点或重启前写入的键由两道保护兜底：
+ * 重复执行到提交前登记幂等键时主键冲突；操作失败时recheck再查一次数据库。
+ * 合并阶段内参与方的回滚会撤销整个阶段，无法事后补救，此时总是查询数据库。
+ */
+public class IdempotencyStore {
+    public static final int DEFAULT_CACHE_SIZE = 100_000;
+    public static final long DEFAULT_EXPECTED_KEYS = 2_000_000L;
+
+    private final StorageEngine storage;
+    private final String participant;
+    private final BloomFilter filter;
+    private final Map<String, Boolean> cache;
+
+    public IdempotencyStore(StorageEngine storage, String participant) {
+        this(storage, participant, DEFAULT_CACHE_SIZE, DEFAULT_EXPECTED_KEYS);
+    }
+
+    public IdempotencyStore(StorageEngine storage, String participant, int cacheSize, long expectedKeys) {
+        this.storage = storage;
+        this.participant = participant;
+        this.filter = new BloomFilter(expectedKeys, 0.01);
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * 操作是否已处理，执行操作前调用
+     */
+    public boolean isProcessed(Connection conn, String txId, String action) throws SQLException {
+        String key = key(txId, action);
+        if (!storage.inFusedPhase(conn) && !filter.mightContain(key)) {
+            return false;
+        }
+        return isRecorded(conn, key, txId, action);
+    }
+
+    /**
+     * 操作失败后复查是否已由其他节点或重启前的执行完成，已完成时调用方按成功处理
+     */
+    public boolean recheck(Connection conn, String txId, String action) throws SQLException {
+        if (storage.inFusedPhase(conn)) {
+            // 执行前已经查过数据库
+            return false;
+        }
+        return isRecorded(conn, key(txId, action), txId, action);
+    }
+
+    /**
+     * 在当前本地事务中登记幂等键，提交后写入过滤器和缓存；已被其他事务登记时返回false
+     */
+    public boolean register(Connection conn, String txId, String action) throws SQLException {
+        if (!storage.insertIdempotencyKey(conn, txId, participant, action)) {
+            return false;
+        }
+        String key = key(txId, action);
+        storage.afterCommit(conn, () -> remember(key));
+        return true;
+    }
+
+    private boolean isRecorded(Connection conn, String key, String txId, String action) throws SQLException {
+        if (cache.containsKey(key)) {
+            return true;
+        }
+        if (storage.hasIdempotencyKey(conn, txId, participant, action)) {
+            remember(key);
+            return true;
+        }
+        return false;
+    }
+
+    private void remember(String key) {
+        if (filter.isSaturated()) {
+            // 清空后只保留缓存中的键，其余键之后的检查会多查一次数据库，不影响正确性
+            synchronized (cache) {
+                if (filter.isSaturated()) {
+                    filter.clear();
+                    for (String cached : cache.keySet()) {
+                        filter.put(cached);
+                    }
+                }
+            }
+        }
+        filter.put(key);
+        cache.put(key, Boolean.TRUE);
+    }
+
+    private static String key(String txId, String action) {
+        return txId + "|" + action;
+    }
+}
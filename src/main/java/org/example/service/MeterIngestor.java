@@ -0,0 +1,489 @@
+package org.example.service;
+
+import org.example.model.ChargingOrder;
+import org.example.model.MeterCheckpoint;
+import org.example.model.MeterReading;
+import org.example.model.PaymentHold;
+import org.example.storage.OrderView;
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 充电中会话的电表读数接入
+ *
+ * 充电桩每隔几秒上报一次累计电量和功率。读数按事务ID散列到固定分片，每个分片由一个线程独占处理，
+ * 会话的累计电量和费用只在所属分片线程内读写，处理读数不加锁、不访问数据库。
+ * 会话第一次收到读数时从数据库加载：订单须处于IN_PROGRESS，预算取payment_pre_hold中HOLD状态的金额，
+ * 已有检查点时从检查点的电量和费用继续累计（检查点之后、重启之前的电量会丢失，最多一个检查点周期）。
+ *
+ * 分片线程按检查点周期把有变化的会话快照交给检查点线程，由它批量写回charging_order，
+ * 写入失败时保留最新快照下次重试。按当前功率预计下一个上报间隔的费用会超出预算时自动停止会话，
+ * 停止检查点立即写入，写入成功后通知停止监听器（例如下发停充指令或发起TCC确认）。
+ */
+public class MeterIngestor {
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+    public static final double DEFAULT_PRICE_PER_KWH = 1.2;
+    public static final long DEFAULT_CHECKPOINT_MILLIS = 5_000;
+    public static final long DEFAULT_IDLE_MILLIS = 600_000;
+    private static final int DRAIN_BATCH = 1024;
+    private static final long MISS_RETRY_MILLIS = 10_000;
+    private static final long MAX_POLL_MILLIS = 200; // 限制阻塞时间，停止时尽快退出
+
+    private final StorageEngine storage;
+    private final BlockingQueue<List<MeterCheckpoint>> checkpointQueue = new LinkedBlockingQueue<>();
+    private final LongAdder acceptedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder ignoredCount = new LongAdder();
+    private final LongAdder stoppedCount = new LongAdder();
+    private final LongAdder checkpointCount = new LongAdder();
+    private int shardCount = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private volatile double pricePerKwh = DEFAULT_PRICE_PER_KWH;
+    private volatile long checkpointMillis = DEFAULT_CHECKPOINT_MILLIS;
+    private volatile long idleMillis = DEFAULT_IDLE_MILLIS;
+    private volatile Consumer<MeterCheckpoint> stopListener =
+        checkpoint -> System.err.println("预扣金额已用完但未设置停止监听器，订单仍在充电中: " + checkpoint.getOrderId());
+    private volatile boolean running;
+    private Shard[] shards;
+    private Thread checkpointer;
+
+    public MeterIngestor(StorageEngine storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * 设置分片数，默认等于CPU核数，需在start之前调用
+     */
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * 设置每个分片的读数队列容量，队列满时新读数被丢弃，需在start之前调用
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * 设置电价（元/千瓦时）
+     */
+    public void setPricePerKwh(double pricePerKwh) {
+        this.pricePerKwh = pricePerKwh;
+    }
+
+    /**
+     * 设置检查点周期（毫秒）
+     */
+    public void setCheckpointMillis(long checkpointMillis) {
+        this.checkpointMillis = checkpointMillis;
+    }
+
+    /**
+     * 设置会话空闲多久（毫秒）后从内存移除
+     */
+    public void setIdleMillis(long idleMillis) {
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * 设置自动停止监听器，在检查点线程上调用，停止检查点已写入数据库
+     *
+     * 接入器只在内存中停止计量，订单状态和TCC事务不变，必须由监听器真正结束会话
+     * （例如提交TCC事务完成订单，并下发停充指令）；未设置时只打印错误日志。
+     * 监听器应尽快返回，耗时操作会推迟后续检查点的写入。
+     */
+    public void setStopListener(Consumer<MeterCheckpoint> stopListener) {
+        this.stopListener = stopListener;
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount.sum();
+    }
+
+    /**
+     * 因分片队列已满被丢弃的读数数量
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * 会话不存在、已停止或电量回退而被忽略的读数数量
+     */
+    public long getIgnoredCount() {
+        return ignoredCount.sum();
+    }
+
+    public long getStoppedCount() {
+        return stoppedCount.sum();
+    }
+
+    /**
+     * 已写入数据库的检查点数量
+     */
+    public long getCheckpointCount() {
+        return checkpointCount.sum();
+    }
+
+    /**
+     * 启动分片线程和检查点线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(queueCapacity);
+            shards[i].thread = new Thread(shards[i]::run, "meter-shard-" + i);
+            shards[i].thread.setDaemon(true);
+            shards[i].thread.start();
+        }
+        checkpointer = new Thread(this::runCheckpointer, "meter-checkpoint");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+        System.out.println("电表读数接入已启动，分片数: " + shardCount);
+    }
+
+    /**
+     * 停止接入：分片线程处理完队列中的读数并提交最后的检查点，检查点线程写完后退出
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            for (Shard shard : shards) {
+                shard.thread.join();
+            }
+            checkpointer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("电表读数接入已停止");
+    }
+
+    /**
+     * 提交一条读数（start之后调用），不阻塞；所属分片队列已满时丢弃并返回false
+     */
+    public boolean submit(MeterReading reading) {
+        if (shards[shardOf(reading.getTxId())].queue.offer(reading)) {
+            return true;
+        }
+        droppedCount.increment();
+        return false;
+    }
+
+    /**
+     * 会话结束（充电确认或取消）时调用，写入最后的检查点并从内存移除
+     */
+    public void finish(String txId) {
+        Shard[] current = shards;
+        if (current != null) {
+            current[shardOf(txId)].finished.add(txId);
+        }
+    }
+
+    private int shardOf(String txId) {
+        int h = txId.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % shards.length;
+    }
+
+    // ==================== 分片 ====================
+
+    private class Shard {
+        final BlockingQueue<MeterReading> queue;
+        final ConcurrentLinkedQueue<String> finished = new ConcurrentLinkedQueue<>();
+        final Map<String, Session> sessions = new HashMap<>();
+        final Map<String, Long> unknownUntil = new HashMap<>();
+        final List<Session> dirty = new ArrayList<>();
+        final List<MeterReading> batch = new ArrayList<>(DRAIN_BATCH);
+        Thread thread;
+
+        Shard(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void run() {
+            long nextCheckpoint = System.currentTimeMillis() + checkpointMillis;
+            while (running || !queue.isEmpty()) {
+                try {
+                    long wait = Math.max(1, Math.min(MAX_POLL_MILLIS, nextCheckpoint - System.currentTimeMillis()));
+                    MeterReading first = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch, DRAIN_BATCH - 1);
+                        for (MeterReading reading : batch) {
+                            accept(reading);
+                        }
+                        batch.clear();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (RuntimeException e) {
+                    batch.clear();
+                    System.err.println("处理电表读数失败: " + e.getMessage());
+                }
+                drainFinished();
+                long now = System.currentTimeMillis();
+                if (now >= nextCheckpoint) {
+                    checkpoint(now);
+                    nextCheckpoint = now + checkpointMillis;
+                }
+            }
+            drainFinished();
+            checkpoint(System.currentTimeMillis());
+        }
+
+        void accept(MeterReading reading) {
+            String txId = reading.getTxId();
+            Session session = sessions.get(txId);
+            if (session == null) {
+                session = load(txId);
+                if (session == null) {
+                    ignoredCount.increment();
+                    return;
+                }
+            }
+            session.lastSeen = System.currentTimeMillis();
+            if (session.stopped) {
+                ignoredCount.increment();
+                return;
+            }
+            if (session.lastEnergyWh < 0) {
+                // 新会话或从检查点恢复，第一条读数只作为电量基线
+                session.lastEnergyWh = reading.getEnergyWh();
+                session.lastTime = reading.getTimestamp();
+                acceptedCount.increment();
+                return;
+            }
+            long deltaWh = reading.getEnergyWh() - session.lastEnergyWh;
+            if (deltaWh < 0 || reading.getTimestamp() < session.lastTime) {
+                // 乱序或重复上报
+                ignoredCount.increment();
+                return;
+            }
+            long intervalMillis = reading.getTimestamp() - session.lastTime;
+            session.energyWh += deltaWh;
+            session.lastEnergyWh = reading.getEnergyWh();
+            session.lastTime = reading.getTimestamp();
+            markDirty(session);
+            acceptedCount.increment();
+
+            // 按当前功率预计下一个上报间隔的用电，超出预算前停止
+            double price = pricePerKwh;
+            double projectedWh = (double) reading.getPowerW() * intervalMillis / 3_600_000;
+            if (session.cost(price) + projectedWh / 1000 * price >= session.budget) {
+                session.stopped = true;
+                stoppedCount.increment();
+                List<MeterCheckpoint> urgent = new ArrayList<>(1);
+                urgent.add(session.snapshot(price));
+                session.dirty = false;
+                checkpointQueue.add(urgent);
+            }
+        }
+
+        // 从数据库加载会话，订单不在充电中或没有预扣时短时间内不再重复查询
+        Session load(String txId) {
+            long now = System.currentTimeMillis();
+            Long until = unknownUntil.get(txId);
+            if (until != null && until > now) {
+                return null;
+            }
+            try (Connection conn = storage.openConnection()) {
+                ChargingOrder order = storage.findOrderByTxId(conn, txId, OrderView.STATUS, "IN_PROGRESS");
+                PaymentHold hold = order == null ? null : storage.findHold(conn, txId, "HOLD");
+                MeterCheckpoint checkpoint = hold == null ? null : storage.findMeterCheckpoint(conn, txId);
+                if (checkpoint == null) {
+                    unknownUntil.put(txId, now + MISS_RETRY_MILLIS);
+                    return null;
+                }
+                unknownUntil.remove(txId);
+                Session session = new Session(txId, checkpoint.getOrderId(), hold.getAmount(), checkpoint);
+                sessions.put(txId, session);
+                return session;
+            } catch (SQLException e) {
+                System.err.println("加载充电会话失败: " + txId + ", " + e.getMessage());
+                return null;
+            }
+        }
+
+        void markDirty(Session session) {
+            if (!session.dirty) {
+                session.dirty = true;
+                dirty.add(session);
+            }
+        }
+
+        void drainFinished() {
+            String txId;
+            long until = System.currentTimeMillis() + idleMillis;
+            while ((txId = finished.poll()) != null) {
+                // 未写入的变化仍留在dirty中，随下一个检查点写入；结束后一个空闲周期内迟到的读数不再加载会话，
+                // 之后到期清理，再有读数时按订单状态判断
+                sessions.remove(txId);
+                unknownUntil.put(txId, until);
+            }
+        }
+
+        void checkpoint(long now) {
+            if (!dirty.isEmpty()) {
+                double price = pricePerKwh;
+                List<MeterCheckpoint> snapshots = new ArrayList<>(dirty.size());
+                for (Session session : dirty) {
+                    if (session.dirty) {
+                        snapshots.add(session.snapshot(price));
+                        session.dirty = false;
+                    }
+                }
+                dirty.clear();
+                if (!snapshots.isEmpty()) {
+                    checkpointQueue.add(snapshots);
+                }
+            }
+            Iterator<Session> sessionIt = sessions.values().iterator();
+            while (sessionIt.hasNext()) {
+                if (now - sessionIt.next().lastSeen > idleMillis) {
+                    sessionIt.remove();
+                }
+            }
+            unknownUntil.values().removeIf(until -> until <= now);
+        }
+    }
+
+    // 单个充电会话的累计状态，只由所属分片线程访问
+    private static class Session {
+        final String txId;
+        final String orderId;
+        final double budget;
+        final double baseEnergyKwh;
+        long energyWh;
+        long lastEnergyWh = -1;
+        long lastTime;
+        long lastSeen;
+        boolean stopped;
+        boolean dirty;
+
+        Session(String txId, String orderId, double budget, MeterCheckpoint checkpoint) {
+            this.txId = txId;
+            this.orderId = orderId;
+            this.budget = budget;
+            this.baseEnergyKwh = checkpoint.getEnergyKwh();
+            this.lastTime = checkpoint.getMeterTime();
+            this.stopped = checkpoint.isStopped();
+        }
+
+        double energyKwh() {
+            return baseEnergyKwh + energyWh / 1000.0;
+        }
+
+        double cost(double pricePerKwh) {
+            return energyKwh() * pricePerKwh;
+        }
+
+        MeterCheckpoint snapshot(double pricePerKwh) {
+            double amount = Math.min(budget, Math.round(cost(pricePerKwh) * 100) / 100.0);
+            return new MeterCheckpoint(txId, orderId, energyKwh(), amount, lastTime, stopped);
+        }
+    }
+
+    // ==================== 检查点线程 ====================
+
+    private void runCheckpointer() {
+        Map<String, MeterCheckpoint> pending = new LinkedHashMap<>();
+        while (true) {
+            try {
+                List<MeterCheckpoint> first = checkpointQueue.poll(MAX_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    collect(pending, first);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            List<List<MeterCheckpoint>> more = new ArrayList<>();
+            checkpointQueue.drainTo(more);
+            for (List<MeterCheckpoint> checkpoints : more) {
+                collect(pending, checkpoints);
+            }
+            boolean shardsDone = !running && shardsStopped();
+            if (!pending.isEmpty() && !save(pending) && !shardsDone) {
+                continue;
+            }
+            if (shardsDone && checkpointQueue.isEmpty()) {
+                if (!pending.isEmpty()) {
+                    System.err.println("停止时仍有 " + pending.size() + " 个计量检查点未写入");
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean shardsStopped() {
+        for (Shard shard : shards) {
+            if (shard.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 同一会话只保留最新的检查点，已停止的检查点不会被覆盖为未停止
+    private static void collect(Map<String, MeterCheckpoint> pending, List<MeterCheckpoint> checkpoints) {
+        for (MeterCheckpoint checkpoint : checkpoints) {
+            MeterCheckpoint previous = pending.get(checkpoint.getTxId());
+            if (previous == null || !previous.isStopped() || checkpoint.isStopped()) {
+                pending.put(checkpoint.getTxId(), checkpoint);
+            }
+        }
+    }
+
+    private boolean save(Map<String, MeterCheckpoint> pending) {
+        List<MeterCheckpoint> checkpoints = new ArrayList<>(pending.values());
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            try {
+                storage.saveMeterCheckpoints(conn, checkpoints);
+                storage.commit(conn);
+            } catch (SQLException | RuntimeException e) {
+                storage.rollback(conn);
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("写入计量检查点失败，稍后重试: " + e.getMessage());
+            return false;
+        }
+        pending.clear();
+        checkpointCount.add(checkpoints.size());
+        Consumer<MeterCheckpoint> listener = stopListener;
+        for (MeterCheckpoint checkpoint : checkpoints) {
+            if (checkpoint.isStopped()) {
+                try {
+                    listener.accept(checkpoint);
+                } catch (RuntimeException e) {
+                    System.err.println("停止监听器异常: " + checkpoint.getTxId() + ", " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+}
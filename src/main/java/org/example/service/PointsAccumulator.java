@@ -0,0 +1,298 @@
+package org.example.service;
+
+import org.example.model.PointsTransaction;
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 用户积分的延迟累加器
+ *
+ * 发放积分时只插入applied=0的积分交易记录（积分台账，持久化的唯一依据），提交后把增量记入内存；
+ * 后台线程定期把每个用户的增量合计成一行upsert写入user_points，并在同一个本地事务中
+ * 把对应交易记录标记为applied=1。因此任何时刻user_points加上applied=0的交易积分都等于用户总积分，
+ * 崩溃后由recover把applied=0的记录补记到user_points，结果与从台账重算一致。
+ * 写入时先锁定并标记仍为applied=0的交易，只把实际标记的交易计入，多个节点同时恢复同一批交易时不会重复计入。
+ *
+ * 用户按哈希分到固定数量的分段，每段一把锁保护待写增量和已写入值的缓存。
+ * 查询积分返回缓存的user_points加上写入中和待写的增量；缓存未命中时从数据库加载，
+ * 加载与该分段的写入互斥，读到的user_points不会包含一半的写入。
+ * 缓存只反映本节点的写入，其他节点的写入在缓存过期后可见。
+ */
+public class PointsAccumulator {
+    public static final int DEFAULT_STRIPES = 64;
+    public static final long DEFAULT_FLUSH_MILLIS = 1_000;
+    public static final long DEFAULT_CACHE_MILLIS = 60_000;
+    private static final int MAX_IDS_PER_STATEMENT = 1000;
+
+    private final StorageEngine storage;
+    private final Stripe[] stripes;
+    private volatile long flushMillis = DEFAULT_FLUSH_MILLIS;
+    private volatile long cacheMillis = DEFAULT_CACHE_MILLIS;
+    private volatile boolean running;
+    private Thread flusher;
+
+    public PointsAccumulator(StorageEngine storage) {
+        this(storage, DEFAULT_STRIPES);
+    }
+
+    public PointsAccumulator(StorageEngine storage, int stripeCount) {
+        this.storage = storage;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * 设置后台写入user_points的间隔（毫秒）
+     */
+    public void setFlushMillis(long flushMillis) {
+        this.flushMillis = flushMillis;
+    }
+
+    /**
+     * 设置已写入值的缓存有效期（毫秒），过期后重新从数据库加载
+     */
+    public void setCacheMillis(long cacheMillis) {
+        this.cacheMillis = cacheMillis;
+    }
+
+    /**
+     * 把台账中applied=0的积分补记到user_points，返回补记的交易数，其他节点已经补记的交易不计入；启动时在发放积分之前调用
+     */
+    public int recover(Connection conn) throws SQLException {
+        Map<String, Pending> byUser = new HashMap<>();
+        List<PointsTransaction> transactions = storage.findUnappliedPointsTransactions(conn);
+        for (PointsTransaction transaction : transactions) {
+            byUser.computeIfAbsent(transaction.getUserId(), k -> new Pending())
+                .add(transaction.getTransactionId(), transaction.getPoints());
+        }
+        if (byUser.isEmpty()) {
+            return 0;
+        }
+        Map<String, Pending> applied = apply(conn, byUser);
+        int count = 0;
+        for (Pending pending : applied.values()) {
+            count += pending.transactionIds.size();
+        }
+        System.out.println("已补记未写入的积分: " + count + " 笔, 涉及用户 " + applied.size() + " 个");
+        return count;
+    }
+
+    /**
+     * 启动后台写入线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::runFlusher, "points-accumulator");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 停止后台写入线程，并写入剩余的增量
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+
+    /**
+     * 记录一笔已提交的积分交易（applied=0），由发放积分的本地事务提交后调用
+     */
+    public void add(String userId, String transactionId, int points) {
+        Stripe stripe = stripeOf(userId);
+        synchronized (stripe) {
+            stripe.pending.computeIfAbsent(userId, k -> new Pending()).add(transactionId, points);
+        }
+    }
+
+    /**
+     * 查询用户当前积分：已写入的user_points加上写入中和待写的增量
+     */
+    public int getUserPoints(String userId) throws SQLException {
+        Stripe stripe = stripeOf(userId);
+        long now = System.currentTimeMillis();
+        synchronized (stripe) {
+            Cached cached = stripe.cache.get(userId);
+            if (cached != null && now - cached.loadTime < cacheMillis) {
+                return cached.total + deltaOf(stripe.inFlight, userId) + deltaOf(stripe.pending, userId);
+            }
+        }
+        // 持有写入锁时该分段没有写入中的增量，读到的user_points与缓存的含义一致
+        stripe.flushLock.lock();
+        try {
+            int stored;
+            try (Connection conn = storage.openConnection()) {
+                stored = storage.getUserPoints(conn, userId);
+            }
+            synchronized (stripe) {
+                stripe.cache.put(userId, new Cached(stored, now));
+                return stored + deltaOf(stripe.pending, userId);
+            }
+        } finally {
+            stripe.flushLock.unlock();
+        }
+    }
+
+    /**
+     * 立即写入所有分段的待写增量
+     */
+    public void flushAll() {
+        for (Stripe stripe : stripes) {
+            flush(stripe);
+        }
+    }
+
+    private void runFlusher() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushMillis));
+            flushAll();
+        }
+    }
+
+    private void flush(Stripe stripe) {
+        stripe.flushLock.lock();
+        try {
+            Map<String, Pending> batch;
+            synchronized (stripe) {
+                evictExpired(stripe);
+                if (stripe.pending.isEmpty()) {
+                    return;
+                }
+                batch = stripe.pending;
+                stripe.pending = new HashMap<>();
+                stripe.inFlight = batch;
+            }
+
+            Map<String, Pending> applied = null;
+            try (Connection conn = storage.openConnection()) {
+                applied = apply(conn, batch);
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("写入用户积分失败，稍后重试: " + e.getMessage());
+            }
+
+            synchronized (stripe) {
+                stripe.inFlight = Collections.emptyMap();
+                for (Map.Entry<String, Pending> entry : batch.entrySet()) {
+                    if (applied != null) {
+                        Cached cached = stripe.cache.get(entry.getKey());
+                        if (cached != null) {
+                            cached.total += deltaOf(applied, entry.getKey());
+                        }
+                    } else {
+                        stripe.pending.computeIfAbsent(entry.getKey(), k -> new Pending()).merge(entry.getValue());
+                    }
+                }
+            }
+        } finally {
+            stripe.flushLock.unlock();
+        }
+    }
+
+    // 一个本地事务：先锁定并标记还未计入的交易，再按用户ID顺序upsert这些交易的合计增量，返回实际计入的交易。
+    // 其他节点恢复时可能已经计入了同一批交易，这些交易不会再次计入
+    private Map<String, Pending> apply(Connection conn, Map<String, Pending> byUser) throws SQLException {
+        List<String> transactionIds = new ArrayList<>();
+        for (Pending pending : byUser.values()) {
+            transactionIds.addAll(pending.transactionIds);
+        }
+        // 各节点按相同顺序锁定交易记录，避免互相等待
+        Collections.sort(transactionIds);
+        Map<String, Pending> applied = new HashMap<>();
+        storage.begin(conn);
+        try {
+            for (int from = 0; from < transactionIds.size(); from += MAX_IDS_PER_STATEMENT) {
+                List<PointsTransaction> marked = storage.markPointsApplied(conn, transactionIds.subList(
+                    from, Math.min(from + MAX_IDS_PER_STATEMENT, transactionIds.size())));
+                for (PointsTransaction transaction : marked) {
+                    applied.computeIfAbsent(transaction.getUserId(), k -> new Pending())
+                        .add(transaction.getTransactionId(), transaction.getPoints());
+                }
+            }
+            Map<String, Integer> deltas = new TreeMap<>();
+            for (Map.Entry<String, Pending> entry : applied.entrySet()) {
+                deltas.put(entry.getKey(), entry.getValue().delta);
+            }
+            storage.addUserPoints(conn, deltas);
+            storage.commit(conn);
+        } catch (SQLException | RuntimeException e) {
+            storage.rollback(conn);
+            throw e;
+        }
+        return applied;
+    }
+
+    private void evictExpired(Stripe stripe) {
+        long now = System.currentTimeMillis();
+        stripe.cache.values().removeIf(cached -> now - cached.loadTime >= cacheMillis);
+    }
+
+    private Stripe stripeOf(String userId) {
+        int h = userId.hashCode();
+        return stripes[((h ^ (h >>> 16)) & 0x7fffffff) % stripes.length];
+    }
+
+    private static int deltaOf(Map<String, Pending> pending, String userId) {
+        Pending entry = pending.get(userId);
+        return entry == null ? 0 : entry.delta;
+    }
+
+    // 一个分段的状态，除flushLock外都由分段对象的监视器保护
+    private static class Stripe {
+        final ReentrantLock flushLock = new ReentrantLock();
+        final Map<String, Cached> cache = new HashMap<>();
+        Map<String, Pending> pending = new HashMap<>();
+        Map<String, Pending> inFlight = Collections.emptyMap();
+    }
+
+    // 用户待写入的增量和对应的交易ID
+    private static class Pending {
+        int delta;
+        final List<String> transactionIds = new ArrayList<>();
+
+        void add(String transactionId, int points) {
+            delta += points;
+            transactionIds.add(transactionId);
+        }
+
+        void merge(Pending other) {
+            delta += other.delta;
+            transactionIds.addAll(other.transactionIds);
+        }
+    }
+
+    // 已写入user_points的值
+    private static class Cached {
+        int total;
+        final long loadTime;
+
+        Cached(int total, long loadTime) {
+            this.total = total;
+            this.loadTime = loadTime;
+        }
+    }
+}
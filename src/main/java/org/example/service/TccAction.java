@@ -21,5 +21,12 @@ public interface TccAction {
      * 取消执行
      */
     boolean cancelAction(Connection conn, String txId) throws SQLException;
+
+    /**
+     * Try是否已经成功，协调者恢复时据此判断事务是否所有参与方都已Try；无法判断时返回true
+     */
+    default boolean isTried(Connection conn, String txId) throws SQLException {
+        return true;
+    }
 }
     
\ No newline at end of file
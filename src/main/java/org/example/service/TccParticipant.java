@@ -0,0 +1,21 @@
+package org.example.service;
+
+/**
+ * TCC参与方：参与方动作及其Try阶段参数
+ */
+public class TccParticipant {
+    private final TccAction action;
+    private final Object[] args;
+
+    public TccParticipant(TccAction action, Object... args) {
+        this.action = action;
+        this.args = args;
+    }
+
+    public static TccParticipant of(TccAction action, Object... args) {
+        return new TccParticipant(action, args);
+    }
+
+    public TccAction getAction() { return action; }
+    public Object[] getArgs() { return args; }
+}
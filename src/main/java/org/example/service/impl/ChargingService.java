@@ -1,7 +1,15 @@
 package org.example.service.impl;
 
 
+import org.example.model.ChargingOrder;
+import org.example.service.ChargingPointRegistry;
+import org.example.service.IdempotencyStore;
+import org.example.service.MeterIngestor;
 import org.example.service.TccAction;
+import org.example.storage.OrderView;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.IdGenerator;
 
 import java.sql.*;
 import java.util.*;
@@ -10,65 +18,112 @@ import java.util.*;
  * 充电服务 - 实现TCC接口
  */
 public class ChargingService implements TccAction {
+    protected final StorageEngine storage;
+    private final IdempotencyStore idempotency;
+    private volatile double failureRate = 0.3;
+    private volatile MeterIngestor meterIngestor;
+    private volatile ChargingPointRegistry pointRegistry;
+
+    public ChargingService() {
+        this(StorageEngines.getDefault());
+    }
+
+    public ChargingService(StorageEngine storage) {
+        this.storage = storage;
+        this.idempotency = new IdempotencyStore(storage, "CHARGING");
+    }
+
+    /**
+     * 设置模拟充电尝试的失败概率，默认0.3
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * 设置电表读数接入，充电确认或取消提交后结束对应的计量会话
+     */
+    public void setMeterIngestor(MeterIngestor meterIngestor) {
+        this.meterIngestor = meterIngestor;
+    }
+
+    /**
+     * 设置充电桩占用登记，Try前拒绝已被其他会话占用的充电桩
+     */
+    public void setPointRegistry(ChargingPointRegistry pointRegistry) {
+        this.pointRegistry = pointRegistry;
+    }
+
+    public ChargingPointRegistry getPointRegistry() {
+        return pointRegistry;
+    }
 
     @Override
     public boolean tryAction(Connection conn, String txId, Object... args) throws SQLException {
         String chargingPointId = (String) args[0];
         String userId = (String) args[1];
         double amount = (double) args[2];
-        
+
         // 幂等性检查
         if (isOperationProcessed(conn, txId, "TRY")) {
             System.out.println("充电Try操作已处理，幂等返回成功: " + txId);
             return true;
         }
 
-        conn.setAutoCommit(false);
+        // 充电桩已有未结束的会话时直接拒绝，不访问数据库
+        ChargingPointRegistry registry = pointRegistry;
+        if (registry != null && !registry.occupy(chargingPointId, txId, userId)) {
+            System.err.println("充电桩已被占用，拒绝开始充电: " + chargingPointId);
+            return false;
+        }
+
+        storage.begin(conn);
         boolean result = false;
-        
+
         try {
             // 创建充电订单
-            String orderId = UUID.randomUUID().toString();
-            String insertSql = "INSERT INTO charging_order (order_id, tx_id, charging_point_id, user_id, amount, status, create_time) " +
-                            "VALUES (?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmt = conn.prepareStatement(insertSql)) {
-                pstmt.setString(1, orderId);
-                pstmt.setString(2, txId);
-                pstmt.setString(3, chargingPointId);
-                pstmt.setString(4, userId);
-                pstmt.setDouble(5, amount);
-                pstmt.setString(6, "INIT");
-                pstmt.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
-                pstmt.executeUpdate();
-            }
+            String orderId = IdGenerator.getDefault().nextIdString();
+            storage.insertOrder(conn, orderId, txId, chargingPointId, userId, amount, "INIT");
 
             // 模拟充电尝试 - 随机失败以测试回滚逻辑
-            boolean success = Math.random() > 0.3; // 70%成功率
+            boolean success = Math.random() >= failureRate; // 默认70%成功率
+            if (!success && idempotency.recheck(conn, txId, "TRY")) {
+                storage.rollback(conn);
+                System.out.println("充电Try操作已处理，幂等返回成功: " + txId);
+                return true;
+            }
             String status = success ? "IN_PROGRESS" : "FAILED";
             String remark = success ? "充电开始" : "充电尝试失败";
 
             // 更新订单状态
-            String updateSql = "UPDATE charging_order SET status = ?, start_time = ? WHERE tx_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
-                pstmt.setString(1, status);
-                pstmt.setTimestamp(2, success ? new Timestamp(System.currentTimeMillis()) : null);
-                pstmt.setString(3, txId);
-                pstmt.executeUpdate();
-            }
+            storage.updateOrderStart(conn, txId, status, success ? new Timestamp(System.currentTimeMillis()) : null);
 
             // 记录日志
-            logChargingAction(conn, txId, orderId, chargingPointId, userId, amount, "TRY", 
+            logChargingAction(conn, txId, orderId, chargingPointId, userId, amount, "TRY",
                              success ? "SUCCESS" : "FAILED", remark);
-            
-            conn.commit();
+
+            if (success && !idempotency.register(conn, txId, "TRY")) {
+                throw new SQLException("幂等键冲突，操作已由其他事务完成");
+            }
+            if (success && registry != null) {
+                storage.afterCommit(conn, () -> registry.markInProgress(txId));
+            }
+            storage.commit(conn);
             result = success;
             System.out.println(remark + ": " + orderId);
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
+            if (idempotency.recheck(conn, txId, "TRY")) {
+                System.out.println("充电Try操作已处理，幂等返回成功: " + txId);
+                return true;
+            }
             logChargingAction(conn, txId, null, chargingPointId, userId, amount, "TRY", "FAILED", e.getMessage());
             System.err.println("充电Try操作失败: " + e.getMessage());
         }
-        
+
+        if (!result && registry != null) {
+            registry.release(txId);
+        }
         return result;
     }
 
@@ -80,51 +135,48 @@ public class ChargingService implements TccAction {
             return true;
         }
 
-        conn.setAutoCommit(false);
+        storage.begin(conn);
         boolean result = false;
-        
+
         try {
             // 查询充电订单
-            String selectSql = "SELECT * FROM charging_order WHERE tx_id = ? AND status = 'IN_PROGRESS'";
-            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
-                pstmt.setString(1, txId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (!rs.next()) {
-                        throw new SQLException("未找到有效的充电订单");
-                    }
-                    
-                    String orderId = rs.getString("order_id");
-                    String chargingPointId = rs.getString("charging_point_id");
-                    String userId = rs.getString("user_id");
-                    double amount = rs.getDouble("amount");
-                    
-                    // 更新订单状态为COMPLETED
-                    String updateSql = "UPDATE charging_order SET status = 'COMPLETED', end_time = ? WHERE tx_id = ?";
-                    try (PreparedStatement updatePstmt = conn.prepareStatement(updateSql)) {
-                        updatePstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-                        updatePstmt.setString(2, txId);
-                        int rowsAffected = updatePstmt.executeUpdate();
-                        if (rowsAffected != 1) {
-                            throw new SQLException("更新充电订单状态失败");
-                        }
-                    }
-                    
-                    // 记录日志
-                    logChargingAction(conn, txId, orderId, chargingPointId, userId, amount, 
-                                     "CONFIRM", "SUCCESS", "充电完成");
-                    
-                    conn.commit();
-                    result = true;
-                    System.out.println("确认充电成功: " + orderId);
-                }
+            ChargingOrder order = storage.findOrderByTxId(conn, txId, OrderView.PARTICIPANT, "IN_PROGRESS");
+            if (order == null) {
+                throw new SQLException("未找到有效的充电订单");
+            }
+
+            String orderId = order.getOrderId();
+            String chargingPointId = order.getChargingPointId();
+            String userId = order.getUserId();
+            double amount = order.getAmount();
+
+            // 更新订单状态为COMPLETED
+            if (!storage.completeOrder(conn, txId)) {
+                throw new SQLException("更新充电订单状态失败");
+            }
+
+            // 记录日志
+            logChargingAction(conn, txId, orderId, chargingPointId, userId, amount,
+                             "CONFIRM", "SUCCESS", "充电完成");
+
+            if (!idempotency.register(conn, txId, "CONFIRM")) {
+                throw new SQLException("幂等键冲突，操作已由其他事务完成");
             }
+            finishSession(conn, txId);
+            storage.commit(conn);
+            result = true;
+            System.out.println("确认充电成功: " + orderId);
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
+            if (idempotency.recheck(conn, txId, "CONFIRM")) {
+                System.out.println("充电Confirm操作已处理，幂等返回成功: " + txId);
+                return true;
+            }
             logChargingAction(conn, txId, null, null, null, 0, "CONFIRM", "FAILED", e.getMessage());
             System.err.println("充电Confirm操作失败: " + e.getMessage());
             throw e;
         }
-        
+
         return result;
     }
 
@@ -136,128 +188,103 @@ public class ChargingService implements TccAction {
             return true;
         }
 
-        conn.setAutoCommit(false);
+        storage.begin(conn);
         boolean result = false;
-        
+
         try {
             // 查询充电订单
-            String selectSql = "SELECT * FROM charging_order WHERE tx_id = ? AND status IN ('INIT', 'IN_PROGRESS')";
-            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
-                pstmt.setString(1, txId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (!rs.next()) {
-                        // 没有找到可取消的订单，可能已经处理过
-                        logChargingAction(conn, txId, null, null, null, 0, "CANCEL", "SUCCESS", "无订单需要取消");
-                        conn.commit();
-                        return true;
-                    }
-                    
-                    String orderId = rs.getString("order_id");
-                    String chargingPointId = rs.getString("charging_point_id");
-                    String userId = rs.getString("user_id");
-                    double amount = rs.getDouble("amount");
-                    
-                    // 更新订单状态为CANCELED
-                    String updateSql = "UPDATE charging_order SET status = 'CANCELED', cancel_time = ? WHERE tx_id = ?";
-                    try (PreparedStatement updatePstmt = conn.prepareStatement(updateSql)) {
-                        updatePstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-                        updatePstmt.setString(2, txId);
-                        int rowsAffected = updatePstmt.executeUpdate();
-                        if (rowsAffected != 1) {
-                            throw new SQLException("更新充电订单状态失败");
-                        }
-                    }
-                    
-                    // 记录日志
-                    logChargingAction(conn, txId, orderId, chargingPointId, userId, amount, 
-                                     "CANCEL", "SUCCESS", "充电取消");
-                    
-                    conn.commit();
-                    result = true;
-                    System.out.println("充电已取消: " + orderId);
+            ChargingOrder order = storage.findOrderByTxId(conn, txId, OrderView.PARTICIPANT, "INIT", "IN_PROGRESS");
+            if (order == null) {
+                // 没有找到可取消的订单，可能已经处理过
+                logChargingAction(conn, txId, null, null, null, 0, "CANCEL", "SUCCESS", "无订单需要取消");
+                if (!idempotency.register(conn, txId, "CANCEL")) {
+                    throw new SQLException("幂等键冲突，操作已由其他事务完成");
                 }
+                finishSession(conn, txId);
+                storage.commit(conn);
+                return true;
             }
+
+            String orderId = order.getOrderId();
+            String chargingPointId = order.getChargingPointId();
+            String userId = order.getUserId();
+            double amount = order.getAmount();
+
+            // 更新订单状态为CANCELED
+            if (!storage.cancelOrder(conn, txId)) {
+                throw new SQLException("更新充电订单状态失败");
+            }
+
+            // 记录日志
+            logChargingAction(conn, txId, orderId, chargingPointId, userId, amount,
+                             "CANCEL", "SUCCESS", "充电取消");
+
+            if (!idempotency.register(conn, txId, "CANCEL")) {
+                throw new SQLException("幂等键冲突，操作已由其他事务完成");
+            }
+            finishSession(conn, txId);
+            storage.commit(conn);
+            result = true;
+            System.out.println("充电已取消: " + orderId);
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
+            if (idempotency.recheck(conn, txId, "CANCEL")) {
+                System.out.println("充电Cancel操作已处理，幂等返回成功: " + txId);
+                return true;
+            }
             logChargingAction(conn, txId, null, null, null, 0, "CANCEL", "FAILED", e.getMessage());
             System.err.println("充电Cancel操作失败: " + e.getMessage());
             throw e;
         }
-        
+
         return result;
     }
 
+    // 订单结束后释放充电桩，不再累计电表读数
+    private void finishSession(Connection conn, String txId) {
+        ChargingPointRegistry registry = pointRegistry;
+        if (registry != null) {
+            storage.afterCommit(conn, () -> registry.release(txId));
+        }
+        MeterIngestor ingestor = meterIngestor;
+        if (ingestor != null) {
+            storage.afterCommit(conn, () -> ingestor.finish(txId));
+        }
+    }
+
     // 记录充电操作日志
-    private void logChargingAction(Connection conn, String txId, String orderId, String chargingPointId, 
+    private void logChargingAction(Connection conn, String txId, String orderId, String chargingPointId,
                                   String userId, double amount, String action, String status, String remark) throws SQLException {
-        String sql = "INSERT INTO charging_log (tx_id, order_id, charging_point_id, user_id, amount, action, status, remark, create_time) " +
-                   "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, txId);
-            pstmt.setString(2, orderId);
-            pstmt.setString(3, chargingPointId);
-            pstmt.setString(4, userId);
-            pstmt.setDouble(5, amount);
-            pstmt.setString(6, action);
-            pstmt.setString(7, status);
-            pstmt.setString(8, remark);
-            pstmt.setTimestamp(9, new Timestamp(System.currentTimeMillis()));
-            pstmt.executeUpdate();
-        }
+        storage.insertChargingLog(conn, txId, orderId, chargingPointId, userId, amount, action, status, remark);
+    }
+
+    @Override
+    public boolean isTried(Connection conn, String txId) throws SQLException {
+        return idempotency.recheck(conn, txId, "TRY");
     }
 
     // 检查操作是否已经处理过（幂等性检查）
     private boolean isOperationProcessed(Connection conn, String txId, String action) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM charging_log WHERE tx_id = ? AND action = ? AND status = 'SUCCESS'";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, txId);
-            pstmt.setString(2, action);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                return rs.next() && rs.getInt(1) > 0;
-            }
-        }
+        return idempotency.isProcessed(conn, txId, action);
     }
 
-    public Map<String, Object> getOrder(Connection conn, String txId) throws SQLException {
-        String sql = "SELECT * FROM charging_order WHERE tx_id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, txId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    Map<String, Object> order = new HashMap<>();
-                    order.put("order_id", rs.getString("order_id"));
-                    order.put("tx_id", rs.getString("tx_id"));
-                    order.put("charging_point_id", rs.getString("charging_point_id"));
-                    order.put("user_id", rs.getString("user_id"));
-                    order.put("amount", rs.getDouble("amount"));
-                    order.put("status", rs.getString("status"));
-                    return order;
-                }
-            }
-        }
-        return null;
+    public ChargingOrder getOrder(Connection conn, String txId) throws SQLException {
+        return storage.findOrderByTxId(conn, txId, OrderView.FULL);
+    }
+
+    /**
+     * 查询事务对应订单的状态，订单不存在时返回null
+     */
+    public String getOrderStatus(Connection conn, String txId) throws SQLException {
+        ChargingOrder order = storage.findOrderByTxId(conn, txId, OrderView.STATUS);
+        return order != null ? order.getStatus() : null;
     }
-    
+
     // 获取异常充电订单
     public List<String> getAbnormalChargingTxIds(Connection conn, long timeoutMinutes) throws SQLException {
-        List<String> txIds = new ArrayList<>();
         Timestamp cutoffTime = new Timestamp(System.currentTimeMillis() - timeoutMinutes * 60 * 1000);
-        
+
         // 查询长时间处于INIT或IN_PROGRESS状态的订单
-        String sql = "SELECT tx_id FROM charging_order " +
-                   "WHERE status IN ('INIT', 'IN_PROGRESS') " +
-                   "AND create_time < ? " +
-                   "AND tx_id NOT IN (SELECT tx_id FROM charging_log WHERE action IN ('CONFIRM', 'CANCEL') AND status = 'SUCCESS')";
-        
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setTimestamp(1, cutoffTime);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    txIds.add(rs.getString("tx_id"));
-                }
-            }
-        }
-        return txIds;
+        return storage.findStaleChargingTxIds(conn, cutoffTime);
     }
 }
-    
\ No newline at end of file
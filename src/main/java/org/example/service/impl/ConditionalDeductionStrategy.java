@@ -0,0 +1,28 @@
+package org.example.service.impl;
+
+import org.example.service.DeductionStrategy;
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 条件更新扣减：一条 UPDATE ... WHERE balance >= ? 完成检查和扣减，一次往返，不会透支
+ */
+public class ConditionalDeductionStrategy implements DeductionStrategy {
+    private final StorageEngine storage;
+
+    public ConditionalDeductionStrategy(StorageEngine storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public String getName() {
+        return "条件更新";
+    }
+
+    @Override
+    public boolean deduct(Connection conn, String userId, double amount) throws SQLException {
+        return storage.deductBalanceIfSufficient(conn, userId, amount);
+    }
+}
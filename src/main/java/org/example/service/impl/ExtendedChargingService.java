@@ -1,22 +1,73 @@
 package org.example.service.impl;
 
-import com.google.gson.Gson;
+import org.example.message.MessageCodec;
+import org.example.message.MessageWakeup;
+import org.example.message.SettlementPayload;
+import org.example.model.ChargingOrder;
 import org.example.model.LocalMessage;
-import org.example.util.DBUtil;
+import org.example.storage.OrderView;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
+import org.example.util.IdGenerator;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 
 /**
  * 扩展的充电服务类，增加了订单结算和消息创建功能
  */
 public class ExtendedChargingService extends ChargingService {
+    public static final int DEFAULT_SETTLEMENT_CHUNK_SIZE = 500;
+
+    /**
+     * 批量结算中单个订单的结果
+     */
+    public enum SettlementResult {
+        /** 已结算并创建积分消息 */
+        SETTLED,
+        /** 订单之前已经结算过 */
+        ALREADY_SETTLED,
+        /** 订单不存在 */
+        NOT_FOUND,
+        /** 订单未完成，不能结算 */
+        NOT_COMPLETED,
+        /** 所在分块的本地事务失败，可以重新推送 */
+        FAILED
+    }
+
+    private volatile int settlementChunkSize = DEFAULT_SETTLEMENT_CHUNK_SIZE;
+    private volatile MessageWakeup messageWakeup;
+
+    public ExtendedChargingService() {
+        this(StorageEngines.getDefault());
+    }
+
+    public ExtendedChargingService(StorageEngine storage) {
+        super(storage);
+    }
+
+    /**
+     * 设置批量结算每个本地事务处理的订单数
+     */
+    public void setSettlementChunkSize(int settlementChunkSize) {
+        this.settlementChunkSize = settlementChunkSize;
+    }
+
+    /**
+     * 设置消息唤醒通道，积分消息在本地事务提交后登记，由消息处理器立即认领
+     */
+    public void setMessageWakeup(MessageWakeup messageWakeup) {
+        this.messageWakeup = messageWakeup;
+    }
 
     /**
      * 结算充电订单并创建积分消息（在同一个本地事务中）
@@ -24,79 +75,42 @@ public class ExtendedChargingService extends ChargingService {
      * @return 是否成功
      */
     public boolean settleChargingOrder(String orderId) throws SQLException {
-        try (Connection conn = DBUtil.getConnection()) {
-            conn.setAutoCommit(false);
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
             
             try {
                 // 1. 查询订单信息
-                Map<String, Object> order = getOrder(conn, null, orderId);
+                ChargingOrder order = storage.findOrderByOrderId(conn, orderId, OrderView.SETTLEMENT);
                 if (order == null) {
                     throw new SQLException("订单不存在: " + orderId);
                 }
                 
-                String status = (String) order.get("status");
+                String status = order.getStatus();
                 if (!"COMPLETED".equals(status)) {
                     throw new SQLException("订单未完成，不能结算: " + orderId + ", 当前状态: " + status);
                 }
                 
-                String userId = (String) order.get("user_id");
-                double amount = (double) order.get("amount");
+                String userId = order.getUserId();
+                double amount = order.getAmount();
                 
                 // 2. 更新订单为已结算状态
-                String updateOrderSql = "UPDATE charging_order SET settlement_status = 'SETTLED', settlement_time = ? " +
-                                      "WHERE order_id = ?";
-                try (PreparedStatement pstmt = conn.prepareStatement(updateOrderSql)) {
-                    pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-                    pstmt.setString(2, orderId);
-                    int rowsAffected = pstmt.executeUpdate();
-                    if (rowsAffected != 1) {
-                        throw new SQLException("更新订单结算状态失败");
-                    }
+                if (!storage.settleOrder(conn, orderId)) {
+                    throw new SQLException("更新订单结算状态失败");
                 }
                 
-                // 3. 计算积分 (例如：每消费1元获得1积分)
-                int points = (int) Math.round(amount);
-                
-                // 4. 创建本地消息表记录
-                String messageId = "MSG_" + UUID.randomUUID().toString().replace("-", "");
-                
-                // 构建消息内容
-                Map<String, Object> messageContent = new HashMap<>();
-                messageContent.put("userId", userId);
-                messageContent.put("orderId", orderId);
-                messageContent.put("points", points);
-                messageContent.put("createTime", new Timestamp(System.currentTimeMillis()));
-                
-                Gson gson = new Gson();
-                String contentJson = gson.toJson(messageContent);
-                
-                LocalMessage message = new LocalMessage(
-                    messageId, "CHARGING_ORDER_SETTLEMENT", orderId, contentJson);
+                // 3. 创建本地消息表记录
+                LocalMessage message = settlementMessage(orderId, userId, amount);
                 
                 // 插入消息记录
-                String insertMessageSql = "INSERT INTO local_message " +
-                                        "(message_id, business_type, business_id, message_content, status, " +
-                                        "retry_count, next_retry_time, create_time, update_time) " +
-                                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-                try (PreparedStatement pstmt = conn.prepareStatement(insertMessageSql)) {
-                    pstmt.setString(1, message.getMessageId());
-                    pstmt.setString(2, message.getBusinessType());
-                    pstmt.setString(3, message.getBusinessId());
-                    pstmt.setString(4, message.getMessageContent());
-                    pstmt.setString(5, message.getStatus());
-                    pstmt.setInt(6, message.getRetryCount());
-                    pstmt.setTimestamp(7, message.getNextRetryTime());
-                    pstmt.setTimestamp(8, message.getCreateTime());
-                    pstmt.setTimestamp(9, message.getUpdateTime());
-                    pstmt.executeUpdate();
-                }
+                storage.insertMessage(conn, message);
+                signalAfterCommit(conn, Collections.singletonList(message));
                 
-                // 5. 提交事务
-                conn.commit();
-                System.out.println("订单结算完成并创建积分消息: 订单ID=" + orderId + ", 积分=" + points);
+                // 4. 提交事务
+                storage.commit(conn);
+                System.out.println("订单结算完成并创建积分消息: 订单ID=" + orderId + ", 积分=" + pointsOf(amount));
                 return true;
             } catch (SQLException e) {
-                conn.rollback();
+                storage.rollback(conn);
                 System.err.println("订单结算失败: " + e.getMessage());
                 throw e;
             }
@@ -104,38 +118,121 @@ public class ExtendedChargingService extends ChargingService {
     }
     
     /**
-     * 根据订单ID查询订单（重写父类方法，增加订单ID查询）
+     * 批量结算运营商推送的订单
+     *
+     * 按分块处理，每块一个本地事务：一条查询锁定块内订单并校验，一条更新修改结算状态，
+     * 一条多行INSERT写入积分消息。某一块失败时只有该块的订单结果为FAILED，其余分块不受影响。
+     *
+     * @param orderIds 订单ID，逐个读取，不需要一次装入内存
+     * @return 每个订单的结算结果，按第一次出现的顺序，重复出现的订单只处理一次
      */
-    public Map<String, Object> getOrder(Connection conn, String txId, String orderId) throws SQLException {
-        String sql;
-        if (orderId != null) {
-            sql = "SELECT * FROM charging_order WHERE order_id = ?";
-        } else {
-            sql = "SELECT * FROM charging_order WHERE tx_id = ?";
+    public Map<String, SettlementResult> settleChargingOrders(Iterator<String> orderIds) throws SQLException {
+        Map<String, SettlementResult> results = new LinkedHashMap<>();
+        Set<String> seen = new HashSet<>();
+        List<String> chunk = new ArrayList<>(settlementChunkSize);
+        try (Connection conn = storage.openConnection()) {
+            while (orderIds.hasNext()) {
+                String orderId = orderIds.next();
+                if (!seen.add(orderId)) {
+                    continue;
+                }
+                chunk.add(orderId);
+                if (chunk.size() >= settlementChunkSize) {
+                    settleChunk(conn, chunk, results);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                settleChunk(conn, chunk, results);
+            }
         }
-        
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            if (orderId != null) {
-                pstmt.setString(1, orderId);
-            } else {
-                pstmt.setString(1, txId);
+        return results;
+    }
+
+    private void settleChunk(Connection conn, List<String> orderIds, Map<String, SettlementResult> results)
+        throws SQLException {
+        Map<String, SettlementResult> chunkResults = new LinkedHashMap<>();
+        storage.begin(conn);
+        try {
+            Map<String, ChargingOrder> orders = new HashMap<>();
+            for (ChargingOrder order : storage.lockOrders(conn, orderIds, OrderView.SETTLEMENT)) {
+                orders.put(order.getOrderId(), order);
             }
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    Map<String, Object> order = new HashMap<>();
-                    order.put("order_id", rs.getString("order_id"));
-                    order.put("tx_id", rs.getString("tx_id"));
-                    order.put("charging_point_id", rs.getString("charging_point_id"));
-                    order.put("user_id", rs.getString("user_id"));
-                    order.put("amount", rs.getDouble("amount"));
-                    order.put("status", rs.getString("status"));
-                    order.put("settlement_status", rs.getString("settlement_status"));
-                    return order;
+
+            List<String> settling = new ArrayList<>(orders.size());
+            List<LocalMessage> messages = new ArrayList<>(orders.size());
+            for (String orderId : orderIds) {
+                ChargingOrder order = orders.get(orderId);
+                if (order == null) {
+                    chunkResults.put(orderId, SettlementResult.NOT_FOUND);
+                } else if ("SETTLED".equals(order.getSettlementStatus())) {
+                    chunkResults.put(orderId, SettlementResult.ALREADY_SETTLED);
+                } else if (!"COMPLETED".equals(order.getStatus())) {
+                    chunkResults.put(orderId, SettlementResult.NOT_COMPLETED);
+                } else {
+                    settling.add(orderId);
+                    messages.add(settlementMessage(orderId, order.getUserId(), order.getAmount()));
+                    chunkResults.put(orderId, SettlementResult.SETTLED);
                 }
             }
+
+            if (storage.settleOrders(conn, settling) != settling.size()) {
+                throw new SQLException("更新订单结算状态失败");
+            }
+            storage.insertMessages(conn, messages);
+            signalAfterCommit(conn, messages);
+            storage.commit(conn);
+            System.out.println("批量结算完成: " + settling.size() + "/" + orderIds.size() + " 个订单");
+        } catch (SQLException | RuntimeException e) {
+            storage.rollback(conn);
+            System.err.println("批量结算分块失败: " + e.getMessage());
+            chunkResults.clear();
+            for (String orderId : orderIds) {
+                chunkResults.put(orderId, SettlementResult.FAILED);
+            }
         }
-        return null;
+        results.putAll(chunkResults);
+    }
+
+    private void signalAfterCommit(Connection conn, List<LocalMessage> messages) {
+        MessageWakeup wakeup = messageWakeup;
+        if (wakeup != null && !messages.isEmpty()) {
+            storage.afterCommit(conn, () -> {
+                for (LocalMessage message : messages) {
+                    wakeup.signal(message.getMessageId());
+                }
+            });
+        }
+    }
+
+    // 结算积分消息：每消费1元获得1积分
+    private static LocalMessage settlementMessage(String orderId, String userId, double amount) {
+        SettlementPayload payload =
+            new SettlementPayload(userId, orderId, pointsOf(amount), System.currentTimeMillis());
+        String messageId = IdGenerator.getDefault().nextIdString("MSG_");
+        return new LocalMessage(messageId, SettlementPayload.BUSINESS_TYPE, orderId,
+                                MessageCodec.getDefault().encode(payload));
+    }
+
+    private static int pointsOf(double amount) {
+        return (int) Math.round(amount);
+    }
+
+    /**
+     * 根据订单ID查询订单（重写父类方法，增加订单ID查询）
+     */
+    public ChargingOrder getOrder(Connection conn, String txId, String orderId) throws SQLException {
+        if (orderId != null) {
+            return storage.findOrderByOrderId(conn, orderId, OrderView.FULL);
+        }
+        return storage.findOrderByTxId(conn, txId, OrderView.FULL);
+    }
+
+    /**
+     * 查询事务对应的订单ID，订单不存在时返回null
+     */
+    public String getOrderId(Connection conn, String txId) throws SQLException {
+        ChargingOrder order = storage.findOrderByTxId(conn, txId, OrderView.STATUS);
+        return order != null ? order.getOrderId() : null;
     }
 }
-    
\ No newline at end of file
@@ -0,0 +1,32 @@
+package org.example.service.impl;
+
+import org.example.service.DeductionStrategy;
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 悲观锁扣减：SELECT ... FOR UPDATE 锁定账户行后检查并扣减，两次往返，行锁持有到本地事务结束
+ */
+public class LockingDeductionStrategy implements DeductionStrategy {
+    private final StorageEngine storage;
+
+    public LockingDeductionStrategy(StorageEngine storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public String getName() {
+        return "悲观锁";
+    }
+
+    @Override
+    public boolean deduct(Connection conn, String userId, double amount) throws SQLException {
+        Double balance = storage.getBalanceForUpdate(conn, userId);
+        if (balance == null || balance < amount) {
+            return false;
+        }
+        return storage.deductBalance(conn, userId, amount);
+    }
+}
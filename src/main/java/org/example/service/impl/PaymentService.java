@@ -1,82 +1,147 @@
 package org.example.service.impl;
 
 
+import org.example.model.PaymentHold;
+import org.example.service.BudgetLeaseManager;
+import org.example.service.DeductionStrategy;
+import org.example.service.HoldCoalescer;
+import org.example.service.IdempotencyStore;
 import org.example.service.TccAction;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
 
 import java.sql.*;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 支付服务 - 实现TCC接口
  */
 public class PaymentService implements TccAction {
+    private final StorageEngine storage;
+    private final IdempotencyStore idempotency;
+    private final HoldCoalescer coalescer;
+    private final BudgetLeaseManager leases;
+    private volatile DeductionStrategy deduction;
+
+    public PaymentService() {
+        this(StorageEngines.getDefault());
+    }
+
+    public PaymentService(StorageEngine storage) {
+        this.storage = storage;
+        this.idempotency = new IdempotencyStore(storage, "PAYMENT");
+        this.coalescer = new HoldCoalescer(storage, idempotency);
+        this.leases = new BudgetLeaseManager(storage, idempotency);
+        this.deduction = new ConditionalDeductionStrategy(storage);
+    }
+
+    /**
+     * 设置逐笔预扣的余额扣减策略，默认条件更新
+     */
+    public void setDeductionStrategy(DeductionStrategy deduction) {
+        this.deduction = deduction;
+    }
+
+    /**
+     * 余额租约管理器，通过addLeasedAccount指定在本节点内存中批准预扣的账户
+     */
+    public BudgetLeaseManager getLeaseManager() {
+        return leases;
+    }
+
+    /**
+     * 热点账户预扣合并器，通过addHotAccount指定需要合并预扣的账户
+     */
+    public HoldCoalescer getHoldCoalescer() {
+        return coalescer;
+    }
 
     @Override
     public boolean tryAction(Connection conn, String txId, Object... args) throws SQLException {
         String userId = (String) args[0];
         double amount = (double) args[1];
-        
+
         // 幂等性检查 - 如果已经处理过，直接返回成功
         if (isOperationProcessed(conn, txId, "TRY")) {
             System.out.println("支付Try操作已处理，幂等返回成功: " + txId);
             return true;
         }
 
-        conn.setAutoCommit(false);
+        // 持有余额租约的账户直接从租约额度中冻结
+        switch (leases.hold(conn, txId, userId, amount)) {
+            case ACCEPTED:
+                System.out.println("从余额租约冻结金额: " + amount + " 来自用户: " + userId);
+                return true;
+            case DUPLICATE:
+                System.out.println("支付Try操作已处理，幂等返回成功: " + txId);
+                return true;
+            default:
+                break;
+        }
+
+        // 热点账户的并发预扣合并为一次余额更新
+        switch (coalescer.hold(conn, txId, userId, amount)) {
+            case ACCEPTED:
+                System.out.println("冻结金额: " + amount + " 来自用户: " + userId);
+                return true;
+            case DUPLICATE:
+                System.out.println("支付Try操作已处理，幂等返回成功: " + txId);
+                return true;
+            case REJECTED:
+                storage.begin(conn);
+                return rejectTry(conn, txId, userId, amount);
+            default:
+                break;
+        }
+
+        storage.begin(conn);
         boolean result = false;
-        
-        try {
-            // 检查余额
-            String checkSql = "SELECT balance FROM user_account WHERE user_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(checkSql)) {
-                pstmt.setString(1, userId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (!rs.next() || rs.getDouble("balance") < amount) {
-                        System.out.println("余额不足或用户不存在，支付失败");
-                        logPaymentAction(conn, txId, userId, amount, "TRY", "FAILED", "余额不足或用户不存在");
-                        conn.commit();
-                        return false;
-                    }
-                }
-            }
 
-            // 扣减余额
-            String updateSql = "UPDATE user_account SET balance = balance - ? WHERE user_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
-                pstmt.setDouble(1, amount);
-                pstmt.setString(2, userId);
-                int rowsAffected = pstmt.executeUpdate();
-                if (rowsAffected != 1) {
-                    throw new SQLException("扣减余额失败");
-                }
+        try {
+            // 检查并扣减余额
+            if (!deduction.deduct(conn, userId, amount)) {
+                return rejectTry(conn, txId, userId, amount);
             }
 
             // 记录预扣信息
-            String insertHoldSql = "INSERT INTO payment_pre_hold (tx_id, user_id, amount, status) VALUES (?, ?, ?, ?)";
-            try (PreparedStatement pstmt = conn.prepareStatement(insertHoldSql)) {
-                pstmt.setString(1, txId);
-                pstmt.setString(2, userId);
-                pstmt.setDouble(3, amount);
-                pstmt.setString(4, "HOLD");
-                pstmt.executeUpdate();
-            }
+            storage.insertHold(conn, txId, userId, amount, "HOLD");
 
             // 记录日志
             logPaymentAction(conn, txId, userId, amount, "TRY", "SUCCESS", null);
-            
-            conn.commit();
+
+            if (!idempotency.register(conn, txId, "TRY")) {
+                throw new SQLException("幂等键冲突，操作已由其他事务完成");
+            }
+            storage.commit(conn);
             result = true;
             System.out.println("冻结金额: " + amount + " 来自用户: " + userId);
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
+            if (idempotency.recheck(conn, txId, "TRY")) {
+                System.out.println("支付Try操作已处理，幂等返回成功: " + txId);
+                return true;
+            }
             logPaymentAction(conn, txId, userId, amount, "TRY", "FAILED", e.getMessage());
             System.err.println("支付Try操作失败: " + e.getMessage());
         }
-        
+
         return result;
     }
 
+    // 余额不足或用户不存在：复查是否已由之前的执行扣减，否则记录失败日志
+    private boolean rejectTry(Connection conn, String txId, String userId, double amount) throws SQLException {
+        if (idempotency.recheck(conn, txId, "TRY")) {
+            // 重复执行时余额已被之前的Try扣减
+            storage.rollback(conn);
+            System.out.println("支付Try操作已处理，幂等返回成功: " + txId);
+            return true;
+        }
+        System.out.println("余额不足或用户不存在，支付失败");
+        logPaymentAction(conn, txId, userId, amount, "TRY", "FAILED", "余额不足或用户不存在");
+        storage.commit(conn);
+        return false;
+    }
+
     @Override
     public boolean confirmAction(Connection conn, String txId) throws SQLException {
         // 幂等性检查
@@ -85,46 +150,43 @@ public class PaymentService implements TccAction {
             return true;
         }
 
-        conn.setAutoCommit(false);
+        storage.begin(conn);
         boolean result = false;
-        
+
         try {
             // 查询预扣记录
-            String selectSql = "SELECT * FROM payment_pre_hold WHERE tx_id = ? AND status = 'HOLD'";
-            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
-                pstmt.setString(1, txId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (!rs.next()) {
-                        throw new SQLException("未找到有效的预扣记录");
-                    }
-                    
-                    String userId = rs.getString("user_id");
-                    double amount = rs.getDouble("amount");
-                    
-                    // 更新预扣记录状态为CONFIRMED
-                    String updateSql = "UPDATE payment_pre_hold SET status = 'CONFIRMED' WHERE tx_id = ?";
-                    try (PreparedStatement updatePstmt = conn.prepareStatement(updateSql)) {
-                        updatePstmt.setString(1, txId);
-                        int rowsAffected = updatePstmt.executeUpdate();
-                        if (rowsAffected != 1) {
-                            throw new SQLException("更新预扣记录失败");
-                        }
-                    }
-                    
-                    // 记录日志
-                    logPaymentAction(conn, txId, userId, amount, "CONFIRM", "SUCCESS", null);
-                    conn.commit();
-                    result = true;
-                    System.out.println("确认支付成功: " + txId);
-                }
+            PaymentHold hold = storage.findHold(conn, txId, "HOLD");
+            if (hold == null) {
+                throw new SQLException("未找到有效的预扣记录");
             }
+
+            String userId = hold.getUserId();
+            double amount = hold.getAmount();
+
+            // 更新预扣记录状态为CONFIRMED
+            if (!storage.updateHoldStatus(conn, txId, "CONFIRMED")) {
+                throw new SQLException("更新预扣记录失败");
+            }
+
+            // 记录日志
+            logPaymentAction(conn, txId, userId, amount, "CONFIRM", "SUCCESS", null);
+            if (!idempotency.register(conn, txId, "CONFIRM")) {
+                throw new SQLException("幂等键冲突，操作已由其他事务完成");
+            }
+            storage.commit(conn);
+            result = true;
+            System.out.println("确认支付成功: " + txId);
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
+            if (idempotency.recheck(conn, txId, "CONFIRM")) {
+                System.out.println("支付Confirm操作已处理，幂等返回成功: " + txId);
+                return true;
+            }
             logPaymentAction(conn, txId, null, 0, "CONFIRM", "FAILED", e.getMessage());
             System.err.println("支付Confirm操作失败: " + e.getMessage());
             throw e;
         }
-        
+
         return result;
     }
 
@@ -136,125 +198,85 @@ public class PaymentService implements TccAction {
             return true;
         }
 
-        conn.setAutoCommit(false);
+        storage.begin(conn);
         boolean result = false;
-        
+
         try {
             // 查询预扣记录
-            String selectSql = "SELECT * FROM payment_pre_hold WHERE tx_id = ? AND status = 'HOLD'";
-            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
-                pstmt.setString(1, txId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (!rs.next()) {
-                        // 没有找到预扣记录，可能已经处理过
-                        logPaymentAction(conn, txId, null, 0, "CANCEL", "SUCCESS", "无预扣记录需要取消");
-                        conn.commit();
-                        return true;
-                    }
-                    
-                    String userId = rs.getString("user_id");
-                    double amount = rs.getDouble("amount");
-                    
-                    // 退还金额
-                    String refundSql = "UPDATE user_account SET balance = balance + ? WHERE user_id = ?";
-                    try (PreparedStatement refundPstmt = conn.prepareStatement(refundSql)) {
-                        refundPstmt.setDouble(1, amount);
-                        refundPstmt.setString(2, userId);
-                        int rowsAffected = refundPstmt.executeUpdate();
-                        if (rowsAffected != 1) {
-                            throw new SQLException("退还金额失败");
-                        }
-                    }
-
-                    // 更新预扣记录状态为CANCELED
-                    String updateSql = "UPDATE payment_pre_hold SET status = 'CANCELED' WHERE tx_id = ?";
-                    try (PreparedStatement updatePstmt = conn.prepareStatement(updateSql)) {
-                        updatePstmt.setString(1, txId);
-                        int rowsAffected = updatePstmt.executeUpdate();
-                        if (rowsAffected != 1) {
-                            throw new SQLException("更新预扣记录状态失败");
-                        }
-                    }
-                    
-                    // 记录日志
-                    logPaymentAction(conn, txId, userId, amount, "CANCEL", "SUCCESS", null);
-                    conn.commit();
-                    result = true;
-                    System.out.println("支付已取消，金额已退还: " + txId);
+            PaymentHold hold = storage.findHold(conn, txId, "HOLD");
+            if (hold == null) {
+                // 没有找到预扣记录，可能已经处理过
+                logPaymentAction(conn, txId, null, 0, "CANCEL", "SUCCESS", "无预扣记录需要取消");
+                if (!idempotency.register(conn, txId, "CANCEL")) {
+                    throw new SQLException("幂等键冲突，操作已由其他事务完成");
                 }
+                storage.commit(conn);
+                return true;
             }
+
+            String userId = hold.getUserId();
+            double amount = hold.getAmount();
+
+            // 退还金额：从有效租约划出的金额回到租约，其余退回账户
+            String leaseId = hold.getLeaseId();
+            if ((leaseId == null || !leases.returnHold(conn, leaseId, amount))
+                && !storage.refundBalance(conn, userId, amount)) {
+                throw new SQLException("退还金额失败");
+            }
+
+            // 更新预扣记录状态为CANCELED
+            if (!storage.updateHoldStatus(conn, txId, "CANCELED")) {
+                throw new SQLException("更新预扣记录状态失败");
+            }
+
+            // 记录日志
+            logPaymentAction(conn, txId, userId, amount, "CANCEL", "SUCCESS", null);
+            if (!idempotency.register(conn, txId, "CANCEL")) {
+                throw new SQLException("幂等键冲突，操作已由其他事务完成");
+            }
+            storage.commit(conn);
+            result = true;
+            System.out.println("支付已取消，金额已退还: " + txId);
         } catch (SQLException e) {
-            conn.rollback();
+            storage.rollback(conn);
+            if (idempotency.recheck(conn, txId, "CANCEL")) {
+                System.out.println("支付Cancel操作已处理，幂等返回成功: " + txId);
+                return true;
+            }
             logPaymentAction(conn, txId, null, 0, "CANCEL", "FAILED", e.getMessage());
             System.err.println("支付Cancel操作失败: " + e.getMessage());
             throw e;
         }
-        
+
         return result;
     }
 
     // 记录支付操作日志
-    private void logPaymentAction(Connection conn, String txId, String userId, double amount, 
+    private void logPaymentAction(Connection conn, String txId, String userId, double amount,
                                  String action, String status, String remark) throws SQLException {
-        String sql = "INSERT INTO payment_log (tx_id, user_id, amount, action, status, remark, create_time) " +
-                   "VALUES (?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, txId);
-            pstmt.setString(2, userId);
-            pstmt.setDouble(3, amount);
-            pstmt.setString(4, action);
-            pstmt.setString(5, status);
-            pstmt.setString(6, remark);
-            pstmt.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
-            pstmt.executeUpdate();
-        }
+        storage.insertPaymentLog(conn, txId, userId, amount, action, status, remark);
+    }
+
+    @Override
+    public boolean isTried(Connection conn, String txId) throws SQLException {
+        return idempotency.recheck(conn, txId, "TRY");
     }
 
     // 检查操作是否已经处理过（幂等性检查）
     private boolean isOperationProcessed(Connection conn, String txId, String action) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM payment_log WHERE tx_id = ? AND action = ? AND status = 'SUCCESS'";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, txId);
-            pstmt.setString(2, action);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                return rs.next() && rs.getInt(1) > 0;
-            }
-        }
+        return idempotency.isProcessed(conn, txId, action);
     }
 
     public double getUserBalance(Connection conn, String userId) throws SQLException {
-        String sql = "SELECT balance FROM user_account WHERE user_id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, userId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("balance");
-                }
-            }
-        }
-        return 0.0;
+        Double balance = storage.getBalance(conn, userId);
+        return balance != null ? balance : 0.0;
     }
-    
+
     // 获取异常支付订单
     public List<String> getAbnormalPaymentTxIds(Connection conn, long timeoutMinutes) throws SQLException {
-        List<String> txIds = new ArrayList<>();
         Timestamp cutoffTime = new Timestamp(System.currentTimeMillis() - timeoutMinutes * 60 * 1000);
-        
+
         // 查询处于TRY_SUCCESS但未确认或取消的支付记录
-        String sql = "SELECT DISTINCT tx_id FROM payment_log " +
-                   "WHERE status = 'SUCCESS' AND action = 'TRY' " +
-                   "AND create_time < ? " +
-                   "AND tx_id NOT IN (SELECT tx_id FROM payment_log WHERE action IN ('CONFIRM', 'CANCEL') AND status = 'SUCCESS')";
-        
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setTimestamp(1, cutoffTime);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    txIds.add(rs.getString("tx_id"));
-                }
-            }
-        }
-        return txIds;
+        return storage.findStalePaymentTxIds(conn, cutoffTime);
     }
 }
-    
\ No newline at end of file
@@ -1,18 +1,43 @@
 package org.example.service.impl;
 
+import org.example.message.SettlementPayload;
 import org.example.model.PointsTransaction;
-import org.example.util.DBUtil;
+import org.example.service.PointsAccumulator;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngines;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * 积分服务类，处理用户积分相关操作
  */
 public class PointsService {
+    private final StorageEngine storage;
+    private volatile PointsAccumulator accumulator;
+
+    public PointsService() {
+        this(StorageEngines.getDefault());
+    }
+
+    public PointsService(StorageEngine storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * 设置积分延迟累加器：发放积分只写积分台账，user_points由累加器在后台写入，查询积分走累加器
+     */
+    public void setAccumulator(PointsAccumulator accumulator) {
+        this.accumulator = accumulator;
+    }
 
     /**
      * 为用户增加积分（幂等性实现）
@@ -25,93 +50,140 @@ public class PointsService {
         // 使用订单ID作为幂等键，确保同一订单不会重复增加积分
         String transactionId = "PTS_" + orderId;
         
-        try (Connection conn = DBUtil.getConnection()) {
-            conn.setAutoCommit(false);
-            
-            // 检查是否已经处理过该订单的积分
-            if (isPointsAddedForOrder(conn, orderId)) {
-                System.out.println("订单已添加过积分，无需重复处理: " + orderId);
-                conn.commit();
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+
+            try {
+                // 检查是否已经处理过该订单的积分
+                if (isPointsAddedForOrder(conn, orderId)) {
+                    System.out.println("订单已添加过积分，无需重复处理: " + orderId);
+                    storage.commit(conn);
+                    return true;
+                }
+
+                // 创建积分交易记录
+                PointsTransaction transaction = new PointsTransaction(
+                    transactionId, userId, orderId, points, "CHARGING_REWARD");
+
+                PointsAccumulator pending = accumulator;
+                if (pending != null) {
+                    // 只写积分台账，提交后由累加器合并写入user_points
+                    transaction.setStatus("COMPLETED");
+                    transaction.setCompleteTime(new Timestamp(System.currentTimeMillis()));
+                    transaction.setApplied(false);
+                    storage.insertPointsTransaction(conn, transaction);
+                    storage.afterCommit(conn, () -> pending.add(userId, transactionId, points));
+                } else {
+                    // 插入积分交易记录
+                    storage.insertPointsTransaction(conn, transaction);
+
+                    // 更新用户积分（如果用户积分记录不存在则创建）
+                    storage.addUserPoints(conn, userId, points);
+
+                    // 更新积分交易状态为完成
+                    storage.completePointsTransaction(conn, transactionId);
+                }
+
+                storage.commit(conn);
+                System.out.println("用户积分增加成功: 用户ID=" + userId + ", 订单ID=" + orderId + ", 积分=" + points);
                 return true;
+            } catch (SQLException e) {
+                storage.rollback(conn);
+                throw e;
             }
-            
-            // 创建积分交易记录
-            PointsTransaction transaction = new PointsTransaction(
-                transactionId, userId, orderId, points, "CHARGING_REWARD");
-            
-            // 插入积分交易记录
-            String insertTxSql = "INSERT INTO points_transaction " +
-                               "(transaction_id, user_id, order_id, points, type, status, create_time) " +
-                               "VALUES (?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmt = conn.prepareStatement(insertTxSql)) {
-                pstmt.setString(1, transaction.getTransactionId());
-                pstmt.setString(2, transaction.getUserId());
-                pstmt.setString(3, transaction.getOrderId());
-                pstmt.setInt(4, transaction.getPoints());
-                pstmt.setString(5, transaction.getType());
-                pstmt.setString(6, transaction.getStatus());
-                pstmt.setTimestamp(7, transaction.getCreateTime());
-                pstmt.executeUpdate();
-            }
-            
-            // 更新用户积分（如果用户积分记录不存在则创建）
-            String mergeSql = "INSERT INTO user_points (user_id, total_points, update_time) " +
-                            "VALUES (?, ?, ?) " +
-                            "ON DUPLICATE KEY UPDATE total_points = total_points + ?, update_time = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(mergeSql)) {
-                pstmt.setString(1, userId);
-                pstmt.setInt(2, points);
-                pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
-                pstmt.setInt(4, points);
-                pstmt.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
-                pstmt.executeUpdate();
+        }
+    }
+    
+    /**
+     * 批量发放一批结算消息的积分（幂等），整批在一个本地事务中提交
+     *
+     * 同一订单只处理第一条消息；一条查询找出已发放过的订单，其余订单的积分交易记录一次批量插入，
+     * 每个用户的积分合计后一次upsert（按用户ID排序加锁，避免并发批次死锁），
+     * 设置了延迟累加器时不写user_points，提交后交给累加器。
+     * 批量事务失败（例如另一批次并发发放了同一订单）时回滚，退回逐条发放。
+     *
+     * @return 积分已发放（本次或之前）的订单ID
+     */
+    public Set<String> awardPoints(List<SettlementPayload> payloads) throws SQLException {
+        Map<String, SettlementPayload> byOrder = new LinkedHashMap<>();
+        for (SettlementPayload payload : payloads) {
+            byOrder.putIfAbsent(payload.getOrderId(), payload);
+        }
+        if (byOrder.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        PointsAccumulator pending = accumulator;
+        try (Connection conn = storage.openConnection()) {
+            storage.begin(conn);
+            try {
+                Set<String> awarded = storage.findPointsAddedOrderIds(conn, new ArrayList<>(byOrder.keySet()));
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                List<PointsTransaction> transactions = new ArrayList<>();
+                Map<String, Integer> pointsByUser = new TreeMap<>();
+                for (SettlementPayload payload : byOrder.values()) {
+                    if (awarded.contains(payload.getOrderId())) {
+                        continue;
+                    }
+                    PointsTransaction transaction = new PointsTransaction(
+                        "PTS_" + payload.getOrderId(), payload.getUserId(), payload.getOrderId(),
+                        payload.getPoints(), "CHARGING_REWARD");
+                    transaction.setStatus("COMPLETED");
+                    transaction.setCompleteTime(now);
+                    transaction.setApplied(pending == null);
+                    transactions.add(transaction);
+                    pointsByUser.merge(payload.getUserId(), payload.getPoints(), Integer::sum);
+                }
+
+                storage.insertPointsTransactions(conn, transactions);
+                if (pending == null) {
+                    storage.addUserPoints(conn, pointsByUser);
+                } else {
+                    storage.afterCommit(conn, () -> {
+                        for (PointsTransaction transaction : transactions) {
+                            pending.add(transaction.getUserId(), transaction.getTransactionId(),
+                                        transaction.getPoints());
+                        }
+                    });
+                }
+                storage.commit(conn);
+                System.out.println("批量积分发放完成: 新发放 " + transactions.size() + " 笔, 已发放 "
+                                   + awarded.size() + " 笔, 涉及用户 " + pointsByUser.size() + " 个");
+                return byOrder.keySet();
+            } catch (SQLException e) {
+                storage.rollback(conn);
+                System.err.println("批量积分发放失败，逐条发放: " + e.getMessage());
             }
-            
-            // 更新积分交易状态为完成
-            String updateTxSql = "UPDATE points_transaction SET status = 'COMPLETED', complete_time = ? " +
-                               "WHERE transaction_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(updateTxSql)) {
-                pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-                pstmt.setString(2, transactionId);
-                pstmt.executeUpdate();
+        }
+
+        Set<String> awarded = new HashSet<>();
+        for (SettlementPayload payload : byOrder.values()) {
+            try {
+                if (addPointsForCharging(payload.getUserId(), payload.getOrderId(), payload.getPoints())) {
+                    awarded.add(payload.getOrderId());
+                }
+            } catch (SQLException e) {
+                System.err.println("积分发放失败: " + payload.getOrderId() + ", " + e.getMessage());
             }
-            
-            conn.commit();
-            System.out.println("用户积分增加成功: 用户ID=" + userId + ", 订单ID=" + orderId + ", 积分=" + points);
-            return true;
-        } catch (SQLException e) {
-            throw e;
         }
+        return awarded;
     }
-    
+
     /**
      * 检查订单是否已经添加过积分
      */
     private boolean isPointsAddedForOrder(Connection conn, String orderId) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM points_transaction " +
-                   "WHERE order_id = ? AND type = 'CHARGING_REWARD' AND status = 'COMPLETED'";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, orderId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                return rs.next() && rs.getInt(1) > 0;
-            }
-        }
+        return storage.isPointsAdded(conn, orderId);
     }
     
     /**
      * 获取用户当前积分
      */
     public int getUserPoints(Connection conn, String userId) throws SQLException {
-        String sql = "SELECT total_points FROM user_points WHERE user_id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, userId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt("total_points");
-                }
-                return 0;
-            }
+        PointsAccumulator pending = accumulator;
+        if (pending != null) {
+            return pending.getUserPoints(userId);
         }
+        return storage.getUserPoints(conn, userId);
     }
 }
-    
\ No newline at end of file
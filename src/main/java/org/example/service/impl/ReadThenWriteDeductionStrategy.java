@@ -0,0 +1,34 @@
+package org.example.service.impl;
+
+import org.example.service.DeductionStrategy;
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 原有的先读后写扣减：不加锁读取余额，再无条件扣减
+ *
+ * 读和写之间其他事务可以扣减同一账户，并发时会透支，仅作为压测对照保留。
+ */
+public class ReadThenWriteDeductionStrategy implements DeductionStrategy {
+    private final StorageEngine storage;
+
+    public ReadThenWriteDeductionStrategy(StorageEngine storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public String getName() {
+        return "先读后写";
+    }
+
+    @Override
+    public boolean deduct(Connection conn, String userId, double amount) throws SQLException {
+        Double balance = storage.getBalance(conn, userId);
+        if (balance == null || balance < amount) {
+            return false;
+        }
+        return storage.deductBalance(conn, userId, amount);
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.service.impl;
+
+import org.example.service.DeductionStrategy;
+import org.example.storage.StorageEngine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 乐观版本扣减：读取余额和版本号，按版本号条件更新，版本冲突时退避重试，超过次数抛出异常
+ *
+ * 所有读写都在当前事务的连接上执行，不再占用连接池的第二个连接。首次读取是普通的快照读；
+ * 可重复读隔离级别下，同一事务内重读只能看到旧快照，所以冲突后改用加锁读取已提交的最新版本。
+ * 内存存储没有行锁，加锁读取与普通读取相同，冲突时依靠重试。
+ */
+public class VersionedDeductionStrategy implements DeductionStrategy {
+    public static final int DEFAULT_MAX_RETRIES = 5;
+
+    private final StorageEngine storage;
+    private final int maxRetries;
+    private final AtomicLong conflictCount = new AtomicLong();
+
+    public VersionedDeductionStrategy(StorageEngine storage) {
+        this(storage, DEFAULT_MAX_RETRIES);
+    }
+
+    public VersionedDeductionStrategy(StorageEngine storage, int maxRetries) {
+        this.storage = storage;
+        this.maxRetries = maxRetries;
+    }
+
+    @Override
+    public String getName() {
+        return "乐观版本";
+    }
+
+    @Override
+    public boolean deduct(Connection conn, String userId, double amount) throws SQLException {
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            Map<String, Object> account = attempt == 0
+                ? storage.findAccount(conn, userId)
+                : storage.findAccountForUpdate(conn, userId);
+            if (account == null || (double) account.get("balance") < amount) {
+                return false;
+            }
+            double newBalance = (double) account.get("balance") - amount;
+            if (storage.updateBalanceIfVersion(conn, userId, newBalance, (long) account.get("version"))) {
+                return true;
+            }
+            conflictCount.incrementAndGet();
+            // 随机退避，避免冲突的事务同时重试
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(50_000L << Math.min(attempt, 6)));
+        }
+        throw new SQLException("账户版本冲突，重试 " + maxRetries + " 次后仍未成功: " + userId);
+    }
+
+    /**
+     * 版本冲突总次数
+     */
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+}
@@ -0,0 +1,418 @@
+package org.example.storage;
+
+import javax.sql.DataSource;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步操作日志写入器
+ *
+ * 日志先放入有界环形缓冲区，同时追加到本地溢写文件；后台线程在积累到一批或到达刷新间隔时
+ * 把缓冲区中的日志按表合并成多行INSERT一次写入。每次取批时切换到新的溢写文件，
+ * 旧文件只包含这一批日志，写库成功后删除。进程崩溃后，启动时把残留的溢写文件重新写库，
+ * 因此日志至少写入一次（崩溃发生在写库后、删除文件前时会重复）。
+ * 溢写文件按刷新间隔成组落盘：切换出的旧文件在锁外force后关闭，没有切换时force当前文件，
+ * 操作系统崩溃时最多丢失一个刷新间隔内的溢写。
+ *
+ * 溢写文件无法创建时日志仍进入缓冲区写库，但崩溃后无法恢复；刷新线程每个间隔重试创建并记录错误。
+ *
+ * 缓冲区已满或写入器已关闭时退回同步写库，不丢弃日志。
+ */
+public class AsyncAuditLog implements Closeable {
+    public static final int DEFAULT_CAPACITY = 65536;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+
+    private static final String SPILL_PREFIX = "audit-spill-";
+    private static final String SPILL_SUFFIX = ".log";
+
+    private final DataSource dataSource;
+    private final Path spillDirectory;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final ArrayBlockingQueue<AuditRecord> ring;
+    // 入队和写溢写文件在同一把锁内完成，保证切换文件时文件内容与取出的批次一致
+    private final Object lock = new Object();
+    private final Thread flusher;
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong directCount = new AtomicLong();
+    private final AtomicLong unspilledCount = new AtomicLong();
+
+    private volatile boolean running = true;
+    private long spillSequence;
+    private Path spillPath;
+    private FileChannel spill;
+    private boolean spillDirty;
+
+    // 以下只由刷新线程访问：写库失败待重试的日志及其溢写文件
+    private List<AuditRecord> retry = new ArrayList<>();
+    private final List<Path> retryFiles = new ArrayList<>();
+
+    public AsyncAuditLog(DataSource dataSource, Path spillDirectory) throws IOException {
+        this(dataSource, spillDirectory, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public AsyncAuditLog(DataSource dataSource, Path spillDirectory, int capacity, int batchSize,
+                         long flushIntervalMillis) throws IOException {
+        this.dataSource = dataSource;
+        this.spillDirectory = spillDirectory;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.ring = new ArrayBlockingQueue<>(capacity);
+        Files.createDirectories(spillDirectory);
+
+        recoverSpillFiles();
+        synchronized (lock) {
+            rotateSpill();
+        }
+
+        this.flusher = new Thread(this::runFlusher, "audit-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 追加一条日志，不抛出异常：日志不承载幂等语义，写入失败只记录错误
+     */
+    public void append(AuditRecord record) {
+        boolean queued;
+        synchronized (lock) {
+            queued = running && ring.offer(record);
+            if (queued) {
+                writeSpill(record);
+            }
+        }
+
+        if (!queued) {
+            directCount.incrementAndGet();
+            try {
+                insert(Collections.singletonList(record));
+            } catch (SQLException e) {
+                System.err.println("同步写入操作日志失败: " + record.getTxId() + " " + record.getAction() + ", " + e.getMessage());
+            }
+            return;
+        }
+        if (ring.size() >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    /**
+     * 已写库的日志条数
+     */
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    /**
+     * 多行INSERT的执行次数
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * 因缓冲区满而同步写库的日志条数
+     */
+    public long getDirectCount() {
+        return directCount.get();
+    }
+
+    /**
+     * 因溢写文件不可用而只保存在内存中的日志条数
+     */
+    public long getUnspilledCount() {
+        return unspilledCount.get();
+    }
+
+    /**
+     * 停止接收新日志并写完缓冲区中的日志
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            closeSpill();
+            if (ring.isEmpty() && retry.isEmpty()) {
+                deleteQuietly(spillPath);
+            }
+        }
+    }
+
+    // ==================== 刷新 ====================
+
+    private void runFlusher() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+            flush();
+        }
+        // 关闭前写完剩余日志
+        while (!ring.isEmpty()) {
+            if (!flush()) {
+                break;
+            }
+        }
+        if (!retry.isEmpty()) {
+            flush();
+        }
+    }
+
+    // 取出一批日志写库，返回是否成功
+    private boolean flush() {
+        List<AuditRecord> batch = new ArrayList<>();
+        Path sealed = null;
+        FileChannel sealedChannel = null;
+        FileChannel current = null;
+        synchronized (lock) {
+            // 重试积压过多时暂停取批，缓冲区写满后新日志退回同步写库
+            if (retry.size() < capacity && !ring.isEmpty()) {
+                ring.drainTo(batch);
+                sealed = spillPath;
+                sealedChannel = spill;
+                spill = null;
+                spillDirty = false;
+                openSpill();
+            } else if (spill == null) {
+                openSpill();
+            } else if (spillDirty) {
+                current = spill;
+                spillDirty = false;
+            }
+        }
+        // 落盘在锁外进行，不阻塞追加；溢写通道只在刷新线程内切换
+        if (sealedChannel != null) {
+            forceAndClose(sealedChannel);
+        }
+        if (current != null) {
+            try {
+                current.force(false);
+            } catch (IOException e) {
+                System.err.println("操作日志溢写文件落盘失败: " + e.getMessage());
+            }
+        }
+        if (sealed != null) {
+            retryFiles.add(sealed);
+        }
+        if (batch.isEmpty() && retry.isEmpty()) {
+            return true;
+        }
+
+        List<AuditRecord> pending = retry;
+        pending.addAll(batch);
+        try {
+            insert(pending);
+        } catch (SQLException e) {
+            retry = pending;
+            System.err.println("批量写入操作日志失败，稍后重试: " + pending.size() + " 条, " + e.getMessage());
+            return false;
+        }
+        retry = new ArrayList<>();
+        for (Path file : retryFiles) {
+            deleteQuietly(file);
+        }
+        retryFiles.clear();
+        return true;
+    }
+
+    // 按表分组，每组拆成不超过batchSize行的多行INSERT，在一个本地事务中提交
+    private void insert(List<AuditRecord> records) throws SQLException {
+        List<AuditRecord> payment = new ArrayList<>();
+        List<AuditRecord> charging = new ArrayList<>();
+        for (AuditRecord record : records) {
+            (AuditRecord.PAYMENT_LOG.equals(record.getTable()) ? payment : charging).add(record);
+        }
+
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                insertRows(conn, AuditRecord.PAYMENT_LOG, payment);
+                insertRows(conn, AuditRecord.CHARGING_LOG, charging);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        flushedCount.addAndGet(records.size());
+    }
+
+    private void insertRows(Connection conn, String table, List<AuditRecord> rows) throws SQLException {
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            List<AuditRecord> chunk = rows.subList(from, Math.min(rows.size(), from + batchSize));
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (").append(AuditRecord.columns(table)).append(") VALUES ");
+            String placeholders = "(" + String.join(", ", Collections.nCopies(AuditRecord.columnCount(table), "?")) + ")";
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(placeholders);
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+                int index = 1;
+                for (AuditRecord record : chunk) {
+                    index = record.bind(pstmt, index);
+                }
+                pstmt.executeUpdate();
+            }
+            batchCount.incrementAndGet();
+        }
+    }
+
+    // ==================== 溢写文件 ====================
+
+    // 调用方持有lock
+    private void writeSpill(AuditRecord record) {
+        if (spill == null) {
+            unspilledCount.incrementAndGet();
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            record.writeTo(out);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            buffer.putInt(0, buffer.remaining() - 4);
+            while (buffer.hasRemaining()) {
+                spill.write(buffer);
+            }
+            spillDirty = true;
+        } catch (IOException e) {
+            System.err.println("写入操作日志溢写文件失败: " + e.getMessage());
+        }
+    }
+
+    // 调用方持有lock，创建失败时记录错误，下一个刷新间隔重试
+    private void openSpill() {
+        try {
+            rotateSpill();
+        } catch (IOException e) {
+            spill = null;
+            System.err.println("创建操作日志溢写文件失败，新日志崩溃后无法恢复，稍后重试: " + e.getMessage());
+        }
+    }
+
+    // 调用方持有lock
+    private void rotateSpill() throws IOException {
+        closeSpill();
+        spillSequence++;
+        spillPath = spillDirectory.resolve(String.format("%s%020d%s", SPILL_PREFIX, spillSequence, SPILL_SUFFIX));
+        spill = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                 StandardOpenOption.APPEND);
+    }
+
+    private void closeSpill() {
+        if (spill != null) {
+            forceAndClose(spill);
+            spill = null;
+            spillDirty = false;
+        }
+    }
+
+    private static void forceAndClose(FileChannel channel) {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("操作日志溢写文件落盘失败: " + e.getMessage());
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭操作日志溢写文件失败: " + e.getMessage());
+        }
+    }
+
+    // 启动时把上次未写库的日志重新写入
+    private void recoverSpillFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spillDirectory, SPILL_PREFIX + "*" + SPILL_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            spillSequence = Math.max(spillSequence,
+                Long.parseLong(name.substring(SPILL_PREFIX.length(), name.length() - SPILL_SUFFIX.length())));
+            List<AuditRecord> records = readSpill(file);
+            if (records.isEmpty()) {
+                deleteQuietly(file);
+                continue;
+            }
+            try {
+                insert(records);
+                deleteQuietly(file);
+                System.out.println("已恢复操作日志溢写文件 " + name + ": " + records.size() + " 条");
+            } catch (SQLException e) {
+                System.err.println("恢复操作日志溢写文件失败，下次启动重试: " + name + ", " + e.getMessage());
+            }
+        }
+    }
+
+    private static List<AuditRecord> readSpill(Path file) throws IOException {
+        List<AuditRecord> records = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            while (true) {
+                int length;
+                try {
+                    length = data.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                try {
+                    data.readFully(payload);
+                } catch (EOFException e) {
+                    // 崩溃时写了一半的记录
+                    break;
+                }
+                records.add(AuditRecord.readFrom(new DataInputStream(new ByteArrayInputStream(payload))));
+            }
+        }
+        return records;
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("删除操作日志溢写文件失败: " + file + ", " + e.getMessage());
+        }
+    }
+}
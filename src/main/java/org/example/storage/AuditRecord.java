@@ -0,0 +1,106 @@
+package org.example.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * 一条支付或充电操作日志
+ */
+public class AuditRecord {
+    public static final String PAYMENT_LOG = "payment_log";
+    public static final String CHARGING_LOG = "charging_log";
+
+    private final String table;
+    private final String txId;
+    private final String orderId;
+    private final String chargingPointId;
+    private final String userId;
+    private final double amount;
+    private final String action;
+    private final String status;
+    private final String remark;
+    private final long createTime;
+
+    public AuditRecord(String table, String txId, String orderId, String chargingPointId, String userId,
+                       double amount, String action, String status, String remark, long createTime) {
+        this.table = table;
+        this.txId = txId;
+        this.orderId = orderId;
+        this.chargingPointId = chargingPointId;
+        this.userId = userId;
+        this.amount = amount;
+        this.action = action;
+        this.status = status;
+        this.remark = remark;
+        this.createTime = createTime;
+    }
+
+    public String getTable() { return table; }
+    public String getTxId() { return txId; }
+    public String getAction() { return action; }
+    public String getStatus() { return status; }
+
+    /**
+     * 对应表的列名
+     */
+    static String columns(String table) {
+        return PAYMENT_LOG.equals(table)
+            ? "tx_id, user_id, amount, action, status, remark, create_time"
+            : "tx_id, order_id, charging_point_id, user_id, amount, action, status, remark, create_time";
+    }
+
+    static int columnCount(String table) {
+        return PAYMENT_LOG.equals(table) ? 7 : 9;
+    }
+
+    /**
+     * 从index开始绑定本行参数，返回下一个参数位置
+     */
+    int bind(PreparedStatement pstmt, int index) throws SQLException {
+        pstmt.setString(index++, txId);
+        if (CHARGING_LOG.equals(table)) {
+            pstmt.setString(index++, orderId);
+            pstmt.setString(index++, chargingPointId);
+        }
+        pstmt.setString(index++, userId);
+        pstmt.setDouble(index++, amount);
+        pstmt.setString(index++, action);
+        pstmt.setString(index++, status);
+        pstmt.setString(index++, remark);
+        pstmt.setTimestamp(index++, new Timestamp(createTime));
+        return index;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(table);
+        out.writeUTF(txId);
+        writeNullable(out, orderId);
+        writeNullable(out, chargingPointId);
+        writeNullable(out, userId);
+        out.writeDouble(amount);
+        out.writeUTF(action);
+        out.writeUTF(status);
+        writeNullable(out, remark);
+        out.writeLong(createTime);
+    }
+
+    static AuditRecord readFrom(DataInputStream in) throws IOException {
+        return new AuditRecord(in.readUTF(), in.readUTF(), readNullable(in), readNullable(in), readNullable(in),
+                               in.readDouble(), in.readUTF(), in.readUTF(), readNullable(in), in.readLong());
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基于EXPLAIN的索引断言，校验服务层每条热点查询都命中了设计好的索引
+ *
+ * 对每条查询执行EXPLAIN，检查涉及目标表的每一行执行计划的key列，
+ * 没有使用索引（全表扫描）或使用了非预期索引都记为违规。
+ */
+public class IndexPlanVerifier {
+
+    private static final List<Expectation> EXPECTATIONS = Arrays.asList(
+        new Expectation("幂等键检查", JdbcStorageEngine.SQL_IDEMPOTENCY_KEY,
+                        new Object[] {"tx", "PAYMENT", "TRY"}, "idempotency_key", "PRIMARY"),
+        new Expectation("异常支付扫描", JdbcStorageEngine.SQL_STALE_PAYMENT,
+                        new Object[] {now()}, "idempotency_key", "idx_participant_action_time"),
+        new Expectation("异常支付扫描(完成键)", JdbcStorageEngine.SQL_STALE_PAYMENT,
+                        new Object[] {now()}, "done", "PRIMARY"),
+        new Expectation("异常充电扫描(订单)", JdbcStorageEngine.SQL_STALE_CHARGING,
+                        new Object[] {now()}, "charging_order", "idx_status_create"),
+        new Expectation("异常充电扫描(完成键)", JdbcStorageEngine.SQL_STALE_CHARGING,
+                        new Object[] {now()}, "done", "PRIMARY"),
+        new Expectation("占用登记重建", JdbcStorageEngine.SQL_ACTIVE_ORDERS,
+                        new Object[0], "charging_order", "idx_status_create"),
+        new Expectation("按事务查询订单", OrderView.FULL.byTxIdSql(),
+                        new Object[] {"tx"}, "charging_order", "idx_tx_status"),
+        new Expectation("计量检查点查询", JdbcStorageEngine.SQL_METER_CHECKPOINT,
+                        new Object[] {"tx"}, "charging_order", "idx_tx_status"),
+        new Expectation("按事务查询预扣", JdbcStorageEngine.SQL_HOLD_BY_TX,
+                        new Object[] {"tx", "HOLD"}, "payment_pre_hold", "PRIMARY", "idx_tx_id"),
+        new Expectation("事务状态查询", JdbcStorageEngine.SQL_TX_STATUS,
+                        new Object[] {"tx"}, "transaction_record", "PRIMARY", "idx_tx_id"),
+        new Expectation("消息认领", JdbcStorageEngine.SQL_CLAIM_MESSAGES,
+                        new Object[] {"PENDING", now(), 5, now(), new Timestamp(0), new Timestamp(0), "", 100},
+                        "local_message", "idx_status_retry"),
+        new Expectation("重试计划重建", JdbcStorageEngine.SQL_RETRYING_MESSAGES,
+                        new Object[] {"node", 5}, "local_message", "idx_owner_status"),
+        new Expectation("租约预扣汇总", JdbcStorageEngine.SQL_LEASED_HOLD_SUM,
+                        new Object[] {"lease"}, "payment_pre_hold", "idx_lease_status"),
+        new Expectation("过期租约扫描", JdbcStorageEngine.SQL_EXPIRED_LEASES,
+                        new Object[] {now()}, "balance_lease", "idx_status_expire"),
+        new Expectation("未计入积分恢复", JdbcStorageEngine.SQL_UNAPPLIED_POINTS,
+                        new Object[0], "points_transaction", "idx_applied_user"),
+        new Expectation("积分幂等检查", JdbcStorageEngine.SQL_POINTS_ADDED,
+                        new Object[] {"order"}, "points_transaction", "unique_order_id")
+    );
+
+    /**
+     * 校验所有热点查询，返回违规描述，全部命中时返回空列表
+     */
+    public List<String> verify(Connection conn) throws SQLException {
+        List<String> violations = new ArrayList<>();
+        for (Expectation expectation : EXPECTATIONS) {
+            try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + expectation.sql)) {
+                for (int i = 0; i < expectation.params.length; i++) {
+                    pstmt.setObject(i + 1, expectation.params[i]);
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (!expectation.table.equals(rs.getString("table"))) {
+                            continue;
+                        }
+                        String key = rs.getString("key");
+                        if (key == null || !expectation.allowedKeys.contains(key)) {
+                            violations.add(expectation.name + ": 表 " + expectation.table + " 使用索引 " + key +
+                                           "，期望 " + expectation.allowedKeys + "，访问类型 " + rs.getString("type"));
+                        }
+                    }
+                }
+            }
+        }
+        return violations;
+    }
+
+    private static Timestamp now() {
+        return new Timestamp(System.currentTimeMillis());
+    }
+
+    private static class Expectation {
+        final String name;
+        final String sql;
+        final Object[] params;
+        final String table;
+        final List<String> allowedKeys;
+
+        Expectation(String name, String sql, Object[] params, String table, String... allowedKeys) {
+            this.name = name;
+            this.sql = sql;
+            this.params = params;
+            this.table = table;
+            this.allowedKeys = Arrays.asList(allowedKeys);
+        }
+    }
+}
@@ -0,0 +1,1212 @@
+package org.example.storage;
+
+import org.example.model.ChargingOrder;
+import org.example.model.LocalMessage;
+import org.example.model.MeterCheckpoint;
+import org.example.model.PaymentHold;
+import org.example.model.PointsTransaction;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于JDBC的存储引擎，数据保存在MySQL中
+ */
+public class JdbcStorageEngine implements StorageEngine {
+    // 热点查询，IndexPlanVerifier会对这些语句做EXPLAIN校验
+    static final String SQL_STALE_PAYMENT =
+        "SELECT tx_id FROM idempotency_key " +
+        "WHERE participant = 'PAYMENT' AND action = 'TRY' " +
+        "AND create_time < ? " +
+        "AND NOT EXISTS (SELECT 1 FROM idempotency_key done WHERE done.tx_id = idempotency_key.tx_id " +
+        "AND done.participant = 'PAYMENT' AND done.action IN ('CONFIRM', 'CANCEL'))";
+    static final String SQL_STALE_CHARGING =
+        "SELECT tx_id FROM charging_order " +
+        "WHERE status IN ('INIT', 'IN_PROGRESS') " +
+        "AND create_time < ? " +
+        "AND NOT EXISTS (SELECT 1 FROM idempotency_key done WHERE done.tx_id = charging_order.tx_id " +
+        "AND done.participant = 'CHARGING' AND done.action IN ('CONFIRM', 'CANCEL'))";
+    static final String SQL_ACTIVE_ORDERS = OrderView.OCCUPANCY.whereSql("status IN ('INIT', 'IN_PROGRESS')");
+    static final String SQL_HOLD_BY_TX =
+        "SELECT user_id, amount, lease_id FROM payment_pre_hold WHERE tx_id = ? AND status = ?";
+    static final String SQL_METER_CHECKPOINT =
+        "SELECT order_id, energy_kwh, metered_amount, meter_time, meter_stop_time FROM charging_order WHERE tx_id = ?";
+    static final String SQL_SAVE_METER_CHECKPOINT =
+        "UPDATE charging_order SET energy_kwh = ?, metered_amount = ?, meter_time = ?, " +
+        "meter_stop_time = COALESCE(meter_stop_time, ?) WHERE tx_id = ?";
+    static final String SQL_TX_STATUS = "SELECT status FROM transaction_record WHERE tx_id = ?";
+    // 同一状态内按索引(status, next_retry_time, message_id)顺序从游标处扫描一页，只锁定本页认领的行；
+    // 其他认领者锁定的行直接跳过
+    static final String SQL_CLAIM_MESSAGES =
+        "SELECT * FROM local_message " +
+        "WHERE status = ? " +
+        "AND next_retry_time <= ? " +
+        "AND retry_count < ? " +
+        "AND (lease_until IS NULL OR lease_until < ?) " +
+        "AND (next_retry_time > ? OR (next_retry_time = ? AND message_id > ?)) " +
+        "ORDER BY next_retry_time, message_id LIMIT ? FOR UPDATE SKIP LOCKED";
+    static final String SQL_RETRYING_MESSAGES =
+        "SELECT message_id, next_retry_time FROM local_message " +
+        "WHERE owner_node = ? AND status = 'FAILED' AND retry_count < ?";
+    static final String SQL_IDEMPOTENCY_KEY =
+        "SELECT 1 FROM idempotency_key WHERE tx_id = ? AND participant = ? AND action = ? LIMIT 1";
+    static final String SQL_LEASED_HOLD_SUM =
+        "SELECT COALESCE(SUM(amount), 0) FROM payment_pre_hold " +
+        "WHERE lease_id = ? AND status IN ('HOLD', 'CONFIRMED') LOCK IN SHARE MODE";
+    static final String SQL_EXPIRED_LEASES =
+        "SELECT lease_id FROM balance_lease WHERE status = 'ACTIVE' AND expire_time < ?";
+    static final String SQL_UNAPPLIED_POINTS =
+        "SELECT transaction_id, user_id, points FROM points_transaction WHERE applied = 0";
+    static final String SQL_POINTS_ADDED =
+        "SELECT 1 FROM points_transaction " +
+        "WHERE order_id = ? AND type = 'CHARGING_REWARD' AND status = 'COMPLETED' LIMIT 1";
+
+    private final DataSource dataSource;
+    private final Map<Connection, FusedPhase> fusedPhases = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<Connection, List<Runnable>> afterCommitActions =
+        Collections.synchronizedMap(new IdentityHashMap<>());
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong deferredFlushCount = new AtomicLong();
+    private volatile boolean batchStatements;
+    private volatile AsyncAuditLog auditLog;
+
+    public JdbcStorageEngine(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    // ==================== 连接与本地事务 ====================
+
+    @Override
+    public Connection openConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public void begin(Connection conn) throws SQLException {
+        conn.setAutoCommit(false);
+    }
+
+    @Override
+    public void commit(Connection conn) throws SQLException {
+        if (fusedPhases.containsKey(conn)) {
+            // 合并阶段内由exitFusedPhase统一提交
+            return;
+        }
+        conn.commit();
+        commitCount.incrementAndGet();
+        runAfterCommit(conn);
+    }
+
+    @Override
+    public void rollback(Connection conn) throws SQLException {
+        FusedPhase phase = fusedPhases.get(conn);
+        if (phase != null) {
+            phase.clear();
+        }
+        afterCommitActions.remove(conn);
+        conn.rollback();
+    }
+
+    @Override
+    public void afterCommit(Connection conn, Runnable action) {
+        afterCommitActions.computeIfAbsent(conn, c -> new ArrayList<>()).add(action);
+    }
+
+    @Override
+    public boolean inFusedPhase(Connection conn) {
+        return fusedPhases.containsKey(conn);
+    }
+
+    @Override
+    public void enterFusedPhase(Connection conn) throws SQLException {
+        conn.setAutoCommit(false);
+        fusedPhases.put(conn, new FusedPhase());
+    }
+
+    @Override
+    public void exitFusedPhase(Connection conn, boolean commit) throws SQLException {
+        FusedPhase phase = fusedPhases.remove(conn);
+        if (!commit) {
+            afterCommitActions.remove(conn);
+            conn.rollback();
+            return;
+        }
+        flushDeferred(conn, phase);
+        conn.commit();
+        commitCount.incrementAndGet();
+        runAfterCommit(conn);
+    }
+
+    private void runAfterCommit(Connection conn) {
+        List<Runnable> actions = afterCommitActions.remove(conn);
+        if (actions != null) {
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
+    }
+
+    @Override
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * 合并阶段内是否把无返回值的写操作延迟到提交前合并为一次往返发送，
+     * 需要连接URL开启allowMultiQueries
+     */
+    public void setBatchStatements(boolean batchStatements) {
+        this.batchStatements = batchStatements;
+    }
+
+    /**
+     * 设置异步操作日志写入器，设置后payment_log/charging_log不再在业务事务内同步写入，
+     * 幂等判断以idempotency_key为准，不依赖操作日志
+     */
+    public void setAuditLog(AsyncAuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    public AsyncAuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    /**
+     * 关闭异步操作日志写入器，写完缓冲区中的日志
+     */
+    @Override
+    public void close() {
+        AsyncAuditLog log = auditLog;
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * 合并发送延迟写操作的次数
+     */
+    public long getDeferredFlushCount() {
+        return deferredFlushCount.get();
+    }
+
+    // ==================== 用户账户 ====================
+
+    @Override
+    public Double getBalance(Connection conn, String userId) throws SQLException {
+        String sql = "SELECT balance FROM user_account WHERE user_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getDouble("balance");
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Double getBalanceForUpdate(Connection conn, String userId) throws SQLException {
+        String sql = "SELECT balance FROM user_account WHERE user_id = ? FOR UPDATE";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getDouble("balance") : null;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> findAccount(Connection conn, String userId) throws SQLException {
+        return findAccount(conn, userId, "SELECT balance, version FROM user_account WHERE user_id = ?");
+    }
+
+    @Override
+    public Map<String, Object> findAccountForUpdate(Connection conn, String userId) throws SQLException {
+        return findAccount(conn, userId, "SELECT balance, version FROM user_account WHERE user_id = ? FOR UPDATE");
+    }
+
+    private Map<String, Object> findAccount(Connection conn, String userId, String sql) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    Map<String, Object> account = new HashMap<>();
+                    account.put("user_id", userId);
+                    account.put("balance", rs.getDouble("balance"));
+                    account.put("version", rs.getLong("version"));
+                    return account;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean updateBalanceIfVersion(Connection conn, String userId, double newBalance, long expectedVersion)
+        throws SQLException {
+        String sql = "UPDATE user_account SET balance = ?, version = version + 1 WHERE user_id = ? AND version = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setDouble(1, newBalance);
+            pstmt.setString(2, userId);
+            pstmt.setLong(3, expectedVersion);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public boolean deductBalance(Connection conn, String userId, double amount) throws SQLException {
+        String sql = "UPDATE user_account SET balance = balance - ?, version = version + 1 WHERE user_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setDouble(1, amount);
+            pstmt.setString(2, userId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public boolean deductBalanceIfSufficient(Connection conn, String userId, double amount) throws SQLException {
+        String sql = "UPDATE user_account SET balance = balance - ?, version = version + 1 WHERE user_id = ? AND balance >= ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setDouble(1, amount);
+            pstmt.setString(2, userId);
+            pstmt.setDouble(3, amount);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public boolean refundBalance(Connection conn, String userId, double amount) throws SQLException {
+        String sql = "UPDATE user_account SET balance = balance + ?, version = version + 1 WHERE user_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setDouble(1, amount);
+            pstmt.setString(2, userId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public void saveAccount(Connection conn, String userId, double balance) throws SQLException {
+        String sql = "INSERT INTO user_account (user_id, balance) VALUES (?, ?) " +
+                     "ON DUPLICATE KEY UPDATE balance = VALUES(balance), version = version + 1";
+        write(conn, sql, userId, balance);
+    }
+
+    // ==================== 预扣记录 ====================
+
+    @Override
+    public void insertHold(Connection conn, String txId, String userId, double amount, String status,
+                           String leaseId) throws SQLException {
+        String sql = "INSERT INTO payment_pre_hold (tx_id, user_id, amount, status, lease_id) VALUES (?, ?, ?, ?, ?)";
+        write(conn, sql, txId, userId, amount, status, leaseId);
+    }
+
+    @Override
+    public void insertHolds(Connection conn, String userId, Map<String, Double> amountsByTxId, String status)
+        throws SQLException {
+        if (amountsByTxId.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO payment_pre_hold (tx_id, user_id, amount, status) VALUES ");
+        List<Object> params = new ArrayList<>(amountsByTxId.size() * 4);
+        for (Map.Entry<String, Double> entry : amountsByTxId.entrySet()) {
+            sql.append(params.isEmpty() ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+            params.add(entry.getKey());
+            params.add(userId);
+            params.add(entry.getValue());
+            params.add(status);
+        }
+        write(conn, sql.toString(), params.toArray());
+    }
+
+    @Override
+    public PaymentHold findHold(Connection conn, String txId, String status) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, SQL_HOLD_BY_TX)) {
+            pstmt.setString(1, txId);
+            pstmt.setString(2, status);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return new PaymentHold(txId, rs.getString(1), rs.getDouble(2), status, rs.getString(3));
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean updateHoldStatus(Connection conn, String txId, String status) throws SQLException {
+        String sql = "UPDATE payment_pre_hold SET status = ? WHERE tx_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, status);
+            pstmt.setString(2, txId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    // ==================== 余额租约 ====================
+
+    @Override
+    public void insertLease(Connection conn, String leaseId, String userId, long nodeId, double amount,
+                            Timestamp expireTime) throws SQLException {
+        String sql = "INSERT INTO balance_lease (lease_id, user_id, node_id, amount, status, expire_time, create_time) " +
+                     "VALUES (?, ?, ?, ?, 'ACTIVE', ?, ?)";
+        write(conn, sql, leaseId, userId, nodeId, amount, expireTime, new Timestamp(System.currentTimeMillis()));
+    }
+
+    @Override
+    public boolean isLeaseActive(Connection conn, String leaseId) throws SQLException {
+        String sql = "SELECT status FROM balance_lease WHERE lease_id = ? LOCK IN SHARE MODE";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, leaseId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && "ACTIVE".equals(rs.getString(1));
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> lockLease(Connection conn, String leaseId) throws SQLException {
+        String sql = "SELECT * FROM balance_lease WHERE lease_id = ? FOR UPDATE";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, leaseId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    Map<String, Object> lease = new HashMap<>();
+                    lease.put("lease_id", rs.getString("lease_id"));
+                    lease.put("user_id", rs.getString("user_id"));
+                    lease.put("node_id", rs.getLong("node_id"));
+                    lease.put("amount", rs.getDouble("amount"));
+                    lease.put("status", rs.getString("status"));
+                    lease.put("expire_time", rs.getTimestamp("expire_time"));
+                    return lease;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public double sumLeasedHolds(Connection conn, String leaseId) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, SQL_LEASED_HOLD_SUM)) {
+            pstmt.setString(1, leaseId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getDouble(1) : 0;
+            }
+        }
+    }
+
+    @Override
+    public boolean closeLease(Connection conn, String leaseId, String status, double returnedAmount)
+        throws SQLException {
+        String sql = "UPDATE balance_lease SET status = ?, returned_amount = ?, close_time = ? " +
+                     "WHERE lease_id = ? AND status = 'ACTIVE'";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, status);
+            pstmt.setDouble(2, returnedAmount);
+            pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            pstmt.setString(4, leaseId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public List<String> findExpiredLeaseIds(Connection conn, Timestamp cutoff) throws SQLException {
+        return queryTxIds(conn, SQL_EXPIRED_LEASES, cutoff);
+    }
+
+    // ==================== 充电订单 ====================
+
+    @Override
+    public void insertOrder(Connection conn, String orderId, String txId, String chargingPointId, String userId,
+                            double amount, String status) throws SQLException {
+        String sql = "INSERT INTO charging_order (order_id, tx_id, charging_point_id, user_id, amount, status, create_time) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        write(conn, sql, orderId, txId, chargingPointId, userId, amount, status,
+              new Timestamp(System.currentTimeMillis()));
+    }
+
+    @Override
+    public void updateOrderStart(Connection conn, String txId, String status, Timestamp startTime)
+        throws SQLException {
+        String sql = "UPDATE charging_order SET status = ?, start_time = ? WHERE tx_id = ?";
+        write(conn, sql, status, startTime, txId);
+    }
+
+    @Override
+    public boolean completeOrder(Connection conn, String txId) throws SQLException {
+        String sql = "UPDATE charging_order SET status = 'COMPLETED', end_time = ? WHERE tx_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            pstmt.setString(2, txId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public boolean cancelOrder(Connection conn, String txId) throws SQLException {
+        String sql = "UPDATE charging_order SET status = 'CANCELED', cancel_time = ? WHERE tx_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            pstmt.setString(2, txId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public boolean settleOrder(Connection conn, String orderId) throws SQLException {
+        String sql = "UPDATE charging_order SET settlement_status = 'SETTLED', settlement_time = ? " +
+                     "WHERE order_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            pstmt.setString(2, orderId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public ChargingOrder findOrderByTxId(Connection conn, String txId, OrderView view, String... statuses)
+        throws SQLException {
+        String sql = view.byTxIdSql();
+        if (statuses.length > 0) {
+            StringBuilder builder = new StringBuilder(sql).append(" AND status IN (");
+            for (int i = 0; i < statuses.length; i++) {
+                builder.append(i == 0 ? "?" : ", ?");
+            }
+            sql = builder.append(")").toString();
+        }
+
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, txId);
+            for (int i = 0; i < statuses.length; i++) {
+                pstmt.setString(i + 2, statuses[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? view.map(rs, txId, null) : null;
+            }
+        }
+    }
+
+    @Override
+    public ChargingOrder findOrderByOrderId(Connection conn, String orderId, OrderView view) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, view.byOrderIdSql())) {
+            pstmt.setString(1, orderId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? view.map(rs, null, orderId) : null;
+            }
+        }
+    }
+
+    @Override
+    public List<ChargingOrder> lockOrders(Connection conn, List<String> orderIds, OrderView view)
+        throws SQLException {
+        List<ChargingOrder> orders = new ArrayList<>(orderIds.size());
+        if (orderIds.isEmpty()) {
+            return orders;
+        }
+        String sql = view.whereSql("order_id IN (" + placeholders(orderIds.size()) + ") FOR UPDATE");
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            for (int i = 0; i < orderIds.size(); i++) {
+                pstmt.setString(i + 1, orderIds.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    orders.add(view.map(rs, null, null));
+                }
+            }
+        }
+        return orders;
+    }
+
+    @Override
+    public int settleOrders(Connection conn, List<String> orderIds) throws SQLException {
+        if (orderIds.isEmpty()) {
+            return 0;
+        }
+        String sql = "UPDATE charging_order SET settlement_status = 'SETTLED', settlement_time = ? " +
+                     "WHERE order_id IN (" + placeholders(orderIds.size()) + ")";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            for (int i = 0; i < orderIds.size(); i++) {
+                pstmt.setString(i + 2, orderIds.get(i));
+            }
+            return pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public List<ChargingOrder> findActiveOrders(Connection conn) throws SQLException {
+        List<ChargingOrder> orders = new ArrayList<>();
+        try (PreparedStatement pstmt = prepare(conn, SQL_ACTIVE_ORDERS);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                orders.add(OrderView.OCCUPANCY.map(rs, null, null));
+            }
+        }
+        return orders;
+    }
+
+    @Override
+    public List<String> findStaleChargingTxIds(Connection conn, Timestamp cutoff) throws SQLException {
+        return queryTxIds(conn, SQL_STALE_CHARGING, cutoff);
+    }
+
+    // ==================== 充电计量 ====================
+
+    @Override
+    public void saveMeterCheckpoints(Connection conn, List<MeterCheckpoint> checkpoints) throws SQLException {
+        if (checkpoints.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement pstmt = prepare(conn, SQL_SAVE_METER_CHECKPOINT)) {
+            for (MeterCheckpoint checkpoint : checkpoints) {
+                Timestamp meterTime = new Timestamp(checkpoint.getMeterTime());
+                pstmt.setDouble(1, checkpoint.getEnergyKwh());
+                pstmt.setDouble(2, checkpoint.getMeteredAmount());
+                pstmt.setTimestamp(3, meterTime);
+                pstmt.setTimestamp(4, checkpoint.isStopped() ? meterTime : null);
+                pstmt.setString(5, checkpoint.getTxId());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    @Override
+    public MeterCheckpoint findMeterCheckpoint(Connection conn, String txId) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, SQL_METER_CHECKPOINT)) {
+            pstmt.setString(1, txId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Timestamp meterTime = rs.getTimestamp(4);
+                return new MeterCheckpoint(txId, rs.getString(1), rs.getDouble(2), rs.getDouble(3),
+                                           meterTime == null ? 0 : meterTime.getTime(), rs.getTimestamp(5) != null);
+            }
+        }
+    }
+
+    // ==================== 操作日志 ====================
+
+    @Override
+    public void insertPaymentLog(Connection conn, String txId, String userId, double amount,
+                                 String action, String status, String remark) throws SQLException {
+        if (auditLog != null) {
+            appendAudit(conn, new AuditRecord(AuditRecord.PAYMENT_LOG, txId, null, null, userId, amount,
+                                              action, status, remark, System.currentTimeMillis()));
+            return;
+        }
+        String sql = "INSERT INTO payment_log (tx_id, user_id, amount, action, status, remark, create_time) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        write(conn, sql, txId, userId, amount, action, status, remark, new Timestamp(System.currentTimeMillis()));
+    }
+
+    @Override
+    public List<String> findStalePaymentTxIds(Connection conn, Timestamp cutoff) throws SQLException {
+        return queryTxIds(conn, SQL_STALE_PAYMENT, cutoff);
+    }
+
+    @Override
+    public void insertChargingLog(Connection conn, String txId, String orderId, String chargingPointId,
+                                  String userId, double amount, String action, String status, String remark)
+        throws SQLException {
+        if (auditLog != null) {
+            appendAudit(conn, new AuditRecord(AuditRecord.CHARGING_LOG, txId, orderId, chargingPointId, userId,
+                                              amount, action, status, remark, System.currentTimeMillis()));
+            return;
+        }
+        String sql = "INSERT INTO charging_log (tx_id, order_id, charging_point_id, user_id, amount, action, status, remark, create_time) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        write(conn, sql, txId, orderId, chargingPointId, userId, amount, action, status, remark,
+              new Timestamp(System.currentTimeMillis()));
+    }
+
+    // 成功日志随本地事务提交后入队，事务回滚时丢弃；失败日志描述的是已回滚的操作，立即入队
+    private void appendAudit(Connection conn, AuditRecord record) {
+        if ("SUCCESS".equals(record.getStatus())) {
+            afterCommit(conn, () -> auditLog.append(record));
+        } else {
+            auditLog.append(record);
+        }
+    }
+
+    // ==================== 幂等键 ====================
+
+    @Override
+    public boolean insertIdempotencyKey(Connection conn, String txId, String participant, String action)
+        throws SQLException {
+        String sql = "INSERT INTO idempotency_key (tx_id, participant, action, create_time) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, txId);
+            pstmt.setString(2, participant);
+            pstmt.setString(3, action);
+            pstmt.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean hasIdempotencyKey(Connection conn, String txId, String participant, String action)
+        throws SQLException {
+        return exists(conn, SQL_IDEMPOTENCY_KEY, txId, participant, action);
+    }
+
+    // ==================== 事务记录 ====================
+
+    @Override
+    public void insertTransaction(Connection conn, String txId, String status) throws SQLException {
+        String sql = "INSERT INTO transaction_record (tx_id, status, create_time) VALUES (?, ?, ?)";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, txId);
+            pstmt.setString(2, status);
+            pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public String getTransactionStatus(Connection conn, String txId) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, SQL_TX_STATUS)) {
+            pstmt.setString(1, txId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString("status") : null;
+            }
+        }
+    }
+
+    @Override
+    public void updateTransactionStatus(Connection conn, String txId, String status) throws SQLException {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        if ("COMMITTED".equals(status)) {
+            write(conn, "UPDATE transaction_record SET status = ?, update_time = ?, commit_time = ? WHERE tx_id = ?",
+                  status, now, now, txId);
+        } else if ("ROLLED_BACK".equals(status)) {
+            write(conn, "UPDATE transaction_record SET status = ?, update_time = ?, rollback_time = ? WHERE tx_id = ?",
+                  status, now, now, txId);
+        } else {
+            write(conn, "UPDATE transaction_record SET status = ?, update_time = ? WHERE tx_id = ?",
+                  status, now, txId);
+        }
+    }
+
+    // ==================== 本地消息 ====================
+
+    @Override
+    public void insertMessage(Connection conn, LocalMessage message) throws SQLException {
+        String sql = "INSERT INTO local_message " +
+                     "(message_id, business_type, business_id, message_content, status, " +
+                     "retry_count, next_retry_time, create_time, update_time) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, message.getMessageId());
+            pstmt.setString(2, message.getBusinessType());
+            pstmt.setString(3, message.getBusinessId());
+            pstmt.setString(4, message.getMessageContent());
+            pstmt.setString(5, message.getStatus());
+            pstmt.setInt(6, message.getRetryCount());
+            pstmt.setTimestamp(7, message.getNextRetryTime());
+            pstmt.setTimestamp(8, message.getCreateTime());
+            pstmt.setTimestamp(9, message.getUpdateTime());
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void insertMessages(Connection conn, List<LocalMessage> messages) throws SQLException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder(
+            "INSERT INTO local_message (message_id, business_type, business_id, message_content, status, " +
+            "retry_count, next_retry_time, create_time, update_time) VALUES ");
+        for (int i = 0; i < messages.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        try (PreparedStatement pstmt = prepare(conn, sql.toString())) {
+            int column = 1;
+            for (LocalMessage message : messages) {
+                pstmt.setString(column++, message.getMessageId());
+                pstmt.setString(column++, message.getBusinessType());
+                pstmt.setString(column++, message.getBusinessId());
+                pstmt.setString(column++, message.getMessageContent());
+                pstmt.setString(column++, message.getStatus());
+                pstmt.setInt(column++, message.getRetryCount());
+                pstmt.setTimestamp(column++, message.getNextRetryTime());
+                pstmt.setTimestamp(column++, message.getCreateTime());
+                pstmt.setTimestamp(column++, message.getUpdateTime());
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public List<LocalMessage> claimMessages(Connection conn, String owner, String status, Timestamp now,
+                                            Timestamp leaseUntil, int maxRetryCount, Timestamp afterRetryTime,
+                                            String afterMessageId, int limit) throws SQLException {
+        List<LocalMessage> messages = new ArrayList<>();
+        try (PreparedStatement pstmt = prepare(conn, SQL_CLAIM_MESSAGES)) {
+            pstmt.setString(1, status);
+            pstmt.setTimestamp(2, now);
+            pstmt.setInt(3, maxRetryCount);
+            pstmt.setTimestamp(4, now);
+            pstmt.setTimestamp(5, afterRetryTime);
+            pstmt.setTimestamp(6, afterRetryTime);
+            pstmt.setString(7, afterMessageId);
+            pstmt.setInt(8, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(toMessage(rs));
+                }
+            }
+        }
+        leaseMessages(conn, messages, owner, leaseUntil);
+        return messages;
+    }
+
+    @Override
+    public List<LocalMessage> claimMessagesById(Connection conn, String owner, List<String> messageIds, Timestamp now,
+                                                Timestamp leaseUntil, int maxRetryCount) throws SQLException {
+        List<LocalMessage> messages = new ArrayList<>();
+        if (messageIds.isEmpty()) {
+            return messages;
+        }
+        String sql = "SELECT * FROM local_message WHERE message_id IN (" + placeholders(messageIds.size()) + ") " +
+                     "AND (status = 'PENDING' OR (status = 'FAILED' AND next_retry_time <= ?)) AND retry_count < ? " +
+                     "AND (lease_until IS NULL OR lease_until < ?) FOR UPDATE SKIP LOCKED";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            int column = 1;
+            for (String messageId : messageIds) {
+                pstmt.setString(column++, messageId);
+            }
+            pstmt.setTimestamp(column++, now);
+            pstmt.setInt(column++, maxRetryCount);
+            pstmt.setTimestamp(column, now);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(toMessage(rs));
+                }
+            }
+        }
+        leaseMessages(conn, messages, owner, leaseUntil);
+        return messages;
+    }
+
+    // 给已锁定的消息写入认领者和租约到期时间
+    private void leaseMessages(Connection conn, List<LocalMessage> messages, String owner, Timestamp leaseUntil)
+        throws SQLException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE local_message SET owner_node = ?, lease_until = ? " +
+                     "WHERE message_id IN (" + placeholders(messages.size()) + ")";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, owner);
+            pstmt.setTimestamp(2, leaseUntil);
+            for (int i = 0; i < messages.size(); i++) {
+                pstmt.setString(i + 3, messages.get(i).getMessageId());
+            }
+            pstmt.executeUpdate();
+        }
+        for (LocalMessage message : messages) {
+            message.setOwnerNode(owner);
+            message.setLeaseUntil(leaseUntil);
+        }
+    }
+
+    private static LocalMessage toMessage(ResultSet rs) throws SQLException {
+        LocalMessage message = new LocalMessage();
+        message.setMessageId(rs.getString("message_id"));
+        message.setBusinessType(rs.getString("business_type"));
+        message.setBusinessId(rs.getString("business_id"));
+        message.setMessageContent(rs.getString("message_content"));
+        message.setStatus(rs.getString("status"));
+        message.setRetryCount(rs.getInt("retry_count"));
+        message.setNextRetryTime(rs.getTimestamp("next_retry_time"));
+        message.setCreateTime(rs.getTimestamp("create_time"));
+        message.setUpdateTime(rs.getTimestamp("update_time"));
+        message.setOwnerNode(rs.getString("owner_node"));
+        message.setLeaseUntil(rs.getTimestamp("lease_until"));
+        return message;
+    }
+
+    @Override
+    public void markMessageConfirmed(Connection conn, String messageId) throws SQLException {
+        String sql = "UPDATE local_message SET status = 'CONFIRMED', update_time = ?, " +
+                     "owner_node = NULL, lease_until = NULL WHERE message_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            pstmt.setString(2, messageId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void markMessagesConfirmed(Connection conn, List<String> messageIds) throws SQLException {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE local_message SET status = 'CONFIRMED', update_time = ?, owner_node = NULL, " +
+                     "lease_until = NULL WHERE message_id IN (" + placeholders(messageIds.size()) + ")";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            for (int i = 0; i < messageIds.size(); i++) {
+                pstmt.setString(i + 2, messageIds.get(i));
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void markMessageFailed(Connection conn, String messageId, String reason) throws SQLException {
+        String sql = "UPDATE local_message SET status = 'FAILED', update_time = ?, remark = ?, " +
+                     "lease_until = NULL WHERE message_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            pstmt.setString(2, reason);
+            pstmt.setString(3, messageId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void updateMessageRetry(Connection conn, String messageId, int retryCount, Timestamp nextRetryTime)
+        throws SQLException {
+        String sql = "UPDATE local_message SET status = 'FAILED', retry_count = ?, next_retry_time = ?, " +
+                     "update_time = ?, lease_until = NULL WHERE message_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setInt(1, retryCount);
+            pstmt.setTimestamp(2, nextRetryTime);
+            pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            pstmt.setString(4, messageId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public Map<String, Timestamp> findRetryingMessages(Connection conn, String owner, int maxRetryCount)
+        throws SQLException {
+        Map<String, Timestamp> deadlines = new HashMap<>();
+        try (PreparedStatement pstmt = prepare(conn, SQL_RETRYING_MESSAGES)) {
+            pstmt.setString(1, owner);
+            pstmt.setInt(2, maxRetryCount);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    deadlines.put(rs.getString("message_id"), rs.getTimestamp("next_retry_time"));
+                }
+            }
+        }
+        return deadlines;
+    }
+
+    // ==================== 积分 ====================
+
+    @Override
+    public boolean isPointsAdded(Connection conn, String orderId) throws SQLException {
+        return exists(conn, SQL_POINTS_ADDED, orderId);
+    }
+
+    @Override
+    public Set<String> findPointsAddedOrderIds(Connection conn, List<String> orderIds) throws SQLException {
+        Set<String> added = new HashSet<>();
+        if (orderIds.isEmpty()) {
+            return added;
+        }
+        String sql = "SELECT order_id FROM points_transaction WHERE order_id IN (" + placeholders(orderIds.size()) +
+                     ") AND type = 'CHARGING_REWARD' AND status = 'COMPLETED'";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            for (int i = 0; i < orderIds.size(); i++) {
+                pstmt.setString(i + 1, orderIds.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    added.add(rs.getString(1));
+                }
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public void insertPointsTransaction(Connection conn, PointsTransaction transaction) throws SQLException {
+        String sql = "INSERT INTO points_transaction " +
+                     "(transaction_id, user_id, order_id, points, type, status, create_time, applied) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, transaction.getTransactionId());
+            pstmt.setString(2, transaction.getUserId());
+            pstmt.setString(3, transaction.getOrderId());
+            pstmt.setInt(4, transaction.getPoints());
+            pstmt.setString(5, transaction.getType());
+            pstmt.setString(6, transaction.getStatus());
+            pstmt.setTimestamp(7, transaction.getCreateTime());
+            pstmt.setBoolean(8, transaction.isApplied());
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void insertPointsTransactions(Connection conn, List<PointsTransaction> transactions)
+        throws SQLException {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder(
+            "INSERT INTO points_transaction " +
+            "(transaction_id, user_id, order_id, points, type, status, create_time, complete_time, applied) VALUES ");
+        for (int i = 0; i < transactions.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        try (PreparedStatement pstmt = prepare(conn, sql.toString())) {
+            int column = 1;
+            for (PointsTransaction transaction : transactions) {
+                pstmt.setString(column++, transaction.getTransactionId());
+                pstmt.setString(column++, transaction.getUserId());
+                pstmt.setString(column++, transaction.getOrderId());
+                pstmt.setInt(column++, transaction.getPoints());
+                pstmt.setString(column++, transaction.getType());
+                pstmt.setString(column++, transaction.getStatus());
+                pstmt.setTimestamp(column++, transaction.getCreateTime());
+                pstmt.setTimestamp(column++, transaction.getCompleteTime());
+                pstmt.setBoolean(column++, transaction.isApplied());
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void addUserPoints(Connection conn, Map<String, Integer> pointsByUser) throws SQLException {
+        if (pointsByUser.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO user_points (user_id, total_points, update_time) VALUES ");
+        for (int i = 0; i < pointsByUser.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE total_points = total_points + VALUES(total_points), " +
+                   "update_time = VALUES(update_time)");
+        try (PreparedStatement pstmt = prepare(conn, sql.toString())) {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            int column = 1;
+            for (Map.Entry<String, Integer> entry : pointsByUser.entrySet()) {
+                pstmt.setString(column++, entry.getKey());
+                pstmt.setInt(column++, entry.getValue());
+                pstmt.setTimestamp(column++, now);
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void addUserPoints(Connection conn, String userId, int points) throws SQLException {
+        String sql = "INSERT INTO user_points (user_id, total_points, update_time) " +
+                     "VALUES (?, ?, ?) " +
+                     "ON DUPLICATE KEY UPDATE total_points = total_points + ?, update_time = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            pstmt.setString(1, userId);
+            pstmt.setInt(2, points);
+            pstmt.setTimestamp(3, now);
+            pstmt.setInt(4, points);
+            pstmt.setTimestamp(5, now);
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void completePointsTransaction(Connection conn, String transactionId) throws SQLException {
+        String sql = "UPDATE points_transaction SET status = 'COMPLETED', complete_time = ? WHERE transaction_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            pstmt.setString(2, transactionId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public List<PointsTransaction> findUnappliedPointsTransactions(Connection conn) throws SQLException {
+        List<PointsTransaction> transactions = new ArrayList<>();
+        try (PreparedStatement pstmt = prepare(conn, SQL_UNAPPLIED_POINTS);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                PointsTransaction transaction = new PointsTransaction();
+                transaction.setTransactionId(rs.getString(1));
+                transaction.setUserId(rs.getString(2));
+                transaction.setPoints(rs.getInt(3));
+                transaction.setApplied(false);
+                transactions.add(transaction);
+            }
+        }
+        return transactions;
+    }
+
+    @Override
+    public List<PointsTransaction> markPointsApplied(Connection conn, List<String> transactionIds) throws SQLException {
+        List<PointsTransaction> transactions = new ArrayList<>();
+        if (transactionIds.isEmpty()) {
+            return transactions;
+        }
+        // 先锁定还未计入的记录，其他节点正在计入的记录等它提交后不再返回
+        String sql = "SELECT transaction_id, user_id, points FROM points_transaction " +
+                     "WHERE transaction_id IN (" + placeholders(transactionIds.size()) + ") AND applied = 0 FOR UPDATE";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            for (int i = 0; i < transactionIds.size(); i++) {
+                pstmt.setString(i + 1, transactionIds.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    PointsTransaction transaction = new PointsTransaction();
+                    transaction.setTransactionId(rs.getString(1));
+                    transaction.setUserId(rs.getString(2));
+                    transaction.setPoints(rs.getInt(3));
+                    transaction.setApplied(true);
+                    transactions.add(transaction);
+                }
+            }
+        }
+        if (transactions.isEmpty()) {
+            return transactions;
+        }
+        String update = "UPDATE points_transaction SET applied = 1 " +
+                        "WHERE transaction_id IN (" + placeholders(transactions.size()) + ") AND applied = 0";
+        try (PreparedStatement pstmt = prepare(conn, update)) {
+            for (int i = 0; i < transactions.size(); i++) {
+                pstmt.setString(i + 1, transactions.get(i).getTransactionId());
+            }
+            pstmt.executeUpdate();
+        }
+        return transactions;
+    }
+
+    @Override
+    public int getUserPoints(Connection conn, String userId) throws SQLException {
+        String sql = "SELECT total_points FROM user_points WHERE user_id = ?";
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setString(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt("total_points") : 0;
+            }
+        }
+    }
+
+    // ==================== 工具方法 ====================
+
+    // 存在性查询：SELECT 1 ... LIMIT 1，命中第一行即返回，不计数
+    private boolean exists(Connection conn, String sql, String... params) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setString(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // 查询第一列的ID列表
+    private List<String> queryTxIds(Connection conn, String sql, Timestamp cutoff) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            pstmt.setTimestamp(1, cutoff);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    // 执行语句前先发送之前延迟的写操作，保证语句按程序顺序生效
+    private PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        if (!fusedPhases.isEmpty()) {
+            flushDeferred(conn, fusedPhases.get(conn));
+        }
+        return conn.prepareStatement(sql);
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.toString();
+    }
+
+    // 无返回值的写操作：合并阶段开启语句合并时延迟到提交前发送，否则立即执行
+    private void write(Connection conn, String sql, Object... params) throws SQLException {
+        FusedPhase phase = batchStatements ? fusedPhases.get(conn) : null;
+        if (phase != null) {
+            phase.add(sql, params);
+            return;
+        }
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    // 把延迟的写操作拼成一条多语句请求，一次往返发送
+    private void flushDeferred(Connection conn, FusedPhase phase) throws SQLException {
+        if (phase == null || phase.sqls.isEmpty()) {
+            return;
+        }
+
+        String sql = String.join(";\n", phase.sqls);
+        List<Object> params = phase.params;
+        phase.clear();
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+            // 逐个读取结果，后面语句的错误在这里抛出
+            pstmt.execute();
+            while (pstmt.getMoreResults() || pstmt.getUpdateCount() != -1) {
+                // 写语句没有结果集，只需消费更新计数
+            }
+        }
+        deferredFlushCount.incrementAndGet();
+    }
+
+    /**
+     * 合并阶段的状态：阶段内延迟发送的写操作
+     */
+    private static class FusedPhase {
+        List<String> sqls = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+
+        void add(String sql, Object... values) {
+            sqls.add(sql);
+            params.addAll(Arrays.asList(values));
+        }
+
+        void clear() {
+            sqls = new ArrayList<>();
+            params = new ArrayList<>();
+        }
+    }
+}
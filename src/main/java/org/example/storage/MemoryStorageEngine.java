@@ -0,0 +1,897 @@
+package org.example.storage;
+
+import org.example.model.ChargingOrder;
+import org.example.model.LocalMessage;
+import org.example.model.MeterCheckpoint;
+import org.example.model.PaymentHold;
+import org.example.model.PointsTransaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * 基于并发内存结构的存储引擎，用于压测、边缘节点和脱离数据库验证协调逻辑
+ *
+ * 每条写操作本身是原子的；本地事务通过线程级的撤销日志实现，begin之后的写操作才记录撤销，
+ * commit清空撤销日志，rollback按逆序执行撤销。与数据库的自动提交一样，事务外的写操作立即生效，不会被回滚。不提供事务间隔离，
+ * 只有getBalanceForUpdate模拟行锁，锁持有到本地事务结束。
+ */
+public class MemoryStorageEngine implements StorageEngine {
+    private final ConcurrentHashMap<String, Double> accounts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Map<String, Object>> holds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Map<String, Object>> leases = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Map<String, Object>> orders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> orderIdsByTx = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> transactions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LocalMessage> messages = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PointsTransaction> pointsTransactions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> pointsTxIdsByOrder = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> userPoints = new ConcurrentHashMap<>();
+    private final LongAdder logCount = new LongAdder();
+    private final ThreadLocal<Deque<Runnable>> undoLog = ThreadLocal.withInitial(ArrayDeque::new);
+    private final ThreadLocal<Boolean> inTransaction = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private final ThreadLocal<Boolean> fused = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private final ThreadLocal<List<Runnable>> afterCommitActions = ThreadLocal.withInitial(ArrayList::new);
+    private final ConcurrentHashMap<String, Long> idempotencyKeys = new ConcurrentHashMap<>(); // tx_id|participant|action -> 时间
+    private final LongAdder commitCount = new LongAdder();
+    // getBalanceForUpdate使用的行锁，本地事务结束时释放
+    private final ConcurrentHashMap<String, ReentrantLock> rowLocks = new ConcurrentHashMap<>();
+    private final ThreadLocal<List<ReentrantLock>> heldRowLocks = ThreadLocal.withInitial(ArrayList::new);
+
+    /**
+     * 创建或覆盖用户账户，用于初始化测试数据
+     */
+    public void createAccount(String userId, double balance) {
+        accounts.put(userId, balance);
+    }
+
+    /**
+     * 已写入的支付和充电日志条数
+     */
+    public long getLogCount() {
+        return logCount.sum();
+    }
+
+    // ==================== 连接与本地事务 ====================
+
+    @Override
+    public Connection openConnection() {
+        return null;
+    }
+
+    @Override
+    public void begin(Connection conn) {
+        if (fused.get()) {
+            // 合并阶段内各参与方的begin属于同一个本地事务，保留已记录的撤销
+            return;
+        }
+        undoLog.get().clear();
+        inTransaction.set(Boolean.TRUE);
+    }
+
+    @Override
+    public void commit(Connection conn) {
+        if (fused.get()) {
+            // 合并阶段内由exitFusedPhase统一提交
+            return;
+        }
+        undoLog.get().clear();
+        inTransaction.set(Boolean.FALSE);
+        releaseRowLocks();
+        commitCount.increment();
+
+        List<Runnable> actions = afterCommitActions.get();
+        if (!actions.isEmpty()) {
+            List<Runnable> pending = new ArrayList<>(actions);
+            actions.clear();
+            for (Runnable action : pending) {
+                action.run();
+            }
+        }
+    }
+
+    @Override
+    public void rollback(Connection conn) {
+        Deque<Runnable> undo = undoLog.get();
+        while (!undo.isEmpty()) {
+            undo.pop().run();
+        }
+        inTransaction.set(Boolean.FALSE);
+        releaseRowLocks();
+        afterCommitActions.get().clear();
+    }
+
+    private void releaseRowLocks() {
+        List<ReentrantLock> locks = heldRowLocks.get();
+        for (ReentrantLock lock : locks) {
+            lock.unlock();
+        }
+        locks.clear();
+    }
+
+    @Override
+    public boolean inFusedPhase(Connection conn) {
+        return fused.get();
+    }
+
+    @Override
+    public void afterCommit(Connection conn, Runnable action) {
+        afterCommitActions.get().add(action);
+    }
+
+    @Override
+    public void enterFusedPhase(Connection conn) {
+        fused.set(Boolean.TRUE);
+    }
+
+    @Override
+    public void exitFusedPhase(Connection conn, boolean commit) {
+        fused.set(Boolean.FALSE);
+        if (commit) {
+            commit(conn);
+        } else {
+            rollback(conn);
+        }
+    }
+
+    @Override
+    public long getCommitCount() {
+        return commitCount.sum();
+    }
+
+    // 只在本地事务或合并阶段内记录撤销，事务外的写操作相当于自动提交
+    private void recordUndo(Runnable action) {
+        if (inTransaction.get() || fused.get()) {
+            undoLog.get().push(action);
+        }
+    }
+
+    // 插入新行，主键冲突时与数据库一样抛出异常
+    private <V> void insertRow(ConcurrentHashMap<String, V> table, String key, V row, String tableName)
+        throws SQLException {
+        if (table.putIfAbsent(key, row) != null) {
+            throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + key + "' for " + tableName);
+        }
+        recordUndo(() -> table.remove(key, row));
+    }
+
+    // 基于旧行生成新行并原子替换，行不存在时返回false
+    private <V> boolean updateRow(ConcurrentHashMap<String, V> table, String key, UnaryOperator<V> change) {
+        if (key == null) {
+            return false;
+        }
+        while (true) {
+            V old = table.get(key);
+            if (old == null) {
+                return false;
+            }
+            V row = change.apply(old);
+            if (table.replace(key, old, row)) {
+                recordUndo(() -> table.replace(key, row, old));
+                return true;
+            }
+        }
+    }
+
+    // ==================== 用户账户 ====================
+
+    @Override
+    public Double getBalance(Connection conn, String userId) {
+        return accounts.get(userId);
+    }
+
+    @Override
+    public Double getBalanceForUpdate(Connection conn, String userId) {
+        ReentrantLock lock = rowLocks.computeIfAbsent(userId, id -> new ReentrantLock());
+        if (!lock.isHeldByCurrentThread()) {
+            lock.lock();
+            heldRowLocks.get().add(lock);
+        }
+        return accounts.get(userId);
+    }
+
+    // 内存实现以余额值本身作为版本：余额未变即视为版本未变
+    @Override
+    public Map<String, Object> findAccount(Connection conn, String userId) {
+        Double balance = accounts.get(userId);
+        if (balance == null) {
+            return null;
+        }
+        Map<String, Object> account = new HashMap<>();
+        account.put("user_id", userId);
+        account.put("balance", balance);
+        account.put("version", Double.doubleToLongBits(balance));
+        return account;
+    }
+
+    @Override
+    public Map<String, Object> findAccountForUpdate(Connection conn, String userId) {
+        return findAccount(conn, userId);
+    }
+
+    @Override
+    public boolean updateBalanceIfVersion(Connection conn, String userId, double newBalance, long expectedVersion) {
+        Double expected = Double.longBitsToDouble(expectedVersion);
+        if (!accounts.replace(userId, expected, newBalance)) {
+            return false;
+        }
+        double delta = newBalance - expected;
+        recordUndo(() -> accounts.computeIfPresent(userId, (id, balance) -> balance - delta));
+        return true;
+    }
+
+    @Override
+    public boolean deductBalance(Connection conn, String userId, double amount) {
+        return adjustBalance(userId, -amount);
+    }
+
+    @Override
+    public boolean deductBalanceIfSufficient(Connection conn, String userId, double amount) {
+        boolean[] deducted = {false};
+        accounts.computeIfPresent(userId, (id, balance) -> {
+            if (balance < amount) {
+                return balance;
+            }
+            deducted[0] = true;
+            return balance - amount;
+        });
+        if (deducted[0]) {
+            recordUndo(() -> accounts.computeIfPresent(userId, (id, balance) -> balance + amount));
+        }
+        return deducted[0];
+    }
+
+    @Override
+    public boolean refundBalance(Connection conn, String userId, double amount) {
+        return adjustBalance(userId, amount);
+    }
+
+    @Override
+    public void saveAccount(Connection conn, String userId, double balance) {
+        Double old = accounts.put(userId, balance);
+        recordUndo(() -> {
+            if (old == null) {
+                accounts.remove(userId, balance);
+            } else {
+                accounts.put(userId, old);
+            }
+        });
+    }
+
+    private boolean adjustBalance(String userId, double delta) {
+        if (accounts.computeIfPresent(userId, (id, balance) -> balance + delta) == null) {
+            return false;
+        }
+        // 撤销时反向调整，不覆盖其他事务在此期间的修改
+        recordUndo(() -> accounts.computeIfPresent(userId, (id, balance) -> balance - delta));
+        return true;
+    }
+
+    // ==================== 预扣记录 ====================
+
+    @Override
+    public void insertHold(Connection conn, String txId, String userId, double amount, String status,
+                           String leaseId) throws SQLException {
+        Map<String, Object> hold = new HashMap<>();
+        hold.put("tx_id", txId);
+        hold.put("user_id", userId);
+        hold.put("amount", amount);
+        hold.put("status", status);
+        hold.put("lease_id", leaseId);
+        insertRow(holds, txId, hold, "payment_pre_hold");
+    }
+
+    @Override
+    public void insertHolds(Connection conn, String userId, Map<String, Double> amountsByTxId, String status)
+        throws SQLException {
+        for (Map.Entry<String, Double> entry : amountsByTxId.entrySet()) {
+            insertHold(conn, entry.getKey(), userId, entry.getValue(), status);
+        }
+    }
+
+    @Override
+    public PaymentHold findHold(Connection conn, String txId, String status) {
+        Map<String, Object> hold = holds.get(txId);
+        if (hold == null || !status.equals(hold.get("status"))) {
+            return null;
+        }
+        return new PaymentHold(txId, (String) hold.get("user_id"), (double) hold.get("amount"), status,
+                               (String) hold.get("lease_id"));
+    }
+
+    @Override
+    public boolean updateHoldStatus(Connection conn, String txId, String status) {
+        return updateRow(holds, txId, hold -> {
+            Map<String, Object> updated = new HashMap<>(hold);
+            updated.put("status", status);
+            return updated;
+        });
+    }
+
+    // ==================== 余额租约 ====================
+
+    @Override
+    public void insertLease(Connection conn, String leaseId, String userId, long nodeId, double amount,
+                            Timestamp expireTime) throws SQLException {
+        Map<String, Object> lease = new HashMap<>();
+        lease.put("lease_id", leaseId);
+        lease.put("user_id", userId);
+        lease.put("node_id", nodeId);
+        lease.put("amount", amount);
+        lease.put("status", "ACTIVE");
+        lease.put("expire_time", expireTime);
+        insertRow(leases, leaseId, lease, "balance_lease");
+    }
+
+    @Override
+    public boolean isLeaseActive(Connection conn, String leaseId) {
+        Map<String, Object> lease = leases.get(leaseId);
+        return lease != null && "ACTIVE".equals(lease.get("status"));
+    }
+
+    @Override
+    public Map<String, Object> lockLease(Connection conn, String leaseId) {
+        Map<String, Object> lease = leases.get(leaseId);
+        return lease == null ? null : new HashMap<>(lease);
+    }
+
+    @Override
+    public double sumLeasedHolds(Connection conn, String leaseId) {
+        double total = 0;
+        for (Map<String, Object> hold : holds.values()) {
+            Object status = hold.get("status");
+            if (leaseId.equals(hold.get("lease_id")) && ("HOLD".equals(status) || "CONFIRMED".equals(status))) {
+                total += (double) hold.get("amount");
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public boolean closeLease(Connection conn, String leaseId, String status, double returnedAmount) {
+        Map<String, Object> lease = leases.get(leaseId);
+        if (lease == null || !"ACTIVE".equals(lease.get("status"))) {
+            return false;
+        }
+        return updateRow(leases, leaseId, old -> {
+            Map<String, Object> updated = new HashMap<>(old);
+            updated.put("status", status);
+            updated.put("returned_amount", returnedAmount);
+            return updated;
+        });
+    }
+
+    @Override
+    public List<String> findExpiredLeaseIds(Connection conn, Timestamp cutoff) {
+        List<String> leaseIds = new ArrayList<>();
+        for (Map<String, Object> lease : leases.values()) {
+            if ("ACTIVE".equals(lease.get("status")) && ((Timestamp) lease.get("expire_time")).before(cutoff)) {
+                leaseIds.add((String) lease.get("lease_id"));
+            }
+        }
+        return leaseIds;
+    }
+
+    // ==================== 充电订单 ====================
+
+    @Override
+    public void insertOrder(Connection conn, String orderId, String txId, String chargingPointId, String userId,
+                            double amount, String status) throws SQLException {
+        Map<String, Object> order = new HashMap<>();
+        order.put("order_id", orderId);
+        order.put("tx_id", txId);
+        order.put("charging_point_id", chargingPointId);
+        order.put("user_id", userId);
+        order.put("amount", amount);
+        order.put("status", status);
+        order.put("settlement_status", "UNSETTLED");
+        order.put("create_time", new Timestamp(System.currentTimeMillis()));
+        insertRow(orders, orderId, order, "charging_order");
+
+        // 同一事务可能因重试产生多个订单，与SQL按tx_id查询一样只取其中一个
+        if (orderIdsByTx.putIfAbsent(txId, orderId) == null) {
+            recordUndo(() -> orderIdsByTx.remove(txId, orderId));
+        }
+    }
+
+    @Override
+    public void updateOrderStart(Connection conn, String txId, String status, Timestamp startTime) {
+        updateOrder(orderIdsByTx.get(txId), "status", status, "start_time", startTime);
+    }
+
+    @Override
+    public boolean completeOrder(Connection conn, String txId) {
+        return updateOrder(orderIdsByTx.get(txId), "status", "COMPLETED",
+                           "end_time", new Timestamp(System.currentTimeMillis()));
+    }
+
+    @Override
+    public boolean cancelOrder(Connection conn, String txId) {
+        return updateOrder(orderIdsByTx.get(txId), "status", "CANCELED",
+                           "cancel_time", new Timestamp(System.currentTimeMillis()));
+    }
+
+    @Override
+    public boolean settleOrder(Connection conn, String orderId) {
+        return updateOrder(orderId, "settlement_status", "SETTLED",
+                           "settlement_time", new Timestamp(System.currentTimeMillis()));
+    }
+
+    private boolean updateOrder(String orderId, String column1, Object value1, String column2, Object value2) {
+        return updateRow(orders, orderId, order -> {
+            Map<String, Object> updated = new HashMap<>(order);
+            updated.put(column1, value1);
+            updated.put(column2, value2);
+            return updated;
+        });
+    }
+
+    @Override
+    public ChargingOrder findOrderByTxId(Connection conn, String txId, OrderView view, String... statuses) {
+        String orderId = orderIdsByTx.get(txId);
+        Map<String, Object> order = orderId == null ? null : orders.get(orderId);
+        if (order == null) {
+            return null;
+        }
+        if (statuses.length > 0 && !Arrays.asList(statuses).contains(order.get("status"))) {
+            return null;
+        }
+        return toOrder(order);
+    }
+
+    @Override
+    public ChargingOrder findOrderByOrderId(Connection conn, String orderId, OrderView view) {
+        Map<String, Object> order = orders.get(orderId);
+        return order == null ? null : toOrder(order);
+    }
+
+    @Override
+    public List<ChargingOrder> lockOrders(Connection conn, List<String> orderIds, OrderView view) {
+        List<ChargingOrder> result = new ArrayList<>(orderIds.size());
+        for (String orderId : orderIds) {
+            Map<String, Object> order = orders.get(orderId);
+            if (order != null) {
+                result.add(toOrder(order));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int settleOrders(Connection conn, List<String> orderIds) {
+        int updated = 0;
+        for (String orderId : orderIds) {
+            if (settleOrder(conn, orderId)) {
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    // 内存中没有传输开销，总是返回全部列
+    private static ChargingOrder toOrder(Map<String, Object> order) {
+        return new ChargingOrder((String) order.get("order_id"), (String) order.get("tx_id"),
+                                 (String) order.get("charging_point_id"), (String) order.get("user_id"),
+                                 (double) order.get("amount"), (String) order.get("status"),
+                                 (String) order.get("settlement_status"));
+    }
+
+    @Override
+    public List<ChargingOrder> findActiveOrders(Connection conn) {
+        List<ChargingOrder> active = new ArrayList<>();
+        for (Map<String, Object> order : orders.values()) {
+            Object status = order.get("status");
+            if ("INIT".equals(status) || "IN_PROGRESS".equals(status)) {
+                active.add(toOrder(order));
+            }
+        }
+        return active;
+    }
+
+    @Override
+    public List<String> findStaleChargingTxIds(Connection conn, Timestamp cutoff) {
+        List<String> txIds = new ArrayList<>();
+        for (Map<String, Object> order : orders.values()) {
+            String status = (String) order.get("status");
+            String txId = (String) order.get("tx_id");
+            if (("INIT".equals(status) || "IN_PROGRESS".equals(status))
+                && ((Timestamp) order.get("create_time")).before(cutoff)
+                && !idempotencyKeys.containsKey(txId + "|CHARGING|CONFIRM")
+                && !idempotencyKeys.containsKey(txId + "|CHARGING|CANCEL")) {
+                txIds.add(txId);
+            }
+        }
+        return txIds;
+    }
+
+    // ==================== 充电计量 ====================
+
+    @Override
+    public void saveMeterCheckpoints(Connection conn, List<MeterCheckpoint> checkpoints) {
+        for (MeterCheckpoint checkpoint : checkpoints) {
+            Timestamp meterTime = new Timestamp(checkpoint.getMeterTime());
+            updateRow(orders, orderIdsByTx.get(checkpoint.getTxId()), order -> {
+                Map<String, Object> updated = new HashMap<>(order);
+                updated.put("energy_kwh", checkpoint.getEnergyKwh());
+                updated.put("metered_amount", checkpoint.getMeteredAmount());
+                updated.put("meter_time", meterTime);
+                if (checkpoint.isStopped()) {
+                    updated.putIfAbsent("meter_stop_time", meterTime);
+                }
+                return updated;
+            });
+        }
+    }
+
+    @Override
+    public MeterCheckpoint findMeterCheckpoint(Connection conn, String txId) {
+        String orderId = orderIdsByTx.get(txId);
+        Map<String, Object> order = orderId == null ? null : orders.get(orderId);
+        if (order == null) {
+            return null;
+        }
+        Timestamp meterTime = (Timestamp) order.get("meter_time");
+        return new MeterCheckpoint(txId, orderId, (double) order.getOrDefault("energy_kwh", 0.0),
+                                   (double) order.getOrDefault("metered_amount", 0.0),
+                                   meterTime == null ? 0 : meterTime.getTime(), order.containsKey("meter_stop_time"));
+    }
+
+    // ==================== 操作日志 ====================
+
+    @Override
+    public void insertPaymentLog(Connection conn, String txId, String userId, double amount,
+                                 String action, String status, String remark) {
+        insertLog();
+    }
+
+    @Override
+    public List<String> findStalePaymentTxIds(Connection conn, Timestamp cutoff) {
+        List<String> txIds = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : idempotencyKeys.entrySet()) {
+            String key = entry.getKey();
+            if (key.endsWith("|PAYMENT|TRY") && entry.getValue() < cutoff.getTime()) {
+                String txId = key.substring(0, key.length() - "|PAYMENT|TRY".length());
+                if (!idempotencyKeys.containsKey(txId + "|PAYMENT|CONFIRM")
+                    && !idempotencyKeys.containsKey(txId + "|PAYMENT|CANCEL")) {
+                    txIds.add(txId);
+                }
+            }
+        }
+        return txIds;
+    }
+
+    @Override
+    public void insertChargingLog(Connection conn, String txId, String orderId, String chargingPointId,
+                                  String userId, double amount, String action, String status, String remark) {
+        insertLog();
+    }
+
+    // 日志内容不保留，只计数；幂等检查和异常扫描以幂等键为准
+    private void insertLog() {
+        logCount.increment();
+        recordUndo(logCount::decrement);
+    }
+
+    // ==================== 幂等键 ====================
+
+    @Override
+    public boolean insertIdempotencyKey(Connection conn, String txId, String participant, String action) {
+        String key = txId + "|" + participant + "|" + action;
+        try {
+            insertRow(idempotencyKeys, key, System.currentTimeMillis(), "idempotency_key");
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean hasIdempotencyKey(Connection conn, String txId, String participant, String action) {
+        return idempotencyKeys.containsKey(txId + "|" + participant + "|" + action);
+    }
+
+    // ==================== 事务记录 ====================
+
+    @Override
+    public void insertTransaction(Connection conn, String txId, String status) throws SQLException {
+        insertRow(transactions, txId, status, "transaction_record");
+    }
+
+    @Override
+    public String getTransactionStatus(Connection conn, String txId) {
+        return transactions.get(txId);
+    }
+
+    @Override
+    public void updateTransactionStatus(Connection conn, String txId, String status) {
+        updateRow(transactions, txId, old -> status);
+    }
+
+    // ==================== 本地消息 ====================
+
+    @Override
+    public void insertMessage(Connection conn, LocalMessage message) throws SQLException {
+        insertRow(messages, message.getMessageId(), copyOf(message), "local_message");
+    }
+
+    @Override
+    public void insertMessages(Connection conn, List<LocalMessage> messages) throws SQLException {
+        for (LocalMessage message : messages) {
+            insertMessage(conn, message);
+        }
+    }
+
+    @Override
+    public List<LocalMessage> claimMessages(Connection conn, String owner, String status, Timestamp now,
+                                            Timestamp leaseUntil, int maxRetryCount, Timestamp afterRetryTime,
+                                            String afterMessageId, int limit) {
+        // 只保留键集顺序最前的limit条候选，堆顶是其中最靠后的一条
+        Comparator<LocalMessage> keyset =
+            Comparator.comparing(LocalMessage::getNextRetryTime).thenComparing(LocalMessage::getMessageId);
+        PriorityQueue<LocalMessage> nearest = new PriorityQueue<>(Math.max(limit, 1), keyset.reversed());
+        for (LocalMessage message : messages.values()) {
+            if (status.equals(message.getStatus()) && isClaimable(message, now, maxRetryCount)
+                && isAfter(message, afterRetryTime, afterMessageId)) {
+                if (nearest.size() < limit) {
+                    nearest.add(message);
+                } else if (keyset.compare(message, nearest.peek()) < 0) {
+                    nearest.poll();
+                    nearest.add(message);
+                }
+            }
+        }
+        List<LocalMessage> candidates = new ArrayList<>(nearest);
+        candidates.sort(keyset);
+
+        List<LocalMessage> claimed = new ArrayList<>();
+        for (LocalMessage old : candidates) {
+            LocalMessage row = claim(old, owner, leaseUntil);
+            if (row != null) {
+                claimed.add(row);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public List<LocalMessage> claimMessagesById(Connection conn, String owner, List<String> messageIds, Timestamp now,
+                                                Timestamp leaseUntil, int maxRetryCount) {
+        List<LocalMessage> claimed = new ArrayList<>();
+        for (String messageId : messageIds) {
+            LocalMessage old = messages.get(messageId);
+            // 与数据库实现一致，PENDING消息不检查next_retry_time
+            if (old != null && ("PENDING".equals(old.getStatus())
+                                ? old.getRetryCount() < maxRetryCount
+                                  && (old.getLeaseUntil() == null || old.getLeaseUntil().before(now))
+                                : "FAILED".equals(old.getStatus()) && isClaimable(old, now, maxRetryCount))) {
+                LocalMessage row = claim(old, owner, leaseUntil);
+                if (row != null) {
+                    claimed.add(row);
+                }
+            }
+        }
+        return claimed;
+    }
+
+    // 比较并替换，并发认领时同一条消息只有一个认领者成功；失败返回null
+    private LocalMessage claim(LocalMessage old, String owner, Timestamp leaseUntil) {
+        LocalMessage row = copyOf(old);
+        row.setOwnerNode(owner);
+        row.setLeaseUntil(leaseUntil);
+        if (!messages.replace(old.getMessageId(), old, row)) {
+            return null;
+        }
+        recordUndo(() -> messages.replace(old.getMessageId(), row, old));
+        return copyOf(row);
+    }
+
+    private static boolean isClaimable(LocalMessage message, Timestamp now, int maxRetryCount) {
+        return !message.getNextRetryTime().after(now)
+               && message.getRetryCount() < maxRetryCount
+               && (message.getLeaseUntil() == null || message.getLeaseUntil().before(now));
+    }
+
+    private static boolean isAfter(LocalMessage message, Timestamp afterRetryTime, String afterMessageId) {
+        int order = message.getNextRetryTime().compareTo(afterRetryTime);
+        return order > 0 || (order == 0 && message.getMessageId().compareTo(afterMessageId) > 0);
+    }
+
+    @Override
+    public void markMessageConfirmed(Connection conn, String messageId) {
+        updateMessage(messageId, message -> {
+            message.setStatus("CONFIRMED");
+            message.setOwnerNode(null);
+        });
+    }
+
+    @Override
+    public void markMessagesConfirmed(Connection conn, List<String> messageIds) {
+        for (String messageId : messageIds) {
+            markMessageConfirmed(conn, messageId);
+        }
+    }
+
+    @Override
+    public void markMessageFailed(Connection conn, String messageId, String reason) {
+        updateMessage(messageId, message -> message.setStatus("FAILED"));
+    }
+
+    @Override
+    public void updateMessageRetry(Connection conn, String messageId, int retryCount, Timestamp nextRetryTime) {
+        updateMessage(messageId, message -> {
+            message.setStatus("FAILED");
+            message.setRetryCount(retryCount);
+            message.setNextRetryTime(nextRetryTime);
+        });
+    }
+
+    @Override
+    public Map<String, Timestamp> findRetryingMessages(Connection conn, String owner, int maxRetryCount) {
+        Map<String, Timestamp> deadlines = new HashMap<>();
+        for (LocalMessage message : messages.values()) {
+            if (owner.equals(message.getOwnerNode()) && "FAILED".equals(message.getStatus())
+                && message.getRetryCount() < maxRetryCount) {
+                deadlines.put(message.getMessageId(), message.getNextRetryTime());
+            }
+        }
+        return deadlines;
+    }
+
+    // 确认、失败和重试更新都会清除租约，确认同时清除认领者
+    private void updateMessage(String messageId, Consumer<LocalMessage> change) {
+        updateRow(messages, messageId, message -> {
+            LocalMessage updated = copyOf(message);
+            change.accept(updated);
+            updated.setLeaseUntil(null);
+            updated.setUpdateTime(new Timestamp(System.currentTimeMillis()));
+            return updated;
+        });
+    }
+
+    private static LocalMessage copyOf(LocalMessage message) {
+        LocalMessage copy = new LocalMessage();
+        copy.setMessageId(message.getMessageId());
+        copy.setBusinessType(message.getBusinessType());
+        copy.setBusinessId(message.getBusinessId());
+        copy.setMessageContent(message.getMessageContent());
+        copy.setStatus(message.getStatus());
+        copy.setRetryCount(message.getRetryCount());
+        copy.setNextRetryTime(message.getNextRetryTime());
+        copy.setCreateTime(message.getCreateTime());
+        copy.setUpdateTime(message.getUpdateTime());
+        copy.setOwnerNode(message.getOwnerNode());
+        copy.setLeaseUntil(message.getLeaseUntil());
+        return copy;
+    }
+
+    // ==================== 积分 ====================
+
+    @Override
+    public boolean isPointsAdded(Connection conn, String orderId) {
+        String transactionId = pointsTxIdsByOrder.get(orderId);
+        PointsTransaction transaction = transactionId == null ? null : pointsTransactions.get(transactionId);
+        return transaction != null && "CHARGING_REWARD".equals(transaction.getType())
+               && "COMPLETED".equals(transaction.getStatus());
+    }
+
+    @Override
+    public Set<String> findPointsAddedOrderIds(Connection conn, List<String> orderIds) {
+        Set<String> added = new HashSet<>();
+        for (String orderId : orderIds) {
+            if (isPointsAdded(conn, orderId)) {
+                added.add(orderId);
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public void insertPointsTransaction(Connection conn, PointsTransaction transaction) throws SQLException {
+        String orderId = transaction.getOrderId();
+        String transactionId = transaction.getTransactionId();
+        if (pointsTxIdsByOrder.putIfAbsent(orderId, transactionId) != null) {
+            throw new SQLIntegrityConstraintViolationException("Duplicate entry '" + orderId + "' for unique_order_id");
+        }
+        recordUndo(() -> pointsTxIdsByOrder.remove(orderId, transactionId));
+        insertRow(pointsTransactions, transactionId, copyOf(transaction), "points_transaction");
+    }
+
+    @Override
+    public void insertPointsTransactions(Connection conn, List<PointsTransaction> transactions)
+        throws SQLException {
+        for (PointsTransaction transaction : transactions) {
+            insertPointsTransaction(conn, transaction);
+        }
+    }
+
+    @Override
+    public void addUserPoints(Connection conn, Map<String, Integer> pointsByUser) {
+        for (Map.Entry<String, Integer> entry : pointsByUser.entrySet()) {
+            addUserPoints(conn, entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void addUserPoints(Connection conn, String userId, int points) {
+        userPoints.merge(userId, points, Integer::sum);
+        recordUndo(() -> userPoints.merge(userId, -points, Integer::sum));
+    }
+
+    @Override
+    public void completePointsTransaction(Connection conn, String transactionId) {
+        updateRow(pointsTransactions, transactionId, transaction -> {
+            PointsTransaction updated = copyOf(transaction);
+            updated.setStatus("COMPLETED");
+            updated.setCompleteTime(new Timestamp(System.currentTimeMillis()));
+            return updated;
+        });
+    }
+
+    @Override
+    public List<PointsTransaction> findUnappliedPointsTransactions(Connection conn) {
+        List<PointsTransaction> result = new ArrayList<>();
+        for (PointsTransaction transaction : pointsTransactions.values()) {
+            if (!transaction.isApplied()) {
+                result.add(copyOf(transaction));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<PointsTransaction> markPointsApplied(Connection conn, List<String> transactionIds) {
+        List<PointsTransaction> marked = new ArrayList<>();
+        for (String transactionId : transactionIds) {
+            // 比较并替换，并发标记同一条记录时只有一个成功
+            PointsTransaction old = pointsTransactions.get(transactionId);
+            if (old == null || old.isApplied()) {
+                continue;
+            }
+            PointsTransaction row = copyOf(old);
+            row.setApplied(true);
+            if (pointsTransactions.replace(transactionId, old, row)) {
+                recordUndo(() -> pointsTransactions.replace(transactionId, row, old));
+                marked.add(copyOf(row));
+            }
+        }
+        return marked;
+    }
+
+    @Override
+    public int getUserPoints(Connection conn, String userId) {
+        return userPoints.getOrDefault(userId, 0);
+    }
+
+    private static PointsTransaction copyOf(PointsTransaction transaction) {
+        PointsTransaction copy = new PointsTransaction();
+        copy.setTransactionId(transaction.getTransactionId());
+        copy.setUserId(transaction.getUserId());
+        copy.setOrderId(transaction.getOrderId());
+        copy.setPoints(transaction.getPoints());
+        copy.setType(transaction.getType());
+        copy.setStatus(transaction.getStatus());
+        copy.setCreateTime(transaction.getCreateTime());
+        copy.setCompleteTime(transaction.getCompleteTime());
+        copy.setRemark(transaction.getRemark());
+        copy.setApplied(transaction.isApplied());
+        return copy;
+    }
+}
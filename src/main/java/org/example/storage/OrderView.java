@@ -0,0 +1,103 @@
+package org.example.storage;
+
+import org.example.model.ChargingOrder;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 充电订单查询的列投影，每个调用点只读取需要的列
+ *
+ * 每个投影在初始化时生成按事务ID和按订单ID查询的SQL，以及按列位置读取的行映射表，
+ * 映射时不按列名查找，也不装箱金额。
+ */
+public enum OrderView {
+    /** 订单ID和状态 */
+    STATUS("order_id", "status"),
+    /** Confirm/Cancel记录操作日志所需的列 */
+    PARTICIPANT("order_id", "charging_point_id", "user_id", "amount"),
+    /** 结算所需的列 */
+    SETTLEMENT("order_id", "user_id", "amount", "status", "settlement_status"),
+    /** 充电桩占用登记所需的列 */
+    OCCUPANCY("order_id", "tx_id", "charging_point_id", "user_id", "status"),
+    /** 全部业务列 */
+    FULL("order_id", "tx_id", "charging_point_id", "user_id", "amount", "status", "settlement_status");
+
+    private static final int ORDER_ID = 0;
+    private static final int TX_ID = 1;
+    private static final int CHARGING_POINT_ID = 2;
+    private static final int USER_ID = 3;
+    private static final int AMOUNT = 4;
+    private static final int STATUS_COLUMN = 5;
+    private static final int SETTLEMENT_STATUS = 6;
+
+    private final int[] fields;
+    private final String select;
+    private final String byTxIdSql;
+    private final String byOrderIdSql;
+
+    OrderView(String... columns) {
+        this.fields = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            fields[i] = fieldOf(columns[i]);
+        }
+        this.select = "SELECT " + String.join(", ", columns) + " FROM charging_order WHERE ";
+        this.byTxIdSql = select + "tx_id = ?";
+        this.byOrderIdSql = select + "order_id = ?";
+    }
+
+    /**
+     * 按事务ID查询的SQL，可以追加状态条件
+     */
+    public String byTxIdSql() {
+        return byTxIdSql;
+    }
+
+    public String byOrderIdSql() {
+        return byOrderIdSql;
+    }
+
+    /**
+     * 按任意条件查询的SQL
+     */
+    String whereSql(String condition) {
+        return select + condition;
+    }
+
+    /**
+     * 读取当前行，txId/orderId为查询条件中已知的值，投影中没有对应列时使用
+     */
+    ChargingOrder map(ResultSet rs, String txId, String orderId) throws SQLException {
+        String chargingPointId = null;
+        String userId = null;
+        double amount = 0;
+        String status = null;
+        String settlementStatus = null;
+        for (int i = 0; i < fields.length; i++) {
+            int column = i + 1;
+            switch (fields[i]) {
+                case ORDER_ID: orderId = rs.getString(column); break;
+                case TX_ID: txId = rs.getString(column); break;
+                case CHARGING_POINT_ID: chargingPointId = rs.getString(column); break;
+                case USER_ID: userId = rs.getString(column); break;
+                case AMOUNT: amount = rs.getDouble(column); break;
+                case STATUS_COLUMN: status = rs.getString(column); break;
+                default: settlementStatus = rs.getString(column); break;
+            }
+        }
+        return new ChargingOrder(orderId, txId, chargingPointId, userId, amount, status, settlementStatus);
+    }
+
+    private static int fieldOf(String column) {
+        switch (column) {
+            case "order_id": return ORDER_ID;
+            case "tx_id": return TX_ID;
+            case "charging_point_id": return CHARGING_POINT_ID;
+            case "user_id": return USER_ID;
+            case "amount": return AMOUNT;
+            case "status": return STATUS_COLUMN;
+            case "settlement_status": return SETTLEMENT_STATUS;
+            default: throw new IllegalArgumentException("未知的订单列: " + column);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.example.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个版本的表结构变更，由若干按顺序执行的步骤组成
+ *
+ * 每个步骤都需要可重复执行：MySQL的DDL会隐式提交，迁移中途失败后
+ * 版本号不会记录，下次启动会从该版本的第一个步骤重新执行。
+ */
+public class SchemaMigration {
+
+    /**
+     * 迁移步骤
+     */
+    public interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private final int version;
+    private final String description;
+    private final List<Step> steps;
+
+    public SchemaMigration(int version, String description, Step... steps) {
+        this.version = version;
+        this.description = description;
+        this.steps = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(steps)));
+    }
+
+    public int getVersion() { return version; }
+    public String getDescription() { return description; }
+    public List<Step> getSteps() { return steps; }
+
+    /**
+     * 执行一条DDL，DDL本身需要带IF NOT EXISTS等保护
+     */
+    public static Step sql(String ddl) {
+        return conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(ddl);
+            }
+        };
+    }
+
+    /**
+     * 列不存在时增加列
+     */
+    public static Step addColumn(String table, String column, String definition) {
+        return conn -> {
+            String sql = "SELECT COUNT(*) FROM information_schema.columns " +
+                         "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, table);
+                pstmt.setString(2, column);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next() && rs.getInt(1) > 0) {
+                        return;
+                    }
+                }
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            }
+        };
+    }
+
+    /**
+     * 不存在以相同列为前缀的索引时创建索引，避免与主键或已有索引重复
+     */
+    public static Step index(String table, String indexName, String... columns) {
+        return conn -> {
+            if (hasIndexWithPrefix(conn, table, columns)) {
+                return;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE INDEX " + indexName + " ON " + table + " (" + String.join(", ", columns) + ")");
+            }
+        };
+    }
+
+    private static boolean hasIndexWithPrefix(Connection conn, String table, String... columns) throws SQLException {
+        String sql = "SELECT index_name, column_name FROM information_schema.statistics " +
+                     "WHERE table_schema = DATABASE() AND table_name = ? ORDER BY index_name, seq_in_index";
+        List<String> current = new ArrayList<>();
+        String currentIndex = null;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String indexName = rs.getString(1);
+                    if (!indexName.equals(currentIndex)) {
+                        if (startsWith(current, columns)) {
+                            return true;
+                        }
+                        currentIndex = indexName;
+                        current.clear();
+                    }
+                    current.add(rs.getString(2));
+                }
+            }
+        }
+        return startsWith(current, columns);
+    }
+
+    private static boolean startsWith(List<String> indexColumns, String... columns) {
+        if (indexColumns.size() < columns.length) {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!indexColumns.get(i).equalsIgnoreCase(columns[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
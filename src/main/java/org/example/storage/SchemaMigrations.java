@@ -0,0 +1,209 @@
+package org.example.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.example.storage.SchemaMigration.addColumn;
+import static org.example.storage.SchemaMigration.index;
+import static org.example.storage.SchemaMigration.sql;
+
+/**
+ * 所有表结构版本，按版本号递增排列，新的变更只能追加在末尾
+ */
+public final class SchemaMigrations {
+
+    private SchemaMigrations() {}
+
+    public static List<SchemaMigration> all() {
+        return MIGRATIONS;
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).getVersion();
+    }
+
+    private static final List<SchemaMigration> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+        new SchemaMigration(1, "TCC基础表",
+            sql("CREATE TABLE IF NOT EXISTS user_account (" +
+                "user_id VARCHAR(50) PRIMARY KEY," +
+                "balance DECIMAL(12,2) NOT NULL DEFAULT 0," +
+                "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                "update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+                ")"),
+            sql("CREATE TABLE IF NOT EXISTS payment_pre_hold (" +
+                "tx_id VARCHAR(50) PRIMARY KEY," +
+                "user_id VARCHAR(50) NOT NULL," +
+                "amount DECIMAL(12,2) NOT NULL," +
+                "status VARCHAR(20) NOT NULL," +
+                "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")"),
+            sql("CREATE TABLE IF NOT EXISTS payment_log (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                "tx_id VARCHAR(50) NOT NULL," +
+                "user_id VARCHAR(50)," +
+                "amount DECIMAL(12,2)," +
+                "action VARCHAR(20) NOT NULL," +
+                "status VARCHAR(20) NOT NULL," +
+                "remark VARCHAR(255)," +
+                "create_time TIMESTAMP NOT NULL" +
+                ")"),
+            sql("CREATE TABLE IF NOT EXISTS charging_order (" +
+                "order_id VARCHAR(50) PRIMARY KEY," +
+                "tx_id VARCHAR(50) NOT NULL," +
+                "charging_point_id VARCHAR(50)," +
+                "user_id VARCHAR(50) NOT NULL," +
+                "amount DECIMAL(12,2) NOT NULL," +
+                "status VARCHAR(20) NOT NULL," +
+                "create_time TIMESTAMP NOT NULL," +
+                "start_time TIMESTAMP NULL," +
+                "end_time TIMESTAMP NULL," +
+                "cancel_time TIMESTAMP NULL" +
+                ")"),
+            sql("CREATE TABLE IF NOT EXISTS charging_log (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                "tx_id VARCHAR(50) NOT NULL," +
+                "order_id VARCHAR(50)," +
+                "charging_point_id VARCHAR(50)," +
+                "user_id VARCHAR(50)," +
+                "amount DECIMAL(12,2)," +
+                "action VARCHAR(20) NOT NULL," +
+                "status VARCHAR(20) NOT NULL," +
+                "remark VARCHAR(255)," +
+                "create_time TIMESTAMP NOT NULL" +
+                ")"),
+            sql("CREATE TABLE IF NOT EXISTS transaction_record (" +
+                "tx_id VARCHAR(50) PRIMARY KEY," +
+                "status VARCHAR(20) NOT NULL," +
+                "create_time TIMESTAMP NOT NULL," +
+                "update_time TIMESTAMP NULL," +
+                "commit_time TIMESTAMP NULL," +
+                "rollback_time TIMESTAMP NULL" +
+                ")")),
+
+        new SchemaMigration(2, "积分表和本地消息表",
+            // 用户积分表
+            sql("CREATE TABLE IF NOT EXISTS user_points (" +
+                "user_id VARCHAR(50) PRIMARY KEY," +
+                "total_points INT NOT NULL DEFAULT 0," +
+                "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                "update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP," +
+                "FOREIGN KEY (user_id) REFERENCES user_account(user_id)" +
+                ")"),
+            // 积分交易记录表
+            sql("CREATE TABLE IF NOT EXISTS points_transaction (" +
+                "transaction_id VARCHAR(50) PRIMARY KEY," +
+                "user_id VARCHAR(50) NOT NULL," +
+                "order_id VARCHAR(50) NOT NULL," +
+                "points INT NOT NULL," +
+                "type VARCHAR(50) NOT NULL," +
+                "status VARCHAR(20) NOT NULL," +
+                "create_time TIMESTAMP NOT NULL," +
+                "complete_time TIMESTAMP NULL," +
+                "remark VARCHAR(255)," +
+                "FOREIGN KEY (user_id) REFERENCES user_account(user_id)," +
+                "UNIQUE KEY unique_order_id (order_id)," +
+                "INDEX idx_user_id (user_id)" +
+                ")"),
+            // 本地消息表
+            sql("CREATE TABLE IF NOT EXISTS local_message (" +
+                "message_id VARCHAR(50) PRIMARY KEY," +
+                "business_type VARCHAR(50) NOT NULL," +
+                "business_id VARCHAR(50) NOT NULL," +
+                "message_content TEXT NOT NULL," +
+                "status VARCHAR(20) NOT NULL," +
+                "retry_count INT NOT NULL DEFAULT 0," +
+                "next_retry_time TIMESTAMP NOT NULL," +
+                "create_time TIMESTAMP NOT NULL," +
+                "update_time TIMESTAMP NOT NULL," +
+                "remark VARCHAR(255)," +
+                "INDEX idx_status_retry (status, next_retry_time)," +
+                "INDEX idx_business (business_type, business_id)" +
+                ")")),
+
+        new SchemaMigration(3, "充电订单增加结算状态",
+            addColumn("charging_order", "settlement_status", "VARCHAR(20) DEFAULT 'UNSETTLED'"),
+            addColumn("charging_order", "settlement_time", "TIMESTAMP NULL")),
+
+        new SchemaMigration(4, "幂等检查和异常扫描的覆盖索引",
+            // 幂等检查: WHERE tx_id = ? AND action = ? AND status = 'SUCCESS'
+            index("payment_log", "idx_tx_action_status", "tx_id", "action", "status"),
+            index("charging_log", "idx_tx_action_status", "tx_id", "action", "status"),
+            // 异常支付扫描: WHERE status = 'SUCCESS' AND action = 'TRY' AND create_time < ?，
+            // 以及NOT IN子查询 WHERE action IN (...) AND status = 'SUCCESS'，带上tx_id后无需回表
+            index("payment_log", "idx_action_status_time", "action", "status", "create_time", "tx_id"),
+            index("charging_log", "idx_action_status_tx", "action", "status", "tx_id"),
+            // 按事务查询订单: WHERE tx_id = ? [AND status IN (...)]
+            index("charging_order", "idx_tx_status", "tx_id", "status"),
+            // 异常充电扫描: WHERE status IN ('INIT', 'IN_PROGRESS') AND create_time < ?
+            index("charging_order", "idx_status_create", "status", "create_time", "tx_id"),
+            // 预扣记录按事务查询，新建的表主键已覆盖
+            index("payment_pre_hold", "idx_tx_id", "tx_id"),
+            index("transaction_record", "idx_tx_id", "tx_id")),
+
+        new SchemaMigration(5, "参与方幂等键表",
+            sql("CREATE TABLE IF NOT EXISTS idempotency_key (" +
+                "tx_id VARCHAR(50) NOT NULL," +
+                "participant VARCHAR(20) NOT NULL," +
+                "action VARCHAR(20) NOT NULL," +
+                "create_time TIMESTAMP NOT NULL," +
+                "PRIMARY KEY (tx_id, participant, action)" +
+                ")"),
+            // 从已有的成功日志回填，升级后已处理过的操作仍能识别
+            sql("INSERT IGNORE INTO idempotency_key (tx_id, participant, action, create_time) " +
+                "SELECT tx_id, 'PAYMENT', action, MIN(create_time) FROM payment_log " +
+                "WHERE status = 'SUCCESS' GROUP BY tx_id, action"),
+            sql("INSERT IGNORE INTO idempotency_key (tx_id, participant, action, create_time) " +
+                "SELECT tx_id, 'CHARGING', action, MIN(create_time) FROM charging_log " +
+                "WHERE status = 'SUCCESS' GROUP BY tx_id, action")),
+
+        new SchemaMigration(6, "异常扫描改用幂等键",
+            // 异常支付扫描: WHERE participant = 'PAYMENT' AND action = 'TRY' AND create_time < ?，
+            // NOT EXISTS子查询按主键(tx_id, participant, action)查找完成键；操作日志改为异步写入后不再参与扫描
+            index("idempotency_key", "idx_participant_action_time", "participant", "action", "create_time")),
+
+        new SchemaMigration(7, "余额租约",
+            sql("CREATE TABLE IF NOT EXISTS balance_lease (" +
+                "lease_id VARCHAR(50) PRIMARY KEY," +
+                "user_id VARCHAR(50) NOT NULL," +
+                "node_id INT NOT NULL," +
+                "amount DECIMAL(12,2) NOT NULL," +
+                "returned_amount DECIMAL(12,2) NULL," +
+                "status VARCHAR(20) NOT NULL," +
+                "expire_time TIMESTAMP NOT NULL," +
+                "create_time TIMESTAMP NOT NULL," +
+                "close_time TIMESTAMP NULL," +
+                // 过期租约扫描: WHERE status = 'ACTIVE' AND expire_time < ?
+                "INDEX idx_status_expire (status, expire_time)," +
+                "INDEX idx_user_status (user_id, status)" +
+                ")"),
+            addColumn("payment_pre_hold", "lease_id", "VARCHAR(50) NULL"),
+            // 归还租约时汇总: WHERE lease_id = ? AND status IN ('HOLD', 'CONFIRMED')
+            index("payment_pre_hold", "idx_lease_status", "lease_id", "status", "amount")),
+
+        new SchemaMigration(8, "账户乐观锁版本号",
+            addColumn("user_account", "version", "BIGINT NOT NULL DEFAULT 0")),
+
+        new SchemaMigration(9, "充电计量检查点",
+            // 计量检查点按tx_id批量更新，走idx_tx_status
+            addColumn("charging_order", "energy_kwh", "DECIMAL(14,3) NULL"),
+            addColumn("charging_order", "metered_amount", "DECIMAL(12,2) NULL"),
+            addColumn("charging_order", "meter_time", "TIMESTAMP NULL"),
+            addColumn("charging_order", "meter_stop_time", "TIMESTAMP NULL")),
+
+        new SchemaMigration(10, "积分延迟累加",
+            // 0表示积分还未计入user_points，已有记录都已计入
+            addColumn("points_transaction", "applied", "TINYINT NOT NULL DEFAULT 1"),
+            // 启动恢复: WHERE applied = 0
+            index("points_transaction", "idx_applied_user", "applied", "user_id")),
+
+        new SchemaMigration(11, "消息认领租约",
+            // 认领扫描仍走idx_status_retry，租约条件在索引范围内过滤
+            addColumn("local_message", "owner_node", "VARCHAR(64) NULL"),
+            addColumn("local_message", "lease_until", "TIMESTAMP NULL")),
+
+        new SchemaMigration(12, "消息重试时间轮重建",
+            // 启动重建: WHERE owner_node = ? AND status = 'FAILED' AND retry_count < ?
+            index("local_message", "idx_owner_status", "owner_node", "status", "next_retry_time"))
+    ));
+}
@@ -0,0 +1,129 @@
+package org.example.storage;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 版本化表结构迁移器
+ *
+ * 已应用的版本记录在schema_version表中，启动时只需一次查询确认版本，
+ * 表结构已是最新时不执行任何DDL。多个节点同时启动时用MySQL命名锁串行化迁移。
+ */
+public class SchemaMigrator {
+    private static final String LOCK_NAME = "charge_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+    private static final int ER_NO_SUCH_TABLE = 1146;
+
+    private final DataSource dataSource;
+    private final List<SchemaMigration> migrations;
+
+    public SchemaMigrator(DataSource dataSource) {
+        this(dataSource, SchemaMigrations.all());
+    }
+
+    public SchemaMigrator(DataSource dataSource, List<SchemaMigration> migrations) {
+        this.dataSource = dataSource;
+        this.migrations = migrations;
+    }
+
+    /**
+     * 执行未应用的迁移，返回迁移后的版本号
+     */
+    public int migrate() throws SQLException {
+        int latest = migrations.get(migrations.size() - 1).getVersion();
+
+        try (Connection conn = dataSource.getConnection()) {
+            int current = currentVersion(conn);
+            if (current >= latest) {
+                System.out.println("表结构已是最新版本: " + current);
+                return current;
+            }
+
+            acquireLock(conn);
+            try {
+                // 拿到锁后重新读取，其他节点可能已经完成迁移
+                createVersionTable(conn);
+                current = currentVersion(conn);
+                for (SchemaMigration migration : migrations) {
+                    if (migration.getVersion() <= current) {
+                        continue;
+                    }
+                    System.out.println("执行表结构迁移 V" + migration.getVersion() + ": " + migration.getDescription());
+                    for (SchemaMigration.Step step : migration.getSteps()) {
+                        step.apply(conn);
+                    }
+                    recordVersion(conn, migration);
+                    current = migration.getVersion();
+                }
+            } finally {
+                releaseLock(conn);
+            }
+
+            System.out.println("表结构迁移完成，当前版本: " + current);
+            return current;
+        }
+    }
+
+    /**
+     * 当前已应用的版本，版本表不存在时返回0
+     */
+    public int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            if (e.getErrorCode() == ER_NO_SUCH_TABLE) {
+                return 0;
+            }
+            throw e;
+        }
+    }
+
+    private void createVersionTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                         "version INT PRIMARY KEY," +
+                         "description VARCHAR(200) NOT NULL," +
+                         "applied_time TIMESTAMP NOT NULL" +
+                         ")");
+        }
+    }
+
+    private void recordVersion(Connection conn, SchemaMigration migration) throws SQLException {
+        String sql = "INSERT INTO schema_version (version, description, applied_time) VALUES (?, ?, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, migration.getVersion());
+            pstmt.setString(2, migration.getDescription());
+            pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            pstmt.executeUpdate();
+        }
+    }
+
+    private void acquireLock(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("等待表结构迁移锁超时");
+                }
+            }
+        }
+    }
+
+    private void releaseLock(Connection conn) {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.executeQuery().close();
+        } catch (SQLException e) {
+            // 连接关闭时命名锁会自动释放
+            System.err.println("释放表结构迁移锁失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package org.example.storage;
+
+import org.example.model.ChargingOrder;
+import org.example.model.LocalMessage;
+import org.example.model.MeterCheckpoint;
+import org.example.model.PaymentHold;
+import org.example.model.PointsTransaction;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 存储引擎接口，屏蔽账户、预扣、订单、日志、事务记录、本地消息和积分的具体存储方式
+ *
+ * 所有方法的第一个参数是本地事务句柄：JDBC实现中就是数据库连接，
+ * 内存实现中不使用（可以为null），事务边界由begin/commit/rollback控制。
+ */
+public interface StorageEngine extends Closeable {
+
+    // ==================== 连接与本地事务 ====================
+
+    /**
+     * 打开一个本地事务句柄，使用完毕需要关闭；内存实现返回null
+     */
+    Connection openConnection() throws SQLException;
+
+    /**
+     * 开始本地事务（关闭自动提交）
+     */
+    void begin(Connection conn) throws SQLException;
+
+    /**
+     * 提交本地事务
+     */
+    void commit(Connection conn) throws SQLException;
+
+    /**
+     * 回滚本地事务
+     */
+    void rollback(Connection conn) throws SQLException;
+
+    /**
+     * 进入合并阶段：之后同一句柄上参与方的commit不再单独提交，
+     * rollback回滚整个阶段，直到exitFusedPhase统一提交或回滚
+     */
+    void enterFusedPhase(Connection conn) throws SQLException;
+
+    /**
+     * 退出合并阶段并提交或回滚阶段内的全部写操作，未处于合并阶段时按普通提交或回滚处理
+     */
+    void exitFusedPhase(Connection conn, boolean commit) throws SQLException;
+
+    /**
+     * 当前句柄是否处于合并阶段，合并阶段内参与方的rollback会撤销整个阶段
+     */
+    boolean inFusedPhase(Connection conn);
+
+    /**
+     * 注册在当前本地事务提交后执行的动作，事务回滚时丢弃
+     */
+    void afterCommit(Connection conn, Runnable action);
+
+    /**
+     * 实际执行的本地事务提交次数，用于压测统计
+     */
+    long getCommitCount();
+
+    /**
+     * 释放存储引擎持有的后台资源，默认无操作
+     */
+    @Override
+    default void close() {
+    }
+
+    // ==================== 用户账户 ====================
+
+    /**
+     * 查询用户余额，用户不存在时返回null
+     */
+    Double getBalance(Connection conn, String userId) throws SQLException;
+
+    /**
+     * 以排他锁读取用户余额，锁持有到本地事务结束，用户不存在时返回null
+     */
+    Double getBalanceForUpdate(Connection conn, String userId) throws SQLException;
+
+    /**
+     * 查询用户账户，包含balance和version，不存在时返回null；
+     * version在每次余额变更时递增，供乐观并发控制使用
+     */
+    Map<String, Object> findAccount(Connection conn, String userId) throws SQLException;
+
+    /**
+     * 以排他锁查询用户账户，读取已提交的最新版本而不是事务快照，锁持有到本地事务结束，不存在时返回null
+     */
+    Map<String, Object> findAccountForUpdate(Connection conn, String userId) throws SQLException;
+
+    /**
+     * 账户版本仍为expectedVersion时把余额设为newBalance并递增版本，版本已变化时返回false
+     */
+    boolean updateBalanceIfVersion(Connection conn, String userId, double newBalance, long expectedVersion)
+        throws SQLException;
+
+    /**
+     * 扣减余额，用户不存在时返回false
+     */
+    boolean deductBalance(Connection conn, String userId, double amount) throws SQLException;
+
+    /**
+     * 余额不少于amount时扣减，余额不足或用户不存在时返回false
+     */
+    boolean deductBalanceIfSufficient(Connection conn, String userId, double amount) throws SQLException;
+
+    /**
+     * 退还余额，用户不存在时返回false
+     */
+    boolean refundBalance(Connection conn, String userId, double amount) throws SQLException;
+
+    /**
+     * 创建用户账户，已存在时覆盖余额
+     */
+    void saveAccount(Connection conn, String userId, double balance) throws SQLException;
+
+    // ==================== 预扣记录 ====================
+
+    default void insertHold(Connection conn, String txId, String userId, double amount, String status)
+        throws SQLException {
+        insertHold(conn, txId, userId, amount, status, null);
+    }
+
+    /**
+     * 插入预扣记录，leaseId不为空表示金额从该余额租约中划出，而不是直接从账户扣减
+     */
+    void insertHold(Connection conn, String txId, String userId, double amount, String status, String leaseId)
+        throws SQLException;
+
+    /**
+     * 批量插入同一用户的预扣记录，amountsByTxId为事务ID到金额的映射
+     */
+    void insertHolds(Connection conn, String userId, Map<String, Double> amountsByTxId, String status)
+        throws SQLException;
+
+    /**
+     * 按事务ID和状态查询预扣记录，不存在时返回null
+     */
+    PaymentHold findHold(Connection conn, String txId, String status) throws SQLException;
+
+    /**
+     * 更新预扣记录状态，返回是否恰好更新了一条
+     */
+    boolean updateHoldStatus(Connection conn, String txId, String status) throws SQLException;
+
+    // ==================== 余额租约 ====================
+
+    /**
+     * 插入一条ACTIVE状态的余额租约，租约金额需要在同一本地事务中从账户扣减
+     */
+    void insertLease(Connection conn, String leaseId, String userId, long nodeId, double amount,
+                     Timestamp expireTime) throws SQLException;
+
+    /**
+     * 以共享锁读取租约，返回租约是否仍为ACTIVE；持有共享锁期间租约不会被归还
+     */
+    boolean isLeaseActive(Connection conn, String leaseId) throws SQLException;
+
+    /**
+     * 以排他锁读取租约，包含user_id、amount和status，不存在时返回null
+     */
+    Map<String, Object> lockLease(Connection conn, String leaseId) throws SQLException;
+
+    /**
+     * 从租约中划出且仍处于HOLD或CONFIRMED状态的预扣总额
+     */
+    double sumLeasedHolds(Connection conn, String leaseId) throws SQLException;
+
+    /**
+     * 关闭ACTIVE租约并记录归还金额，返回是否恰好更新了一条
+     */
+    boolean closeLease(Connection conn, String leaseId, String status, double returnedAmount) throws SQLException;
+
+    /**
+     * 查询到期时间早于cutoff仍为ACTIVE的租约ID
+     */
+    List<String> findExpiredLeaseIds(Connection conn, Timestamp cutoff) throws SQLException;
+
+    // ==================== 充电订单 ====================
+
+    void insertOrder(Connection conn, String orderId, String txId, String chargingPointId, String userId,
+                     double amount, String status) throws SQLException;
+
+    /**
+     * 更新订单的充电开始状态，startTime为null表示充电未开始
+     */
+    void updateOrderStart(Connection conn, String txId, String status, Timestamp startTime) throws SQLException;
+
+    /**
+     * 订单状态改为COMPLETED，返回是否恰好更新了一条
+     */
+    boolean completeOrder(Connection conn, String txId) throws SQLException;
+
+    /**
+     * 订单状态改为CANCELED，返回是否恰好更新了一条
+     */
+    boolean cancelOrder(Connection conn, String txId) throws SQLException;
+
+    /**
+     * 订单结算状态改为SETTLED，返回是否恰好更新了一条
+     */
+    boolean settleOrder(Connection conn, String orderId) throws SQLException;
+
+    /**
+     * 按事务ID查询订单，只读取view包含的列，statuses为空时不限制状态，不存在时返回null
+     */
+    ChargingOrder findOrderByTxId(Connection conn, String txId, OrderView view, String... statuses)
+        throws SQLException;
+
+    /**
+     * 按订单ID查询订单，只读取view包含的列，不存在时返回null
+     */
+    ChargingOrder findOrderByOrderId(Connection conn, String orderId, OrderView view) throws SQLException;
+
+    /**
+     * 用一条查询锁定一批订单（排他锁，直到本地事务结束），只读取view包含的列，不存在的订单不返回
+     */
+    List<ChargingOrder> lockOrders(Connection conn, List<String> orderIds, OrderView view) throws SQLException;
+
+    /**
+     * 用一条更新把一批订单的结算状态改为SETTLED，返回更新的行数
+     */
+    int settleOrders(Connection conn, List<String> orderIds) throws SQLException;
+
+    /**
+     * 查询所有处于INIT或IN_PROGRESS的订单（OCCUPANCY投影），启动时重建充电桩占用登记
+     */
+    List<ChargingOrder> findActiveOrders(Connection conn) throws SQLException;
+
+    /**
+     * 查询创建时间早于cutoff、仍处于INIT或IN_PROGRESS且未确认/取消的订单事务ID
+     */
+    List<String> findStaleChargingTxIds(Connection conn, Timestamp cutoff) throws SQLException;
+
+    // ==================== 充电计量 ====================
+
+    /**
+     * 批量写入订单的计量检查点，已自动停止的检查点同时记录停止时间（只记录第一次）
+     */
+    void saveMeterCheckpoints(Connection conn, List<MeterCheckpoint> checkpoints) throws SQLException;
+
+    /**
+     * 查询订单最近一次计量检查点，订单不存在时返回null，未写过检查点时电量和费用为0
+     */
+    MeterCheckpoint findMeterCheckpoint(Connection conn, String txId) throws SQLException;
+
+    // ==================== 操作日志 ====================
+
+    void insertPaymentLog(Connection conn, String txId, String userId, double amount,
+                          String action, String status, String remark) throws SQLException;
+
+    /**
+     * 查询Try幂等键早于cutoff但未确认/取消的支付事务ID
+     */
+    List<String> findStalePaymentTxIds(Connection conn, Timestamp cutoff) throws SQLException;
+
+    void insertChargingLog(Connection conn, String txId, String orderId, String chargingPointId, String userId,
+                           double amount, String action, String status, String remark) throws SQLException;
+
+    // ==================== 幂等键 ====================
+
+    /**
+     * 登记参与方操作的幂等键，已存在时返回false
+     */
+    boolean insertIdempotencyKey(Connection conn, String txId, String participant, String action) throws SQLException;
+
+    /**
+     * 幂等键是否存在
+     */
+    boolean hasIdempotencyKey(Connection conn, String txId, String participant, String action) throws SQLException;
+
+    // ==================== 事务记录 ====================
+
+    void insertTransaction(Connection conn, String txId, String status) throws SQLException;
+
+    /**
+     * 查询事务状态，不存在时返回null
+     */
+    String getTransactionStatus(Connection conn, String txId) throws SQLException;
+
+    /**
+     * 更新事务状态，COMMITTED/ROLLED_BACK会同时记录提交/回滚时间
+     */
+    void updateTransactionStatus(Connection conn, String txId, String status) throws SQLException;
+
+    // ==================== 本地消息 ====================
+
+    void insertMessage(Connection conn, LocalMessage message) throws SQLException;
+
+    /**
+     * 批量插入消息，JDBC实现拼成多行INSERT
+     */
+    void insertMessages(Connection conn, List<LocalMessage> messages) throws SQLException;
+
+    /**
+     * 按(next_retry_time, message_id)键集分页，认领指定状态下排在游标之后的至多limit条到期消息，
+     * 写入认领者和租约到期时间后按键集顺序返回；需在事务中调用
+     *
+     * 第一页的游标传入(new Timestamp(0), "")，之后传入上一页最后一条消息的next_retry_time和message_id。
+     * 其他事务正在认领的消息和租约未过期的消息会被跳过，多个处理者并发认领时拿到的消息互不重复。
+     * 确认、失败和重试更新会清除租约。
+     */
+    List<LocalMessage> claimMessages(Connection conn, String owner, String status, Timestamp now,
+                                     Timestamp leaseUntil, int maxRetryCount, Timestamp afterRetryTime,
+                                     String afterMessageId, int limit) throws SQLException;
+
+    /**
+     * 按消息ID认领待处理的消息，跳过规则与claimMessages相同，但PENDING消息不检查next_retry_time：
+     * 新消息的next_retry_time是创建时间，存入秒级精度的列时可能向上取整到下一秒；需在事务中调用
+     */
+    List<LocalMessage> claimMessagesById(Connection conn, String owner, List<String> messageIds, Timestamp now,
+                                         Timestamp leaseUntil, int maxRetryCount) throws SQLException;
+
+    void markMessageConfirmed(Connection conn, String messageId) throws SQLException;
+
+    /**
+     * 用一条更新确认一批消息
+     */
+    void markMessagesConfirmed(Connection conn, List<String> messageIds) throws SQLException;
+
+    void markMessageFailed(Connection conn, String messageId, String reason) throws SQLException;
+
+    /**
+     * 记录一次失败并安排下次重试，清除租约但保留认领者，认领者据此在启动时重建重试计划；
+     * markMessageFailed同样保留认领者，只有确认会清除
+     */
+    void updateMessageRetry(Connection conn, String messageId, int retryCount, Timestamp nextRetryTime)
+        throws SQLException;
+
+    /**
+     * 查询认领者安排过重试、仍可重试的消息，返回消息ID到下次重试时间的映射
+     */
+    Map<String, Timestamp> findRetryingMessages(Connection conn, String owner, int maxRetryCount)
+        throws SQLException;
+
+    // ==================== 积分 ====================
+
+    /**
+     * 订单是否已完成积分发放
+     */
+    boolean isPointsAdded(Connection conn, String orderId) throws SQLException;
+
+    /**
+     * 用一条查询找出一批订单中已完成积分发放的订单ID
+     */
+    Set<String> findPointsAddedOrderIds(Connection conn, List<String> orderIds) throws SQLException;
+
+    void insertPointsTransaction(Connection conn, PointsTransaction transaction) throws SQLException;
+
+    /**
+     * 批量插入积分交易记录，JDBC实现拼成多行INSERT
+     */
+    void insertPointsTransactions(Connection conn, List<PointsTransaction> transactions) throws SQLException;
+
+    /**
+     * 增加用户积分，积分记录不存在时创建
+     */
+    void addUserPoints(Connection conn, String userId, int points) throws SQLException;
+
+    /**
+     * 为多个用户增加积分，每个用户一行，JDBC实现拼成一条多行upsert
+     */
+    void addUserPoints(Connection conn, Map<String, Integer> pointsByUser) throws SQLException;
+
+    void completePointsTransaction(Connection conn, String transactionId) throws SQLException;
+
+    /**
+     * 查询积分还未计入user_points的交易记录（只填充交易ID、用户ID和积分）
+     */
+    List<PointsTransaction> findUnappliedPointsTransactions(Connection conn) throws SQLException;
+
+    /**
+     * 锁定一批交易记录中积分还未计入的记录并标记为已计入，返回实际标记的记录（只填充交易ID、用户ID和积分）；
+     * 已被其他节点计入的记录不返回，调用方只能把返回记录的积分加到user_points
+     */
+    List<PointsTransaction> markPointsApplied(Connection conn, List<String> transactionIds) throws SQLException;
+
+    int getUserPoints(Connection conn, String userId) throws SQLException;
+}
@@ -0,0 +1,58 @@
+package org.example.storage;
+
+import org.example.util.DBUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 存储引擎工厂，按系统属性charge.storage选择实现（jdbc或memory，默认jdbc）
+ *
+ * jdbc引擎在charge.audit.async=true时异步写入操作日志，溢写目录由charge.audit.spill.dir指定
+ */
+public final class StorageEngines {
+    private static volatile StorageEngine defaultEngine;
+
+    private StorageEngines() {}
+
+    /**
+     * 获取进程内共享的默认存储引擎
+     */
+    public static StorageEngine getDefault() {
+        StorageEngine engine = defaultEngine;
+        if (engine == null) {
+            synchronized (StorageEngines.class) {
+                engine = defaultEngine;
+                if (engine == null) {
+                    engine = create(System.getProperty("charge.storage", "jdbc"));
+                    defaultEngine = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * 按名称创建存储引擎
+     */
+    public static StorageEngine create(String type) {
+        if ("memory".equalsIgnoreCase(type)) {
+            return new MemoryStorageEngine();
+        }
+        if ("jdbc".equalsIgnoreCase(type)) {
+            JdbcStorageEngine engine = new JdbcStorageEngine(DBUtil.getDataSource());
+            if (Boolean.getBoolean("charge.audit.async")) {
+                Path spillDir = Paths.get(System.getProperty("charge.audit.spill.dir", "audit-spill"));
+                try {
+                    engine.setAuditLog(new AsyncAuditLog(engine.getDataSource(), spillDir));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("无法初始化异步操作日志: " + spillDir, e);
+                }
+            }
+            return engine;
+        }
+        throw new IllegalArgumentException("未知的存储引擎类型: " + type);
+    }
+}
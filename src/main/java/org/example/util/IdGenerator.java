@@ -0,0 +1,208 @@
+package org.example.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按时间递增的分布式ID生成器（雪花算法）
+ *
+ * 64位ID = 41位毫秒时间戳（自2024-01-01起）+ 10位节点号 + 12位序列号。
+ * 同一节点生成的ID严格递增，按时间顺序写入InnoDB聚簇索引的末尾，避免随机主键造成的页分裂。
+ *
+ * 生成过程无锁：上次使用的时间戳和序列号保存在一个AtomicLong中，通过CAS推进。
+ * 时钟回拨时继续沿用上次的时间戳；回拨期间序列号用尽则借用下一毫秒，
+ * 借用超过MAX_DRIFT_MILLIS时等待系统时钟追上，保证ID不重复且不倒退。
+ *
+ * 节点号必须由部署为每个进程分配且互不相同（系统属性charge.node.id），节点号相同的进程会生成相同的ID，
+ * 因此未配置时直接失败，不再按主机名推算。进程内共享的生成器把已使用时间戳的上限预留到状态文件
+ * （系统属性charge.node.state.file，默认在临时目录下），每次预留RESERVE_MILLIS并落盘后才发放该范围内的ID；
+ * 重启时从预留的上限继续，即使重启期间时钟回拨也不会重复发放ID。状态文件应位于重启后仍保留的磁盘上。
+ */
+public class IdGenerator {
+    private static final long EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long MAX_DRIFT_MILLIS = 1000;
+    private static final int ID_DIGITS = 19;
+    private static final long RESERVE_MILLIS = 1000;
+
+    private static volatile IdGenerator defaultGenerator;
+
+    private final long nodeId;
+    // 高位为相对EPOCH的时间戳，低12位为序列号
+    private final AtomicLong state = new AtomicLong();
+    // 已落盘预留的时间戳上限（相对EPOCH），为null时不持久化
+    private final FileChannel stateFile;
+    private volatile long reservedUntil = Long.MAX_VALUE;
+
+    public IdGenerator(long nodeId) {
+        checkNodeId(nodeId);
+        this.nodeId = nodeId;
+        this.stateFile = null;
+    }
+
+    /**
+     * 使用状态文件持久化已使用时间戳上限的生成器，从上次预留的上限之后继续生成
+     */
+    public IdGenerator(long nodeId, Path stateFile) throws IOException {
+        checkNodeId(nodeId);
+        this.nodeId = nodeId;
+        this.stateFile = FileChannel.open(stateFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE);
+        long reserved = 0;
+        if (this.stateFile.size() >= 8) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            while (buffer.hasRemaining()) {
+                this.stateFile.read(buffer, buffer.position());
+            }
+            reserved = buffer.getLong(0);
+        }
+        long now = System.currentTimeMillis() - EPOCH;
+        if (reserved > now) {
+            System.out.println("上次运行预留的ID时间戳超前系统时钟 " + (reserved - now) + " 毫秒，从预留上限之后继续生成，" +
+                               "超前过多时等待时钟追上");
+        }
+        // 序列号置满，第一个ID从预留上限的下一毫秒开始
+        state.set((reserved << SEQUENCE_BITS) | SEQUENCE_MASK);
+        reservedUntil = reserved;
+    }
+
+    private static void checkNodeId(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("节点号超出范围[0, " + MAX_NODE_ID + "]: " + nodeId);
+        }
+    }
+
+    /**
+     * 进程内共享的生成器，节点号取系统属性charge.node.id，未设置时抛出IllegalStateException
+     */
+    public static IdGenerator getDefault() {
+        IdGenerator generator = defaultGenerator;
+        if (generator == null) {
+            synchronized (IdGenerator.class) {
+                generator = defaultGenerator;
+                if (generator == null) {
+                    long nodeId = resolveNodeId();
+                    String stateFile = System.getProperty("charge.node.state.file",
+                        Paths.get(System.getProperty("java.io.tmpdir"), "charge-node-" + nodeId + ".state").toString());
+                    try {
+                        generator = new IdGenerator(nodeId, Paths.get(stateFile));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("打开ID生成器状态文件失败: " + stateFile, e);
+                    }
+                    defaultGenerator = generator;
+                }
+            }
+        }
+        return generator;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 生成下一个ID
+     */
+    public long nextId() {
+        while (true) {
+            long last = state.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long now = System.currentTimeMillis() - EPOCH;
+
+            long next;
+            if (now > lastTimestamp) {
+                next = now << SEQUENCE_BITS;
+            } else if ((last & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                // 同一毫秒内或时钟回拨，沿用上次的时间戳
+                next = last + 1;
+            } else if (lastTimestamp - now < MAX_DRIFT_MILLIS) {
+                // 序列号用尽，借用下一毫秒
+                next = (lastTimestamp + 1) << SEQUENCE_BITS;
+            } else {
+                // 借用过多，等待系统时钟追上
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+
+            if (state.compareAndSet(last, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                if (timestamp >= reservedUntil) {
+                    reserve(timestamp);
+                }
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    // 把预留上限推进到timestamp之后并落盘，落盘完成前不返回该时间戳的ID
+    private synchronized void reserve(long timestamp) {
+        if (timestamp < reservedUntil) {
+            return;
+        }
+        long until = timestamp + RESERVE_MILLIS;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            buffer.putLong(0, until);
+            while (buffer.hasRemaining()) {
+                stateFile.write(buffer, buffer.position());
+            }
+            stateFile.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入ID生成器状态文件失败", e);
+        }
+        reservedUntil = until;
+    }
+
+    /**
+     * 生成下一个ID的字符串形式，固定19位并补前导零，字符串顺序与数值顺序一致
+     */
+    public String nextIdString() {
+        return format(nextId());
+    }
+
+    /**
+     * 生成带前缀的ID字符串
+     */
+    public String nextIdString(String prefix) {
+        return prefix + format(nextId());
+    }
+
+    /**
+     * 解析ID中的生成时间（毫秒时间戳）
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    private static String format(long id) {
+        String digits = Long.toString(id);
+        if (digits.length() >= ID_DIGITS) {
+            return digits;
+        }
+        StringBuilder sb = new StringBuilder(ID_DIGITS);
+        for (int i = digits.length(); i < ID_DIGITS; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    private static long resolveNodeId() {
+        String configured = System.getProperty("charge.node.id");
+        if (configured == null || configured.trim().isEmpty()) {
+            // 主机名的散列在几十个节点时就很可能冲突，冲突的节点会生成相同的主键
+            throw new IllegalStateException("未配置节点号，请用 -Dcharge.node.id=<0-" + MAX_NODE_ID +
+                                            "> 为每个进程指定互不相同的节点号");
+        }
+        return Long.parseLong(configured.trim());
+    }
+}
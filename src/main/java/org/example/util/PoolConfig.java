@@ -0,0 +1,50 @@
+package org.example.util;
+
+/**
+ * 连接池配置
+ */
+public class PoolConfig {
+    private String url;
+    private String user;
+    private String password;
+    private int minIdle = 2; // 最小空闲连接数
+    private int maxSize = 10; // 最大连接数
+    private long acquireTimeoutMillis = 3000; // 获取连接超时时间
+    private long idleTimeoutMillis = 10 * 60 * 1000; // 空闲连接存活时间
+    private long maxLifetimeMillis = 30 * 60 * 1000; // 连接最大存活时间
+    private int validationTimeoutSeconds = 2; // 借出时校验连接的超时时间
+    private long leakDetectionThresholdMillis = 60 * 1000; // 连接泄漏检测阈值，0表示关闭
+    private long housekeepingIntervalMillis = 30 * 1000; // 后台维护任务间隔
+
+    public PoolConfig() {}
+
+    public PoolConfig(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    // Getters and Setters
+    public String getUrl() { return url; }
+    public void setUrl(String url) { this.url = url; }
+    public String getUser() { return user; }
+    public void setUser(String user) { this.user = user; }
+    public String getPassword() { return password; }
+    public void setPassword(String password) { this.password = password; }
+    public int getMinIdle() { return minIdle; }
+    public void setMinIdle(int minIdle) { this.minIdle = minIdle; }
+    public int getMaxSize() { return maxSize; }
+    public void setMaxSize(int maxSize) { this.maxSize = maxSize; }
+    public long getAcquireTimeoutMillis() { return acquireTimeoutMillis; }
+    public void setAcquireTimeoutMillis(long acquireTimeoutMillis) { this.acquireTimeoutMillis = acquireTimeoutMillis; }
+    public long getIdleTimeoutMillis() { return idleTimeoutMillis; }
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) { this.idleTimeoutMillis = idleTimeoutMillis; }
+    public long getMaxLifetimeMillis() { return maxLifetimeMillis; }
+    public void setMaxLifetimeMillis(long maxLifetimeMillis) { this.maxLifetimeMillis = maxLifetimeMillis; }
+    public int getValidationTimeoutSeconds() { return validationTimeoutSeconds; }
+    public void setValidationTimeoutSeconds(int validationTimeoutSeconds) { this.validationTimeoutSeconds = validationTimeoutSeconds; }
+    public long getLeakDetectionThresholdMillis() { return leakDetectionThresholdMillis; }
+    public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) { this.leakDetectionThresholdMillis = leakDetectionThresholdMillis; }
+    public long getHousekeepingIntervalMillis() { return housekeepingIntervalMillis; }
+    public void setHousekeepingIntervalMillis(long housekeepingIntervalMillis) { this.housekeepingIntervalMillis = housekeepingIntervalMillis; }
+}
@@ -0,0 +1,52 @@
+package org.example.util;
+
+/**
+ * 连接池指标快照
+ */
+public class PoolMetrics {
+    private final int totalConnections; // 当前连接总数
+    private final int activeConnections; // 已借出连接数
+    private final int idleConnections; // 空闲连接数
+    private final int pendingThreads; // 等待获取连接的线程数
+    private final long borrowCount; // 累计借出次数
+    private final long timeoutCount; // 累计获取超时次数
+    private final long createdCount; // 累计创建连接数
+    private final long destroyedCount; // 累计销毁连接数
+    private final long leakCount; // 累计检测到的疑似泄漏次数
+    private final long avgAcquireMicros; // 平均获取连接耗时(微秒)
+
+    public PoolMetrics(int totalConnections, int activeConnections, int idleConnections, int pendingThreads,
+                       long borrowCount, long timeoutCount, long createdCount, long destroyedCount,
+                       long leakCount, long avgAcquireMicros) {
+        this.totalConnections = totalConnections;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.pendingThreads = pendingThreads;
+        this.borrowCount = borrowCount;
+        this.timeoutCount = timeoutCount;
+        this.createdCount = createdCount;
+        this.destroyedCount = destroyedCount;
+        this.leakCount = leakCount;
+        this.avgAcquireMicros = avgAcquireMicros;
+    }
+
+    // Getters
+    public int getTotalConnections() { return totalConnections; }
+    public int getActiveConnections() { return activeConnections; }
+    public int getIdleConnections() { return idleConnections; }
+    public int getPendingThreads() { return pendingThreads; }
+    public long getBorrowCount() { return borrowCount; }
+    public long getTimeoutCount() { return timeoutCount; }
+    public long getCreatedCount() { return createdCount; }
+    public long getDestroyedCount() { return destroyedCount; }
+    public long getLeakCount() { return leakCount; }
+    public long getAvgAcquireMicros() { return avgAcquireMicros; }
+
+    @Override
+    public String toString() {
+        return "PoolMetrics{total=" + totalConnections + ", active=" + activeConnections + ", idle=" + idleConnections +
+               ", pending=" + pendingThreads + ", borrow=" + borrowCount + ", timeout=" + timeoutCount +
+               ", created=" + createdCount + ", destroyed=" + destroyedCount + ", leak=" + leakCount +
+               ", avgAcquireMicros=" + avgAcquireMicros + "}";
+    }
+}
@@ -0,0 +1,401 @@
+package org.example.util;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * 有界数据库连接池，替代每次调用都通过DriverManager新建连接
+ *
+ * 支持最小/最大连接数、空闲回收、借出校验、获取超时、泄漏检测和指标统计。
+ * 借出的连接是代理对象，调用close()时归还连接池而不是真正关闭。
+ */
+public class PooledDataSource implements DataSource, Closeable {
+    // 最近使用过的连接在此时间窗口内借出时跳过校验，避免每次借出都多一次往返
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    // 等待空闲连接时的轮询间隔，保证有连接被销毁腾出名额时等待线程能及时新建连接
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final PoolConfig config;
+    private final LinkedBlockingDeque<PooledEntry> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledEntry> active = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong acquireNanosTotal = new AtomicLong();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    private PrintWriter logWriter;
+    private int loginTimeout;
+
+    public PooledDataSource(PoolConfig config) {
+        if (config.getMaxSize() <= 0 || config.getMinIdle() < 0 || config.getMinIdle() > config.getMaxSize()) {
+            throw new IllegalArgumentException("连接池大小配置非法: minIdle=" + config.getMinIdle() +
+                                               ", maxSize=" + config.getMaxSize());
+        }
+        this.config = config;
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "PooledDataSource-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        fillToMinIdle();
+        housekeeper.scheduleWithFixedDelay(this::housekeep, config.getHousekeepingIntervalMillis(),
+                                           config.getHousekeepingIntervalMillis(), TimeUnit.MILLISECONDS);
+        System.out.println("数据库连接池已启动，最小空闲: " + config.getMinIdle() + ", 最大连接数: " + config.getMaxSize());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("连接池已关闭");
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getAcquireTimeoutMillis());
+        pending.incrementAndGet();
+        try {
+            while (true) {
+                PooledEntry entry = idle.pollFirst();
+                boolean fresh = false;
+                if (entry == null) {
+                    if (tryReserveSlot()) {
+                        entry = createEntry();
+                        fresh = true;
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            timeoutCount.incrementAndGet();
+                            throw new SQLTransientConnectionException(
+                                "获取数据库连接超时(" + config.getAcquireTimeoutMillis() + "ms): " + getMetrics());
+                        }
+                        entry = idle.pollFirst(Math.min(remaining, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS);
+                        if (entry == null) {
+                            continue;
+                        }
+                    }
+                }
+
+                if (!fresh && !isUsable(entry)) {
+                    destroy(entry);
+                    continue;
+                }
+                return borrow(entry, start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("获取数据库连接被中断", e);
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("连接池不支持按用户名获取连接");
+    }
+
+    /**
+     * 获取连接池指标快照
+     */
+    public PoolMetrics getMetrics() {
+        long borrows = borrowCount.get();
+        long avgAcquireMicros = borrows == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(acquireNanosTotal.get() / borrows);
+        return new PoolMetrics(total.get(), active.size(), idle.size(), pending.get(), borrows,
+                               timeoutCount.get(), createdCount.get(), destroyedCount.get(),
+                               leakCount.get(), avgAcquireMicros);
+    }
+
+    /**
+     * 关闭连接池，空闲连接立即关闭，已借出的连接在归还时关闭
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        housekeeper.shutdownNow();
+
+        PooledEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry);
+        }
+        System.out.println("数据库连接池已关闭: " + getMetrics());
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // 在不超过最大连接数的前提下占用一个连接名额
+    private boolean tryReserveSlot() {
+        while (true) {
+            int current = total.get();
+            if (current >= config.getMaxSize()) {
+                return false;
+            }
+            if (total.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // 创建物理连接，调用前必须已占用名额
+    private PooledEntry createEntry() throws SQLException {
+        try {
+            Connection raw = DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword());
+            createdCount.incrementAndGet();
+            return new PooledEntry(raw);
+        } catch (SQLException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    // 借出前校验连接是否可用
+    private boolean isUsable(PooledEntry entry) {
+        long now = System.currentTimeMillis();
+        if (now - entry.createdAt > config.getMaxLifetimeMillis()) {
+            return false;
+        }
+        if (now - entry.lastUsedAt < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return entry.raw.isValid(config.getValidationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection borrow(PooledEntry entry, long acquireStart) {
+        entry.borrowedAt = System.currentTimeMillis();
+        entry.borrowStack = config.getLeakDetectionThresholdMillis() > 0 ? new Throwable("连接借出位置") : null;
+        entry.leakReported = false;
+        active.add(entry);
+
+        borrowCount.incrementAndGet();
+        acquireNanosTotal.addAndGet(System.nanoTime() - acquireStart);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                   new Class<?>[] {Connection.class}, new ConnectionHandler(entry));
+    }
+
+    // 归还连接：重置事务状态后放回空闲队列头部
+    private void release(PooledEntry entry) {
+        active.remove(entry);
+        if (closed) {
+            destroy(entry);
+            return;
+        }
+
+        try {
+            if (entry.raw.isClosed()) {
+                destroy(entry);
+                return;
+            }
+            if (!entry.raw.getAutoCommit()) {
+                // 未提交的工作不能带给下一个借用者
+                entry.raw.rollback();
+                entry.raw.setAutoCommit(true);
+            }
+            entry.raw.clearWarnings();
+        } catch (SQLException e) {
+            destroy(entry);
+            return;
+        }
+
+        entry.lastUsedAt = System.currentTimeMillis();
+        entry.borrowStack = null;
+        idle.offerFirst(entry);
+    }
+
+    private void destroy(PooledEntry entry) {
+        total.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        try {
+            entry.raw.close();
+        } catch (SQLException e) {
+            // 连接可能已经断开，忽略关闭异常
+        }
+    }
+
+    private void fillToMinIdle() {
+        while (!closed && total.get() < config.getMinIdle() && tryReserveSlot()) {
+            try {
+                idle.offerLast(createEntry());
+            } catch (SQLException e) {
+                System.err.println("连接池预创建连接失败: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * 后台维护：泄漏检测、空闲回收、补足最小空闲连接
+     */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            long leakThreshold = config.getLeakDetectionThresholdMillis();
+            if (leakThreshold > 0) {
+                for (PooledEntry entry : active) {
+                    if (!entry.leakReported && now - entry.borrowedAt > leakThreshold) {
+                        entry.leakReported = true;
+                        leakCount.incrementAndGet();
+                        System.err.println("疑似连接泄漏，连接已借出 " + (now - entry.borrowedAt) + "ms 未归还");
+                        Throwable stack = entry.borrowStack;
+                        if (stack != null) {
+                            stack.printStackTrace();
+                        }
+                    }
+                }
+            }
+
+            List<PooledEntry> snapshot = new ArrayList<>(idle);
+            for (PooledEntry entry : snapshot) {
+                boolean expired = now - entry.createdAt > config.getMaxLifetimeMillis();
+                boolean idleTooLong = now - entry.lastUsedAt > config.getIdleTimeoutMillis()
+                                      && total.get() > config.getMinIdle();
+                if ((expired || idleTooLong) && idle.remove(entry)) {
+                    destroy(entry);
+                }
+            }
+
+            fillToMinIdle();
+        } catch (RuntimeException e) {
+            System.err.println("连接池维护任务异常: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("无法转换为: " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * 池中的物理连接
+     */
+    private static class PooledEntry {
+        final Connection raw;
+        final long createdAt;
+        volatile long lastUsedAt;
+        volatile long borrowedAt;
+        volatile Throwable borrowStack;
+        volatile boolean leakReported;
+
+        PooledEntry(Connection raw) {
+            this.raw = raw;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsedAt = createdAt;
+        }
+    }
+
+    /**
+     * 借出连接的代理，每次借出一个新的代理，归还后旧代理不可再使用
+     */
+    private class ConnectionHandler implements InvocationHandler {
+        private final PooledEntry entry;
+        private volatile boolean returned;
+
+        ConnectionHandler(PooledEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || entry.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection@" + Integer.toHexString(System.identityHashCode(proxy)) +
+                           (returned ? "[returned]" : "");
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if (returned) {
+                throw new SQLException("连接已归还连接池，不能继续使用");
+            }
+            try {
+                return method.invoke(entry.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程池工具
+ */
+public final class ThreadPools {
+
+    private ThreadPools() {}
+
+    /**
+     * 创建线程数和队列长度都有上限的线程池，队列满时由提交线程自己执行，形成背压
+     */
+    public static ThreadPoolExecutor newBoundedPool(String name, int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                             new ArrayBlockingQueue<>(queueCapacity),
+                                                             namedDaemonFactory(name),
+                                                             new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 运行时支持虚拟线程（Java 21+）时返回每任务一个虚拟线程的执行器，否则退回有界线程池
+     *
+     * 虚拟线程下并发度由连接池大小约束，不再受平台线程数限制。
+     */
+    public static ExecutorService newVirtualOrBoundedPool(String name, int threads, int queueCapacity) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            System.out.println(name + " 使用虚拟线程执行");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println(name + " 运行时不支持虚拟线程，使用有界线程池: " + threads + " 线程");
+            return newBoundedPool(name, threads, queueCapacity);
+        }
+    }
+
+    /**
+     * 按"名称-序号"命名的守护线程工厂
+     */
+    public static ThreadFactory namedDaemonFactory(String name) {
+        AtomicInteger sequence = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}